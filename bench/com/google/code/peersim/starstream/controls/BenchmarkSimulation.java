@@ -0,0 +1,172 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import peersim.config.Configuration;
+import peersim.config.ParsedProperties;
+import peersim.core.CommonState;
+import peersim.edsim.EDSimulator;
+
+/**
+ * Fixture shared by the JMH benchmarks: it loads the reference *-Stream configuration,
+ * overrides the network size and the *-Stream Store size, and lets PeerSim run
+ * the simulation for a given amount of simulated-time, so that benchmarks can
+ * then operate on a network that is actually streaming.<br>
+ * Once the simulation is over, the simulated-time is left at {@code endTime-1}:
+ * every message benchmarks cause to be sent is thus scheduled past the end of
+ * the simulation and silently discarded by PeerSim, that keeps benchmarks free
+ * of side-effects on the event queue.<br>
+ * The configuration file is {@value #DEFAULT_CONFIG}, unless the {@value #CONFIG}
+ * system property says otherwise.<br>
+ * Benchmarks that only configure PeerSim have no source, hence no streaming
+ * session: they file their chunks under {@link BenchmarkSimulation#SESSION_ID}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public final class BenchmarkSimulation {
+
+  /**
+   * System property for overriding the configuration file.
+   */
+  public static final String CONFIG = "starstream.bench.config";
+  /**
+   * The reference configuration file.
+   */
+  public static final String DEFAULT_CONFIG = "config/starstream.properties";
+  /**
+   * Simulated-time needed by the reference configuration, once the Pastry overlay
+   * has been built, to let every node store some chunks.
+   */
+  private static final long STREAMING_WARM_UP_TIME = 1500;
+  /**
+   * The session chunks are created for when no simulation has been run.
+   */
+  public static final UUID SESSION_ID = new UUID(0L, 1L);
+
+  /**
+   * Utility class.
+   */
+  private BenchmarkSimulation() {
+  }
+
+  /**
+   * Sets up the PeerSim configuration without running any simulation.
+   *
+   * @param nodes The number of nodes
+   * @param storeSize The *-Stream Store size
+   * @param storeImpl The *-Stream Store implementation
+   * @param endTime The simulation end-time
+   * @throws IOException Thrown iff the configuration file cannot be read
+   */
+  public static void configure(int nodes, int storeSize, String storeImpl, long endTime) throws IOException {
+    String logDir = System.getProperty("java.io.tmpdir") + File.separator;
+    String[] props = new String[]{
+      System.getProperty(CONFIG, DEFAULT_CONFIG),
+      "SIZE " + nodes,
+      "simulation.endtime " + endTime,
+      "simulation.logtime " + endTime,
+      "protocol.starstream.starStoreSize " + storeSize,
+      "protocol.starstream.storeImpl " + storeImpl,
+      "control.pastryOverlayBuilder.doLog false",
+      "control.starstreamSource.doLog false",
+      "control.stateTablesObserver.log " + logDir + "pastry-bench-state-tables-",
+      // the observer is not scheduled within the simulation, benchmarks drive it
+      "control.starstreamNodesObserver.from " + endTime,
+      "control.starstreamNodesObserver.log " + logDir + "starstream-bench-stats-"
+    };
+    Configuration.setConfig(new ParsedProperties(props));
+    CommonState.initializeRandom(Configuration.getLong(CommonState.PAR_SEED));
+  }
+
+  /**
+   * Returns the simulated-time the reference configuration needs to build the
+   * Pastry overlay, one join per time unit, and to let every node store some chunks.
+   *
+   * @param nodes The number of nodes
+   * @return The simulated-time
+   */
+  public static long warmUpTime(int nodes) {
+    return nodes + STREAMING_WARM_UP_TIME;
+  }
+
+  /**
+   * Sets up the PeerSim configuration and runs the simulation up to {@code endTime}.
+   *
+   * @param nodes The number of nodes
+   * @param storeSize The *-Stream Store size
+   * @param storeImpl The *-Stream Store implementation
+   * @param endTime The simulation end-time
+   * @throws IOException Thrown iff the configuration file cannot be read
+   */
+  public static void simulate(int nodes, int storeSize, String storeImpl, long endTime) throws IOException {
+    configure(nodes, storeSize, storeImpl, endTime);
+    EDSimulator.nextExperiment();
+    CommonState.setTime(endTime - 1);
+  }
+
+  /**
+   * Returns the session streamed by the simulation run by {@link BenchmarkSimulation#simulate(int, int, java.lang.String, long)}.
+   *
+   * @return The *-Stream session id
+   * @throws IllegalStateException Thrown iff no source is streaming
+   */
+  public static UUID getStreamingSessionId() {
+    UUID sessionId = StarStreamSource.getStarStreamSessionId();
+    if (sessionId == null) {
+      throw new IllegalStateException("No source is streaming, the simulation has not been run");
+    }
+    return sessionId;
+  }
+
+  /**
+   * Creates chunks belonging to the session streamed by the simulation, with
+   * contiguous sequence ids starting from {@code firstSeqId}.
+   *
+   * @param firstSeqId The first sequence id
+   * @param count How many chunks must be created
+   * @param ttl The chunks TTL
+   * @return The chunks
+   */
+  public static List<Chunk<?>> newChunks(int firstSeqId, int count, int ttl) {
+    return newChunks(getStreamingSessionId(), firstSeqId, count, ttl);
+  }
+
+  /**
+   * Creates chunks belonging to the given session, with contiguous sequence ids
+   * starting from {@code firstSeqId}.
+   *
+   * @param sessionId The *-Stream session id
+   * @param firstSeqId The first sequence id
+   * @param count How many chunks must be created
+   * @param ttl The chunks TTL
+   * @return The chunks
+   */
+  public static List<Chunk<?>> newChunks(UUID sessionId, int firstSeqId, int count, int ttl) {
+    List<Chunk<?>> chunks = new ArrayList<Chunk<?>>(count);
+    for (int i = 0; i < count; i++) {
+      chunks.add(ChunkUtils.createChunk(Integer.valueOf(firstSeqId + i), sessionId, firstSeqId + i, ttl));
+    }
+    return chunks;
+  }
+
+  /**
+   * Returns the {@link StarStreamNodesObserver} configured by the reference
+   * configuration, logging to the temporary directory.
+   *
+   * @return The observer
+   * @throws IOException Thrown iff the log file cannot be created
+   */
+  public static StarStreamNodesObserver newNodesObserver() throws IOException {
+    return new StarStreamNodesObserver("control.starstreamNodesObserver");
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+import com.google.code.peersim.starstream.protocol.StarStreamStore;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link StarStreamNodesObserver#dump()}, that is the collection of
+ * the end-of-simulation statistics over every node, on a network that is streaming.
+ * The statistics are logged to the temporary directory.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StarStreamNodesObserverBenchmark {
+
+  @Param({"200", "1000"})
+  public int nodes;
+  @Param({"15", "150"})
+  public int storeSize;
+  private StarStreamNodesObserver observer;
+
+  @Setup
+  public void setUp() throws IOException {
+    BenchmarkSimulation.simulate(nodes, storeSize, StarStreamStore.MAP_IMPL, BenchmarkSimulation.warmUpTime(nodes));
+    observer = BenchmarkSimulation.newNodesObserver();
+  }
+
+  /**
+   * Dumps the statistics.
+   */
+  @Benchmark
+  public void dump() {
+    observer.dump();
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.controls.BenchmarkSimulation;
+import com.google.code.peersim.starstream.controls.ChunkUtils;
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import java.util.Set;
+import java.util.UUID;
+import peersim.core.Network;
+
+/**
+ * Helpers for picking, out of a network set up by
+ * {@link com.google.code.peersim.starstream.controls.BenchmarkSimulation}, the
+ * nodes and chunks benchmarks operate on.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class BenchmarkNodes {
+
+  /**
+   * Utility class.
+   */
+  private BenchmarkNodes() {
+  }
+
+  /**
+   * Returns the first active node that has at least one Pastry neighbor and
+   * one valid chunk in its *-Stream Store.
+   *
+   * @return The node
+   */
+  static StarStreamNode pickNode() {
+    for (int i = 0; i < Network.size(); i++) {
+      StarStreamNode node = (StarStreamNode) Network.get(i);
+      if (node.isUp() && !getNeighbors(node, 1).isEmpty() && getStoredChunk(node) != null) {
+        return node;
+      }
+    }
+    throw new IllegalStateException("No node is streaming yet, the simulation is too short");
+  }
+
+  /**
+   * Returns up to {@code count} Pastry neighbors of the given node.
+   *
+   * @param node The node
+   * @param count The maximum number of neighbors
+   * @return The neighbors
+   */
+  static Set<StarStreamNode> getNeighbors(StarStreamNode node, int count) {
+    return node.getPastryProtocol().getNeighbors(count);
+  }
+
+  /**
+   * Returns the valid chunk with the lowest sequence id stored by the given node.
+   *
+   * @param node The node
+   * @return The chunk, or {@code null}
+   */
+  static Chunk<?> getStoredChunk(StarStreamNode node) {
+    UUID sessionId = BenchmarkSimulation.getStreamingSessionId();
+    Chunk<?> chunk = null;
+    PastryId chunkId = ChunkUtils.nextChunkId(sessionId, -1);
+    for (int seqId = 0; chunk == null && chunkId != null; seqId++) {
+      chunk = node.getStore().getChunk(sessionId, chunkId);
+      chunkId = ChunkUtils.nextChunkId(sessionId, seqId);
+    }
+    return chunk;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.controls.BenchmarkSimulation;
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import com.google.code.peersim.starstream.controls.StarStreamSource;
+import com.google.code.peersim.starstream.protocol.messages.ChunkAdvertisement;
+import com.google.code.peersim.starstream.protocol.messages.ChunkMessage;
+import com.google.code.peersim.starstream.protocol.messages.ChunkRequest;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage.Type;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the dispatch of incoming messages by {@link StarStreamProtocol#processEvent(peersim.core.Node, int, java.lang.Object)}
+ * on a node of a network that is streaming. Each message type is delivered in
+ * its steady-state form, so that the state of the node does not grow across
+ * invocations:
+ * <ul>
+ * <li>{@code CHUNK}: a chunk that is already stored, that is acked and advertised again</li>
+ * <li>{@code CHUNK_OK}: an ack for a chunk message that is not pending</li>
+ * <li>{@code CHUNK_ADV}: the advertisement of a chunk that is already stored</li>
+ * <li>{@code CHUNK_REQ}: the request for a chunk that is not stored, answered with a {@code CHUNK_MISSING}</li>
+ * </ul>
+ * The used bandwidth is reset before each delivery, thus no message is ever delayed.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StarStreamProtocolBenchmark {
+
+  @Param({"200", "1000"})
+  public int nodes;
+  @Param({"15", "150"})
+  public int storeSize;
+  @Param({"CHUNK", "CHUNK_OK", "CHUNK_ADV", "CHUNK_REQ"})
+  public String type;
+  private StarStreamNode node;
+  private StarStreamProtocol protocol;
+  private int pid;
+  private StarStreamMessage msg;
+
+  @Setup
+  public void setUp() throws IOException {
+    BenchmarkSimulation.simulate(nodes, storeSize, StarStreamStore.MAP_IMPL, BenchmarkSimulation.warmUpTime(nodes));
+    node = BenchmarkNodes.pickNode();
+    protocol = node.getStarStreamProtocol();
+    pid = node.getStarStreamPid();
+    StarStreamNode neighbor = BenchmarkNodes.getNeighbors(node, 1).iterator().next();
+    Chunk<?> stored = BenchmarkNodes.getStoredChunk(node);
+    switch (Type.valueOf(type)) {
+      case CHUNK: {
+        msg = new ChunkMessage(neighbor, node, stored, 0);
+        break;
+      }
+      case CHUNK_OK: {
+        msg = new ChunkMessage(node, neighbor, stored, 0).replyOk();
+        break;
+      }
+      case CHUNK_ADV: {
+        msg = ChunkAdvertisement.newInstancesFor(neighbor, Collections.singleton(node), stored).get(0);
+        break;
+      }
+      case CHUNK_REQ: {
+        Chunk<?> missing = BenchmarkSimulation.newChunks(StarStreamSource.getTotalChunks(), 1, Integer.MAX_VALUE).get(0);
+        msg = new ChunkRequest(neighbor, node, missing.getSessionId(), missing.getResourceId());
+        break;
+      }
+      default: {
+        throw new IllegalArgumentException("Unsupported message type " + type);
+      }
+    }
+  }
+
+  /**
+   * Delivers the message to the node.
+   */
+  @Benchmark
+  public void processEvent() {
+    protocol.resetUsedBandwidth();
+    protocol.processEvent(node, pid, msg);
+  }
+}
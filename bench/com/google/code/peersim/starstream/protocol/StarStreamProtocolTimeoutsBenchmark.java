@@ -0,0 +1,101 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.controls.BenchmarkSimulation;
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import com.google.code.peersim.starstream.controls.StarStreamSource;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+
+/**
+ * Benchmarks {@link StarStreamProtocol#checkForTimeouts()} on a node with
+ * {@code pending} chunk requests waiting for an answer, as it happens when a
+ * node falls behind and searches for many chunks at once.<br>
+ * Each invocation works on a fresh copy of the protocol instance of the node,
+ * whose requests have all been issued at the same simulated-time:
+ * <ul>
+ * <li>{@code idle} checks at that very time, when no request has expired yet</li>
+ * <li>{@code expiring} checks once every request has expired, and looks each chunk up by means of Pastry</li>
+ * </ul>
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StarStreamProtocolTimeoutsBenchmark {
+
+  @Param({"200", "1000"})
+  public int nodes;
+  @Param({"1000", "10000"})
+  public int pending;
+  private StarStreamNode node;
+  private List<Chunk<?>> chunks;
+  private long requestTime;
+  private long expirationTime;
+  private StarStreamProtocol protocol;
+
+  @Setup
+  public void setUp() throws IOException {
+    long endTime = BenchmarkSimulation.warmUpTime(nodes);
+    BenchmarkSimulation.simulate(nodes, 15, StarStreamStore.MAP_IMPL, endTime);
+    node = BenchmarkNodes.pickNode();
+    chunks = BenchmarkSimulation.newChunks(StarStreamSource.getTotalChunks(), pending, Integer.MAX_VALUE);
+    requestTime = endTime - 1;
+    expirationTime = requestTime + Configuration.getInt("protocol.starstream." + StarStreamProtocol.MSG_TIMEOUT) + 1;
+  }
+
+  @Setup(Level.Invocation)
+  public void issueRequests() {
+    CommonState.setTime(requestTime);
+    protocol = (StarStreamProtocol) node.getStarStreamProtocol().clone();
+    protocol.setOwner(node);
+    // align the timing wheels of the copy to the current time, as ticks do
+    protocol.checkForTimeouts();
+    for (Chunk<?> chunk : chunks) {
+      protocol.resetUsedBandwidth();
+      protocol.searchForChunk(chunk.getSessionId(), chunk.getResourceId());
+    }
+    protocol.resetUsedBandwidth();
+  }
+
+  /**
+   * Checks for timeouts when nothing has expired.
+   */
+  @Benchmark
+  public void idle() {
+    protocol.checkForTimeouts();
+  }
+
+  /**
+   * Checks for timeouts when every pending request has expired.
+   */
+  @Benchmark
+  public void expiring() {
+    CommonState.setTime(expirationTime);
+    protocol.checkForTimeouts();
+  }
+}
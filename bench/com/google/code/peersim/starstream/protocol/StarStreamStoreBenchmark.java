@@ -0,0 +1,101 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.controls.BenchmarkSimulation;
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link StarStreamStore} operations every node performs on each
+ * received chunk and at each playback step.<br>
+ * No simulation is run, thus results do not depend on the network size: stores
+ * are filled with {@code storeSize} contiguous, non-expiring chunks.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StarStreamStoreBenchmark {
+
+  @Param({"15", "150", "1500"})
+  public int storeSize;
+  @Param({StarStreamStore.MAP_IMPL, StarStreamStore.RING_IMPL})
+  public String storeImpl;
+  private UUID sessionId;
+  private List<Chunk<?>> chunks;
+  private PastryId[] chunkIds;
+  private StarStreamStore store;
+  private int cursor;
+
+  @Setup
+  public void setUp() throws IOException {
+    BenchmarkSimulation.configure(1, storeSize, storeImpl, Long.MAX_VALUE);
+    sessionId = BenchmarkSimulation.SESSION_ID;
+    chunks = BenchmarkSimulation.newChunks(sessionId, 0, storeSize, Integer.MAX_VALUE);
+    chunkIds = new PastryId[chunks.size()];
+    store = StarStreamStore.newInstance(storeImpl, storeSize);
+    for (int i = 0; i < chunkIds.length; i++) {
+      chunkIds[i] = chunks.get(i).getResourceId();
+      store.addChunk(chunks.get(i));
+    }
+  }
+
+  /**
+   * Fills an empty store.
+   *
+   * @return The filled store
+   */
+  @Benchmark
+  public StarStreamStore addChunk() {
+    StarStreamStore s = StarStreamStore.newInstance(storeImpl, storeSize);
+    for (int i = 0; i < chunks.size(); i++) {
+      s.addChunk(chunks.get(i));
+    }
+    return s;
+  }
+
+  /**
+   * Looks up the stored chunks round-robin.
+   *
+   * @return The chunk
+   */
+  @Benchmark
+  public Chunk<?> getChunk() {
+    cursor = (cursor + 1) % chunkIds.length;
+    return store.getChunk(sessionId, chunkIds[cursor]);
+  }
+
+  /**
+   * Measures the length of the contiguous run of a full store.
+   *
+   * @return The length of the run
+   */
+  @Benchmark
+  public int countContiguousChunksFromStart() {
+    return store.countContiguousChunksFromStart(sessionId);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+import com.google.code.peersim.starstream.controls.BenchmarkSimulation;
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import com.google.code.peersim.starstream.protocol.StarStreamNode;
+import com.google.code.peersim.starstream.protocol.StarStreamStore;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import peersim.core.Network;
+
+/**
+ * Benchmarks {@link ChunkAdvertisement#newInstancesFor(StarStreamNode, Set, Chunk)},
+ * that is the creation of the advertisements a node sends out for each new chunk,
+ * towards {@code fanout} neighbors.<br>
+ * The network is only initialized, no simulation is run.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkAdvertisementBenchmark {
+
+  @Param({"200", "1000"})
+  public int nodes;
+  @Param({"4", "16", "64"})
+  public int fanout;
+  private StarStreamNode src;
+  private Set<StarStreamNode> dsts;
+  private Chunk<?> chunk;
+
+  @Setup
+  public void setUp() throws IOException {
+    BenchmarkSimulation.simulate(nodes, 15, StarStreamStore.MAP_IMPL, 1);
+    src = (StarStreamNode) Network.get(0);
+    dsts = new LinkedHashSet<StarStreamNode>();
+    for (int i = 1; i <= fanout; i++) {
+      dsts.add((StarStreamNode) Network.get(i * (Network.size() - 1) / fanout));
+    }
+    chunk = BenchmarkSimulation.newChunks(0, 1, Integer.MAX_VALUE).get(0);
+  }
+
+  /**
+   * Creates the advertisements.
+   *
+   * @return The advertisements
+   */
+  @Benchmark
+  public List<ChunkAdvertisement> newInstancesFor() {
+    return ChunkAdvertisement.newInstancesFor(src, dsts, chunk);
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory of the chunk identifiers generated for a single *-Stream session.<br>
+ * Since sources produce sequence identifiers that are contiguous and start from
+ * zero, chunk identifiers are kept in an array indexed by sequence identifier,
+ * that grows by doubling: looking a chunk identifier up takes no hashing and no
+ * boxing. The lowest and highest sequence identifiers are maintained as chunks
+ * are added, whereas the reverse mapping, from chunk identifier to sequence identifier,
+ * is hash-based.<br>
+ * The index also keeps the expiration time of every chunk and, since chunks expire
+ * in sequence identifier order, a low-water mark below which every chunk has
+ * expired: the mark is advanced at most once per simulated time unit, past the
+ * chunks that have expired in the meantime.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+final class ChunkIdIndex {
+
+  /**
+   * Initial capacity of the array.
+   */
+  private static final int INITIAL_CAPACITY = 64;
+  /**
+   * Chunk identifiers by sequence identifier, {@code null} where unknown.
+   */
+  private PastryId[] chunkIds = new PastryId[INITIAL_CAPACITY];
+  /**
+   * Expiration times by sequence identifier: chunks expire once the simulated
+   * time is past this value.
+   */
+  private long[] expirations = new long[INITIAL_CAPACITY];
+  /**
+   * Sequence identifiers by chunk identifier.
+   */
+  private final Map<PastryId, Integer> seqIds = new HashMap<PastryId, Integer>();
+  /**
+   * Highest sequence identifier added so far.
+   */
+  private int maxSeqId = Integer.MIN_VALUE;
+  /**
+   * Lowest sequence identifier added so far, never greater than {@code -1}.
+   */
+  private int minSeqId = -1;
+  /**
+   * Every chunk whose sequence identifier is lower than this has expired.
+   */
+  private int lowestLiveSeqId = 0;
+  /**
+   * The simulated time {@link ChunkIdIndex#lowestLiveSeqId} has been advanced at.
+   */
+  private long lowestLiveSeqIdTime = Long.MIN_VALUE;
+
+  /**
+   * Remembers the identifier of the chunk with the given sequence identifier.
+   *
+   * @param seqId The sequence identifier
+   * @param chunkId The chunk identifier
+   * @param expiration The simulated time after which the chunk is expired
+   * @throws IllegalArgumentException Thrown iff {@code seqId} is negative
+   */
+  void put(int seqId, PastryId chunkId, long expiration) {
+    if (seqId < 0) {
+      throw new IllegalArgumentException("Negative sequence identifier " + seqId);
+    }
+    if (seqId >= chunkIds.length) {
+      int capacity = Math.max(seqId + 1, chunkIds.length * 2);
+      chunkIds = Arrays.copyOf(chunkIds, capacity);
+      expirations = Arrays.copyOf(expirations, capacity);
+    }
+    chunkIds[seqId] = chunkId;
+    expirations[seqId] = expiration;
+    seqIds.put(chunkId, seqId);
+    maxSeqId = Math.max(maxSeqId, seqId);
+    minSeqId = Math.min(minSeqId, seqId);
+  }
+
+  /**
+   * Returns the identifier of the chunk with the given sequence identifier.
+   *
+   * @param seqId The sequence identifier
+   * @return The chunk identifier, or {@code null} if unknown
+   */
+  PastryId get(int seqId) {
+    return (seqId >= 0 && seqId < chunkIds.length) ? chunkIds[seqId] : null;
+  }
+
+  /**
+   * Adds to {@code dst} the identifiers of the chunks with the first {@code count}
+   * sequence identifiers in {@code seqIds}, skipping unknown ones.
+   *
+   * @param seqIds The sequence identifiers
+   * @param count How many sequence identifiers must be looked up
+   * @param dst The collection to add the chunk identifiers to
+   */
+  void getAll(int[] seqIds, int count, Collection<PastryId> dst) {
+    for (int i = 0; i < count; i++) {
+      PastryId chunkId = get(seqIds[i]);
+      if (chunkId != null) {
+        dst.add(chunkId);
+      }
+    }
+  }
+
+  /**
+   * Returns the sequence identifier of the chunk with the given identifier.
+   *
+   * @param chunkId The chunk identifier
+   * @return The sequence identifier, or {@code -1} if unknown
+   */
+  int getSequenceId(PastryId chunkId) {
+    Integer seqId = seqIds.get(chunkId);
+    return seqId == null ? -1 : seqId;
+  }
+
+  /**
+   * Returns the lowest sequence identifier whose chunk may have not expired yet
+   * at the given time: every chunk with a lower sequence identifier has.
+   * Sequence identifiers never added stop the mark.
+   *
+   * @param now The current simulated time
+   * @return The sequence identifier
+   */
+  int getLowestLiveSeqId(long now) {
+    if (now != lowestLiveSeqIdTime) {
+      int limit = Math.min(chunkIds.length, maxSeqId + 1);
+      while (lowestLiveSeqId < limit && chunkIds[lowestLiveSeqId] != null && now > expirations[lowestLiveSeqId]) {
+        lowestLiveSeqId++;
+      }
+      lowestLiveSeqIdTime = now;
+    }
+    return lowestLiveSeqId;
+  }
+
+  /**
+   * Returns the highest sequence identifier added so far.
+   *
+   * @return The sequence identifier, {@link Integer#MIN_VALUE} if none has been added
+   */
+  int getMaxSeqId() {
+    return maxSeqId;
+  }
+
+  /**
+   * Returns the lowest sequence identifier added so far.
+   *
+   * @return The sequence identifier, never greater than {@code -1}
+   */
+  int getMinSeqId() {
+    return minSeqId;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+/**
+ * Content of the chunks produced by the {@link StarStreamSource}: it tells how
+ * many bytes of the stream a chunk carries, without allocating them.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public final class ChunkPayload {
+
+  /**
+   * The number of bytes.
+   */
+  private final int size;
+
+  /**
+   * Constructor.
+   *
+   * @param size The number of bytes
+   */
+  public ChunkPayload(int size) {
+    if (size < 0) throw new IllegalArgumentException("The size cannot be negative");
+    this.size = size;
+  }
+
+  /**
+   * Returns the number of bytes the payload stands for.
+   *
+   * @return The number of bytes
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return size + " bytes";
+  }
+}
@@ -3,10 +3,7 @@ package com.google.code.peersim.starstream.controls;
 import com.google.code.peersim.pastry.protocol.PastryId;
 import com.google.code.peersim.pastry.protocol.PastryResource;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import peersim.core.CommonState;
 
@@ -14,7 +11,7 @@ import peersim.core.CommonState;
  * This class is useful to disparate other components that need to deal with chunks.
  * It must be used as a <i>chunks-factory</i> (i.e. by the {@link StarStreamSource}),
  * and as a centralized <i>generated chunk identifiers repository</i> by *-Stream
- * Chunk Schedulers.
+ * Chunk Schedulers. The memory itself belongs to the {@link SimulationContext}.
  *
  * @author frusso
  * @version 0.1
@@ -22,31 +19,30 @@ import peersim.core.CommonState;
  */
 public class ChunkUtils {
 
+  public static PastryId getChunkIdForSequenceId(UUID sessionId, int seqId) {
+    ChunkIdIndex index = SimulationContext.current().getChunkIdIndex(sessionId, false);
+    return index == null ? null : index.get(seqId);
+  }
+
   /**
-   * Memory of generated chunk-identifiers. It has a two-level depth, the first one
-   * being the *-Stream session identifier (an UUID), and the second being a chunk's
-   * sequence identifier. The final value that can be accessed is the concrete chunk
-   * identifier, that is a {@link PastryId}.
+   * Returns the sequence identifier of the chunk with the given unique identifier,
+   * or {@code -1} if no such chunk has been generated for the given session.
+   *
+   * @param sessionId The *-Stream session identifier
+   * @param chunkId The chunk unique identifier
+   * @return The sequence identifier, or {@code -1}
    */
-  private static Map<UUID, Map<Integer, PastryId>> chunkIds = new HashMap<UUID, Map<Integer, PastryId>>();
-
-  private static int minSeqNumber = -1;
-
-  public static PastryId getChunkIdForSequenceId(UUID sessionId, int seqId) {
-    PastryId res = null;
-    Map<Integer, PastryId> chunks = chunkIds.get(sessionId);
-    if(chunks!=null) {
-      res = chunks.get(seqId);
-    }
-    return res;
+  public static int getSequenceIdForChunkId(UUID sessionId, PastryId chunkId) {
+    ChunkIdIndex index = SimulationContext.current().getChunkIdIndex(sessionId, false);
+    return index == null ? -1 : index.getSequenceId(chunkId);
   }
 
   public static List<PastryId> getChunkIdsForSequenceIds(UUID sessionId, List<Integer> seqIds) {
     List<PastryId> pids = new ArrayList<PastryId>();
-    Map<Integer, PastryId> chunks = chunkIds.get(sessionId);
-    if(chunks!=null) {
+    ChunkIdIndex index = SimulationContext.current().getChunkIdIndex(sessionId, false);
+    if(index!=null) {
       for(int id : seqIds) {
-        PastryId pid = chunks.get(id);
+        PastryId pid = index.get(id);
         if(pid!=null)
           pids.add(pid);
       }
@@ -54,25 +50,63 @@ public class ChunkUtils {
     return pids;
   }
 
+  /**
+   * Returns the unique identifiers of the chunks with the first {@code count}
+   * sequence identifiers in {@code seqIds}, skipping those that have not been
+   * generated, without boxing any sequence identifier.
+   *
+   * @param sessionId The *-Stream session identifier
+   * @param seqIds The sequence identifiers
+   * @param count How many sequence identifiers must be looked up
+   * @return The chunk unique identifiers
+   */
+  public static List<PastryId> getChunkIdsForSequenceIds(UUID sessionId, int[] seqIds, int count) {
+    List<PastryId> pids = new ArrayList<PastryId>(count);
+    ChunkIdIndex index = SimulationContext.current().getChunkIdIndex(sessionId, false);
+    if(index!=null) {
+      index.getAll(seqIds, count, pids);
+    }
+    return pids;
+  }
+
   /**
    * Factory method.
    * 
    * @param <T> The actual payload type
    * @param data The chunk payload
    * @param sid The *-Stream unique session ID
-   * @param seqNumber The chunk sequence number
+   * @param seqNumber The chunk sequence number, not negative
    * @return The new chunk
    */
   static <T> Chunk<T> createChunk(T data, UUID sid, int seqNumber, int ttl) {
-    // TODO multisession minSeqNum
-    minSeqNumber = Math.min(seqNumber, minSeqNumber);
     Chunk<T> chunk = new Chunk<T>(data, sid, seqNumber, ttl);
-    storeNewChunkIdentity(chunk);
+    SimulationContext.current().getChunkIdIndex(sid, true).put(seqNumber, chunk.getResourceId(), chunk.getTimeStamp() + chunk.getTTL());
     return chunk;
   }
 
-  public static int getMinSeqNumber() {
-    return minSeqNumber;
+  /**
+   * Returns the lowest sequence identifier of the chunks produced so far for the
+   * given *-Stream session.
+   *
+   * @param sid The *-Stream session identifier
+   * @return The lowest sequence identifier, never greater than {@code -1}
+   */
+  public static int getMinSeqNumber(UUID sid) {
+    ChunkIdIndex index = SimulationContext.current().getChunkIdIndex(sid, false);
+    return index == null ? -1 : index.getMinSeqId();
+  }
+
+  /**
+   * Returns the lowest sequence identifier of the chunks of the given *-Stream
+   * session that may have not expired yet: every chunk with a lower sequence
+   * identifier has expired, hence stores can purge them without looking at them.
+   *
+   * @param sid The *-Stream session identifier
+   * @return The sequence identifier, {@code 0} for unknown sessions
+   */
+  public static int getLowestLiveSeqNumber(UUID sid) {
+    ChunkIdIndex index = SimulationContext.current().getChunkIdIndex(sid, false);
+    return index == null ? 0 : index.getLowestLiveSeqId(CommonState.getTime());
   }
 
   /**
@@ -85,15 +119,7 @@ public class ChunkUtils {
    * @return The very next chunk unique ID, or {@code null}
    */
   public static PastryId nextChunkId(UUID sid, int seqNumber) {
-    PastryId res = null;
-    Map<Integer, PastryId> ids = chunkIds.get(sid);
-    if (ids != null) {
-      res = ids.get(seqNumber + 1);
-    } else {
-      // no entry for the give sid
-      // NOP
-    }
-    return res;
+    return getChunkIdForSequenceId(sid, seqNumber + 1);
   }
 
   /**
@@ -105,32 +131,8 @@ public class ChunkUtils {
    * @return
    */
   static int getLastGeneratedChunkSeqId(UUID sessionID) {
-    Integer max = Integer.MIN_VALUE;
-    Map<Integer, PastryId> chunksForSession = chunkIds.get(sessionID);
-    if(chunksForSession!=null && !chunksForSession.isEmpty()) {
-      Set<Integer> seqIds = chunksForSession.keySet();
-      for(int seqId : seqIds) {
-        if(seqId > max) {
-          max = seqId;
-        }
-      }
-    }
-    return max;
-  }
-
-  /**
-   * Stores the {@link PastryId} associated with the given chunk in the internal
-   * memory.
-   *
-   * @param chunk The new chunk whose identity has to be memorized
-   */
-  private static void storeNewChunkIdentity(Chunk<?> chunk) {
-    Map<Integer, PastryId> ids = chunkIds.get(chunk.getSessionId());
-    if (ids == null) {
-      ids = new HashMap<Integer, PastryId>();
-      chunkIds.put(chunk.getSessionId(), ids);
-    }
-    ids.put(chunk.getSequenceId(), chunk.getResourceId());
+    ChunkIdIndex index = SimulationContext.current().getChunkIdIndex(sessionID, false);
+    return index == null ? Integer.MIN_VALUE : index.getMaxSeqId();
   }
 
   /**
@@ -148,6 +150,7 @@ public class ChunkUtils {
     private final int sequenceId;
     private final long timeStamp;
     private final int ttl;
+    private final int payloadSize;
 
     /**
      * Constructor.
@@ -161,6 +164,27 @@ public class ChunkUtils {
       sequenceId = seq;
       timeStamp = CommonState.getTime();
       this.ttl = ttl;
+      payloadSize = payloadSizeOf(chunk);
+    }
+
+    /**
+     * Tells how many bytes the given content takes: {@link ChunkPayload}s tell
+     * their size, byte arrays count their length, character sequences one byte
+     * per character, anything else nothing.
+     *
+     * @param chunk The actual content
+     * @return The number of bytes
+     */
+    private static int payloadSizeOf(Object chunk) {
+      int size = 0;
+      if (chunk instanceof ChunkPayload) {
+        size = ((ChunkPayload) chunk).getSize();
+      } else if (chunk instanceof byte[]) {
+        size = ((byte[]) chunk).length;
+      } else if (chunk instanceof CharSequence) {
+        size = ((CharSequence) chunk).length();
+      }
+      return size;
     }
 
     /**
@@ -222,6 +246,14 @@ public class ChunkUtils {
       return sessionId;
     }
 
+    /**
+     * Returns the number of bytes the actual content of this chunk takes.
+     * @return The payload size
+     */
+    public int getPayloadSize() {
+      return payloadSize;
+    }
+
     public long getTimeStamp() {
       return timeStamp;
     }
@@ -0,0 +1,233 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+/**
+ * Histogram of non-negative {@code long} values, such as latencies in simulated-time
+ * units, backed by a single array of counters.<br>
+ * As in HdrHistogram, values below {@code 2^precisionBits} are counted exactly,
+ * while greater values are counted in buckets whose width grows with the value, so
+ * that the relative error of any reported figure stays below {@code 2^(1-precisionBits)}.
+ * Recording a value takes constant time and never allocates. Histograms can be
+ * bounded to a highest trackable value, above which values are all counted by the
+ * last counter, to keep many of them, e.g. one per node, in little memory.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class LatencyHistogram {
+
+  /**
+   * Default number of bits of precision: values are reported with a relative error
+   * below 1%.
+   */
+  public static final int DEFAULT_PRECISION_BITS = 8;
+  /**
+   * The number of values counted exactly, a power of two.
+   */
+  private final int exact;
+  /**
+   * {@code log2(exact)}.
+   */
+  private final int precisionBits;
+  /**
+   * The counters.
+   */
+  private long[] counts;
+  private long count;
+  private long sum;
+  private long min = Long.MAX_VALUE;
+  private long max = Long.MIN_VALUE;
+
+  /**
+   * Constructor.
+   */
+  public LatencyHistogram() {
+    this(DEFAULT_PRECISION_BITS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param precisionBits The number of bits of precision, in [2..16]
+   */
+  public LatencyHistogram(int precisionBits) {
+    this(precisionBits, Long.MAX_VALUE);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param precisionBits The number of bits of precision, in [2..16]
+   * @param highestTrackableValue The highest value that is not counted by the last counter
+   */
+  public LatencyHistogram(int precisionBits, long highestTrackableValue) {
+    if (precisionBits < 2 || precisionBits > 16) throw new IllegalArgumentException("The precision must be in [2..16] bits");
+    if (highestTrackableValue < 1) throw new IllegalArgumentException("The highest trackable value must be positive");
+    this.precisionBits = precisionBits;
+    this.exact = 1 << precisionBits;
+    // the exact values, then a half-sized group of buckets for each further power of two
+    int groups = Math.max(0, 64 - Long.numberOfLeadingZeros(highestTrackableValue) - precisionBits);
+    this.counts = new long[exact + groups * (exact / 2)];
+  }
+
+  /**
+   * Records the given value.
+   *
+   * @param value The value, that must not be negative
+   */
+  public void record(long value) {
+    if (value < 0) throw new IllegalArgumentException("Negative values cannot be recorded");
+    counts[indexOf(value)]++;
+    count++;
+    sum += value;
+    if (value < min) {
+      min = value;
+    }
+    if (value > max) {
+      max = value;
+    }
+  }
+
+  /**
+   * Adds every value recorded by the given histogram, that must have the same
+   * precision and highest trackable value, to this one.
+   *
+   * @param other The other histogram
+   */
+  public void add(LatencyHistogram other) {
+    if (other.precisionBits != precisionBits || other.counts.length != counts.length) throw new IllegalArgumentException("Histograms with different layouts cannot be added");
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Returns a new histogram with the same layout as this one and the same recorded
+   * values.
+   *
+   * @return The copy
+   */
+  public LatencyHistogram copy() {
+    LatencyHistogram copy = new LatencyHistogram(precisionBits, 1);
+    copy.counts = counts.clone();
+    copy.count = count;
+    copy.sum = sum;
+    copy.min = min;
+    copy.max = max;
+    return copy;
+  }
+
+  /**
+   * Forgets every recorded value.
+   */
+  public void reset() {
+    java.util.Arrays.fill(counts, 0);
+    count = 0;
+    sum = 0;
+    min = Long.MAX_VALUE;
+    max = Long.MIN_VALUE;
+  }
+
+  /**
+   * Returns how many values have been recorded.
+   *
+   * @return The number of values
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the greatest recorded value.
+   *
+   * @return The greatest value, {@code 0} if no value has been recorded
+   */
+  public long getMax() {
+    return count == 0 ? 0 : max;
+  }
+
+  /**
+   * Returns the mean of the recorded values.
+   *
+   * @return The mean, {@link Double#NaN} if no value has been recorded
+   */
+  public double getMean() {
+    return count == 0 ? Double.NaN : (double) sum / count;
+  }
+
+  /**
+   * Returns the lowest recorded value.
+   *
+   * @return The lowest value, {@code 0} if no value has been recorded
+   */
+  public long getMin() {
+    return count == 0 ? 0 : min;
+  }
+
+  /**
+   * Returns the value below or at which the given percentage of the recorded
+   * values falls, within the histogram precision.
+   *
+   * @param percentile The percentage, in [0..100]
+   * @return The value, {@code 0} if no value has been recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long res = 0;
+    if (count > 0) {
+      long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          res = Math.min(max, Math.max(min, highestValueOf(i)));
+          break;
+        }
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Returns the index of the counter the given value is counted by.
+   *
+   * @param value The value
+   * @return The index
+   */
+  private int indexOf(long value) {
+    int index;
+    if (value < exact) {
+      index = (int) value;
+    } else {
+      // how far the value must be shifted to fall in [exact/2..exact)
+      int shift = 64 - Long.numberOfLeadingZeros(value) - precisionBits;
+      index = exact + (shift - 1) * (exact / 2) + (int) ((value >>> shift) - exact / 2);
+    }
+    return Math.min(index, counts.length - 1);
+  }
+
+  /**
+   * Returns the greatest value counted by the given counter.
+   *
+   * @param index The index of the counter
+   * @return The value
+   */
+  private long highestValueOf(int index) {
+    long value;
+    if (index < exact) {
+      value = index;
+    } else {
+      int shift = (index - exact) / (exact / 2) + 1;
+      long base = (index - exact) % (exact / 2) + exact / 2;
+      value = ((base + 1) << shift) - 1;
+    }
+    return value;
+  }
+}
@@ -5,11 +5,12 @@
 
 package com.google.code.peersim.starstream.controls;
 
+import com.google.code.peersim.starstream.protocol.RandomStreams;
 import java.util.UUID;
 import peersim.config.Configuration;
-import peersim.core.CommonState;
 import peersim.core.Control;
 import peersim.core.Network;
+import peersim.util.ExtendedRandom;
 
 /**
  *
@@ -24,8 +25,10 @@ public class NodeCrasher implements Control {
   public static final String PERCENTAGE_OF_CRASHED_NODES = "percentageOfCrashedNodes";
   private float percentageOfCrashedNodes;
   private boolean taskAccomplished = false;
+  private final ExtendedRandom random;
 
   public NodeCrasher(String prefix) {
+    random = RandomStreams.forControl(prefix);
     crashWithChunk = Configuration.getInt(prefix+"."+CRASH_WITH_CHUNK);
     percentageOfCrashedNodes = Configuration.getInt(prefix+"."+PERCENTAGE_OF_CRASHED_NODES);
   }
@@ -45,7 +48,7 @@ public class NodeCrasher implements Control {
     if(!taskAccomplished) {
       float nodesToCrash = Network.size() * percentageOfCrashedNodes / 100;
       for(int i=0; i<nodesToCrash; i++) {
-        int nodeToCrash = CommonState.r.nextInt(Network.size());
+        int nodeToCrash = random.nextInt(Network.size());
         Network.remove(nodeToCrash);
       }
       taskAccomplished = true;
@@ -0,0 +1,169 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package com.google.code.peersim.starstream.controls;
+
+import com.google.code.peersim.starstream.protocol.StarStreamNode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
+import peersim.core.Network;
+
+/**
+ * Helper for control classes that have to perform some node-local work on every
+ * {@link StarStreamNode}. The network is split into as many contiguous partitions
+ * as the configured number of threads, and each partition is visited by a different
+ * thread of a pool shared by every control.<br>
+ * Only work that touches nothing but the visited node can be performed this way:
+ * anything that sends messages, or draws from {@link peersim.core.CommonState#r},
+ * must still be performed by visiting the nodes one at a time and in index order,
+ * so that the simulation outcome does not depend on the number of threads.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class PartitionedNodeLoop {
+
+  /**
+   * Work to be performed on a single node.
+   */
+  interface NodeTask {
+
+    /**
+     * Performs the work on the given node.
+     *
+     * @param node The node
+     */
+    void run(StarStreamNode node);
+  }
+
+  /**
+   * Configurable number of threads (default 1, meaning no parallelism at all).
+   */
+  static final String THREADS = "threads";
+  /**
+   * PeerSim property separator char.
+   */
+  private static final String SEPARATOR = ".";
+  /**
+   * The pool shared by every instance.
+   */
+  private static ExecutorService pool;
+  /**
+   * The number of threads of {@link PartitionedNodeLoop#pool}.
+   */
+  private static int poolSize;
+  /**
+   * The number of partitions the network is split into.
+   */
+  private final int threads;
+
+  /**
+   * Constructor.
+   *
+   * @param prefix The configuration prefix of the control class
+   */
+  PartitionedNodeLoop(String prefix) {
+    threads = Configuration.getInt(prefix + SEPARATOR + THREADS, 1);
+    if (threads < 1) {
+      throw new IllegalParameterException(prefix + SEPARATOR + THREADS, "The number of threads must be at least 1");
+    }
+  }
+
+  /**
+   * Tells whether nodes are visited by more than one thread.
+   *
+   * @return Whether nodes are visited by more than one thread
+   */
+  boolean isParallel() {
+    return threads > 1;
+  }
+
+  /**
+   * Performs the given work on every node, and returns once it is over.
+   *
+   * @param task The work
+   */
+  void forEachNode(final NodeTask task) {
+    int size = Network.size();
+    if (threads == 1 || size < threads) {
+      for (int i = 0; i < size; i++) {
+        task.run((StarStreamNode) Network.get(i));
+      }
+    } else {
+      ExecutorService executor = getPool(threads);
+      List<Future<?>> partitions = new ArrayList<Future<?>>(threads);
+      int partitionSize = (size + threads - 1) / threads;
+      for (int from = 0; from < size; from += partitionSize) {
+        final int first = from;
+        final int last = Math.min(size, from + partitionSize);
+        partitions.add(executor.submit(new Runnable() {
+
+          @Override
+          public void run() {
+            for (int i = first; i < last; i++) {
+              task.run((StarStreamNode) Network.get(i));
+            }
+          }
+        }));
+      }
+      for (Future<?> partition : partitions) {
+        try {
+          partition.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted while waiting for the nodes to be visited.", e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException("Visiting the nodes failed. See nested exceptions, please.", e.getCause());
+        }
+      }
+    }
+  }
+
+  /**
+   * Shuts the shared pool down, if any: a new one is created should nodes be visited
+   * in parallel again.
+   */
+  static synchronized void shutdownPool() {
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+      poolSize = 0;
+    }
+  }
+
+  /**
+   * Returns the shared pool, replacing it with a larger one if it has less than
+   * the given number of threads.
+   *
+   * @param threads The number of threads
+   * @return The pool
+   */
+  private static synchronized ExecutorService getPool(int threads) {
+    if (pool == null || poolSize < threads) {
+      if (pool != null) {
+        pool.shutdown();
+      }
+      pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "starstream-node-loop");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+      poolSize = threads;
+    }
+    return pool;
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
+
+/**
+ * Tells how many bytes each chunk produced by the {@link StarStreamSource} carries.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+abstract class PayloadModel {
+
+  /**
+   * Name of the model producing empty chunks.
+   */
+  static final String NONE = "none";
+  /**
+   * Name of the constant bit-rate model: every chunk carries
+   * {@link PayloadModel#BITRATE} bits per simulated-time unit of playback.
+   */
+  static final String CBR = "cbr";
+  /**
+   * Name of the variable bit-rate model: every chunk carries
+   * {@link PayloadModel#FRAMES_PER_CHUNK} frames, whose sizes are read in turn
+   * from the {@link PayloadModel#TRACE} file.
+   */
+  static final String VBR = "vbr";
+  /**
+   * Configurable stream bit-rate, in bits per simulated-time unit, for {@link PayloadModel#CBR}.
+   */
+  static final String BITRATE = "payloadBitrate";
+  /**
+   * Configurable file of frame sizes for {@link PayloadModel#VBR}: one size in
+   * bytes per frame, separated by white spaces, lines starting with {@code #}
+   * being ignored. The frames are reused from the first one once the file is over.
+   */
+  static final String TRACE = "payloadTrace";
+  /**
+   * Configurable number of frames per chunk for {@link PayloadModel#VBR} (default 1).
+   */
+  static final String FRAMES_PER_CHUNK = "payloadFramesPerChunk";
+
+  /**
+   * Factory method.
+   *
+   * @param impl The model name, either {@link PayloadModel#NONE}, {@link PayloadModel#CBR}
+   * or {@link PayloadModel#VBR}
+   * @param prefix The PeerSim prefix the model parameters are read with
+   * @param chunkPlaybackLength How many simulated-time units of playback each chunk lasts
+   * @return The new model, or {@code null} if {@code impl} is unknown
+   */
+  static PayloadModel newInstance(String impl, String prefix, int chunkPlaybackLength) {
+    PayloadModel model = null;
+    if (NONE.equals(impl)) {
+      model = new Constant(0);
+    } else if (CBR.equals(impl)) {
+      long bitrate = Configuration.getLong(prefix + "." + BITRATE);
+      if (bitrate < 0) {
+        throw new IllegalParameterException(prefix + "." + BITRATE, "The bit-rate cannot be negative");
+      }
+      // chunks larger than Integer.MAX_VALUE bytes are clamped, as the other models do
+      long bits = chunkPlaybackLength > 0 && bitrate > (Long.MAX_VALUE - 7) / chunkPlaybackLength
+              ? Long.MAX_VALUE - 7 : bitrate * chunkPlaybackLength;
+      model = new Constant((int) Math.min(Integer.MAX_VALUE, (bits + 7) / 8));
+    } else if (VBR.equals(impl)) {
+      int framesPerChunk = Configuration.getInt(prefix + "." + FRAMES_PER_CHUNK, 1);
+      if (framesPerChunk < 1) {
+        throw new IllegalParameterException(prefix + "." + FRAMES_PER_CHUNK, "There must be at least one frame per chunk");
+      }
+      String trace = Configuration.getString(prefix + "." + TRACE);
+      int[] frames;
+      try {
+        frames = readFrameSizes(trace);
+      } catch (IOException e) {
+        throw new IllegalParameterException(prefix + "." + TRACE, "Cannot read the frame sizes: " + e.getMessage());
+      }
+      if (frames.length == 0) {
+        throw new IllegalParameterException(prefix + "." + TRACE, "No frame sizes in " + trace);
+      }
+      model = new FrameTrace(frames, framesPerChunk);
+    }
+    return model;
+  }
+
+  /**
+   * Returns the number of bytes the next produced chunk carries.
+   *
+   * @return The number of bytes
+   */
+  abstract int nextChunkSize();
+
+  /**
+   * Returns the number of bytes a typical chunk carries, regardless of the chunks
+   * produced so far.
+   *
+   * @return The number of bytes
+   */
+  abstract int nominalChunkSize();
+
+  /**
+   * Reads the frame sizes stored in the given file.
+   *
+   * @param file The file name
+   * @return The frame sizes, in bytes
+   * @throws java.io.IOException Thrown iff the file cannot be read or holds something
+   * other than non-negative integers
+   */
+  private static int[] readFrameSizes(String file) throws IOException {
+    int[] frames = new int[1024];
+    int size = 0;
+    BufferedReader in = new BufferedReader(new FileReader(file));
+    try {
+      String line;
+      while ((line = in.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#")) {
+          continue;
+        }
+        for (String token : line.split("\\s+")) {
+          int frame;
+          try {
+            frame = Integer.parseInt(token);
+          } catch (NumberFormatException e) {
+            throw new IOException("'" + token + "' is not a frame size");
+          }
+          if (frame < 0) {
+            throw new IOException("Negative frame size " + frame);
+          }
+          if (size == frames.length) {
+            frames = Arrays.copyOf(frames, size * 2);
+          }
+          frames[size++] = frame;
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return Arrays.copyOf(frames, size);
+  }
+
+  /**
+   * Model giving every chunk the same number of bytes.
+   */
+  private static class Constant extends PayloadModel {
+
+    private final int size;
+
+    private Constant(int size) {
+      this.size = size;
+    }
+
+    @Override
+    int nextChunkSize() {
+      return size;
+    }
+
+    @Override
+    int nominalChunkSize() {
+      return size;
+    }
+  }
+
+  /**
+   * Model summing, for every chunk, the sizes of the next frames of a trace.
+   */
+  private static class FrameTrace extends PayloadModel {
+
+    private final int[] frames;
+    private final int framesPerChunk;
+    /**
+     * Index of the next frame to be used.
+     */
+    private int next = 0;
+
+    private FrameTrace(int[] frames, int framesPerChunk) {
+      this.frames = frames;
+      this.framesPerChunk = framesPerChunk;
+    }
+
+    @Override
+    int nextChunkSize() {
+      long size = 0;
+      for (int i = 0; i < framesPerChunk; i++) {
+        size += frames[next];
+        next = (next + 1) % frames.length;
+      }
+      return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * The average frame size times the number of frames per chunk.
+     */
+    @Override
+    int nominalChunkSize() {
+      long total = 0;
+      for (int frame : frames) {
+        total += frame;
+      }
+      return (int) Math.min(Integer.MAX_VALUE, (total * framesPerChunk + frames.length - 1) / frames.length);
+    }
+  }
+}
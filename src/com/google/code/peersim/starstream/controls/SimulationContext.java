@@ -0,0 +1,109 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Owns the state *-Stream shares across a whole simulation: the memory of the
+ * generated chunk identifiers kept by {@link ChunkUtils}, and the configured
+ * {@link StarStreamSource}s, one per *-Stream session.<br>
+ * There is one current context per class loader, just like PeerSim keeps one
+ * configuration and one network per class loader: simulations that must not see
+ * each other either run in different class loaders, as {@link com.google.code.peersim.starstream.tools.SimulationSweep}
+ * does, or one after the other, starting each one by means of {@link SimulationContext#reset()}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public final class SimulationContext {
+
+  /**
+   * The context of the running simulation.
+   */
+  private static SimulationContext current = new SimulationContext();
+  /**
+   * Memory of generated chunk-identifiers, by *-Stream session identifier.
+   */
+  private final Map<UUID, ChunkIdIndex> chunkIds = new HashMap<UUID, ChunkIdIndex>();
+  /**
+   * The session {@link SimulationContext#lastIndex} belongs to: most simulations
+   * stream a single session, whose index is thus found without hashing.
+   */
+  private UUID lastSessionId;
+  /**
+   * The index last looked up.
+   */
+  private ChunkIdIndex lastIndex;
+  /**
+   * The configured sources, by the session they stream, in configuration order.
+   */
+  final Map<UUID, StarStreamSource> sources = new LinkedHashMap<UUID, StarStreamSource>();
+  /**
+   * The largest nominal chunk payload, in bytes, among the configured sources.
+   */
+  int nominalChunkPayloadSize = 0;
+
+  /**
+   * Constructor.
+   */
+  private SimulationContext() {
+  }
+
+  /**
+   * Returns the memory of the chunk identifiers generated for the given session.
+   *
+   * @param sessionId The *-Stream session identifier
+   * @param create Whether the memory must be created if there is none
+   * @return The memory, or {@code null} if there is none and {@code create} is {@code false}
+   */
+  ChunkIdIndex getChunkIdIndex(UUID sessionId, boolean create) {
+    if (lastIndex != null && sessionId != null && sessionId.equals(lastSessionId)) {
+      return lastIndex;
+    }
+    ChunkIdIndex index = chunkIds.get(sessionId);
+    if (index == null && create) {
+      index = new ChunkIdIndex();
+      chunkIds.put(sessionId, index);
+    }
+    if (index != null) {
+      lastSessionId = sessionId;
+      lastIndex = index;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the context of the running simulation.
+   *
+   * @return The context
+   */
+  static SimulationContext current() {
+    return current;
+  }
+
+  /**
+   * Releases what the simulation keeps running beyond its end, namely the threads
+   * visiting the nodes in parallel (see {@link PartitionedNodeLoop}): callers running
+   * several simulations in the same JVM, each in its own class loader, invoke this
+   * method at the end of every simulation, so that the class loader, and the network
+   * it holds, can be reclaimed.
+   */
+  public static void release() {
+    PartitionedNodeLoop.shutdownPool();
+  }
+
+  /**
+   * Discards the state of the previous simulation: must be invoked before
+   * configuring a new simulation within the same class loader.
+   */
+  public static void reset() {
+    current = new SimulationContext();
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.controls;
+
+import com.google.code.peersim.starstream.protocol.DeliveryPath;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Network-wide *-Stream counters, updated by nodes as events happen rather than
+ * computed by visiting every node, so that {@link StarStreamNodesObserver} can take
+ * snapshots of the simulation state at any time at a cost that does not depend on
+ * the network size.<br>
+ * Counters are updated by the player tick, that control classes may spread over
+ * several threads, hence they are all thread-safe.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public final class StarStreamMetrics {
+
+  private static final AtomicLong startedPlaybacks = new AtomicLong();
+  private static final AtomicLong firstPlaybackStart = new AtomicLong(Long.MAX_VALUE);
+  private static final AtomicLong lastPlaybackStart = new AtomicLong(Long.MIN_VALUE);
+  private static final AtomicLong chunksPlayed = new AtomicLong();
+  private static final AtomicLong chunksMissed = new AtomicLong();
+  private static final AtomicLong unsentChunkMsgs = new AtomicLong();
+  private static final AtomicLongArray sentMessages = new AtomicLongArray(StarStreamMessage.Type.values().length);
+  /**
+   * Perceived chunk delivery times, by {@link DeliveryPath} ordinal.
+   */
+  private static final LatencyHistogram[] deliveryTimes = new LatencyHistogram[DeliveryPath.values().length];
+
+  static {
+    for (int i = 0; i < deliveryTimes.length; i++) {
+      deliveryTimes[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Utility class.
+   */
+  private StarStreamMetrics() {
+  }
+
+  /**
+   * Resets every counter.
+   */
+  public static void reset() {
+    startedPlaybacks.set(0);
+    firstPlaybackStart.set(Long.MAX_VALUE);
+    lastPlaybackStart.set(Long.MIN_VALUE);
+    chunksPlayed.set(0);
+    chunksMissed.set(0);
+    unsentChunkMsgs.set(0);
+    for (int i = 0; i < sentMessages.length(); i++) {
+      sentMessages.set(i, 0);
+    }
+    synchronized (deliveryTimes) {
+      for (LatencyHistogram histogram : deliveryTimes) {
+        histogram.reset();
+      }
+    }
+  }
+
+  /**
+   * Records that a node has stored a new chunk.
+   *
+   * @param path How the chunk got to the node
+   * @param deliveryTime The time it took the chunk to get to the node since its creation
+   */
+  public static void chunkDelivered(DeliveryPath path, long deliveryTime) {
+    synchronized (deliveryTimes) {
+      deliveryTimes[path.ordinal()].record(Math.max(0, deliveryTime));
+    }
+  }
+
+  /**
+   * Records that a node has started its playback.
+   *
+   * @param time The current time
+   */
+  public static void playbackStarted(long time) {
+    startedPlaybacks.incrementAndGet();
+    long first;
+    while (time < (first = firstPlaybackStart.get()) && !firstPlaybackStart.compareAndSet(first, time)) {
+      // retry
+    }
+    long last;
+    while (time > (last = lastPlaybackStart.get()) && !lastPlaybackStart.compareAndSet(last, time)) {
+      // retry
+    }
+  }
+
+  /**
+   * Records that a node has played a chunk.
+   */
+  public static void chunkPlayed() {
+    chunksPlayed.incrementAndGet();
+  }
+
+  /**
+   * Records that a node had not got a chunk by its playback time.
+   */
+  public static void chunkMissed() {
+    chunksMissed.incrementAndGet();
+  }
+
+  /**
+   * Records that a node has sent a message.
+   *
+   * @param type The message type
+   */
+  public static void messageSent(StarStreamMessage.Type type) {
+    sentMessages.incrementAndGet(type.ordinal());
+  }
+
+  /**
+   * Records that a node has given up sending a chunk after the max number of retries.
+   */
+  public static void chunkMessageUnsent() {
+    unsentChunkMsgs.incrementAndGet();
+  }
+
+  /**
+   * Returns how many nodes have started their playback.
+   *
+   * @return The number of nodes
+   */
+  public static long getStartedPlaybacks() {
+    return startedPlaybacks.get();
+  }
+
+  /**
+   * Returns the time between the first and the last playback start.
+   *
+   * @return The time window, {@code 0} if no playback has started yet
+   */
+  public static long getPlaybacksTimeWindow() {
+    return startedPlaybacks.get() == 0 ? 0 : lastPlaybackStart.get() - firstPlaybackStart.get();
+  }
+
+  public static long getChunksPlayed() {
+    return chunksPlayed.get();
+  }
+
+  public static long getChunksMissed() {
+    return chunksMissed.get();
+  }
+
+  public static long getUnsentChunkMsgs() {
+    return unsentChunkMsgs.get();
+  }
+
+  /**
+   * Returns how many messages of the given type have been sent.
+   *
+   * @param type The message type
+   * @return The number of messages
+   */
+  public static long getSentMessages(StarStreamMessage.Type type) {
+    return sentMessages.get(type.ordinal());
+  }
+
+  /**
+   * Returns a copy of the perceived chunk delivery times recorded so far, whatever
+   * the delivery path.
+   *
+   * @return The delivery times
+   */
+  public static LatencyHistogram getDeliveryTimes() {
+    LatencyHistogram copy = new LatencyHistogram();
+    synchronized (deliveryTimes) {
+      for (LatencyHistogram histogram : deliveryTimes) {
+        copy.add(histogram);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Returns a copy of the perceived delivery times of the chunks delivered by
+   * the given path recorded so far.
+   *
+   * @param path The delivery path
+   * @return The delivery times
+   */
+  public static LatencyHistogram getDeliveryTimes(DeliveryPath path) {
+    synchronized (deliveryTimes) {
+      return deliveryTimes[path.ordinal()].copy();
+    }
+  }
+}
@@ -5,9 +5,11 @@
 package com.google.code.peersim.starstream.controls;
 
 import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.protocol.DeliveryPath;
 import com.google.code.peersim.starstream.protocol.StarStreamNode;
 import com.google.code.peersim.starstream.protocol.StarStreamPlayer;
 import com.google.code.peersim.starstream.protocol.StarStreamStore;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
@@ -16,7 +18,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
 import peersim.core.CommonState;
 import peersim.core.Control;
 import peersim.core.Network;
@@ -25,7 +29,12 @@ import peersim.util.IncrementalStats;
 
 /**
  * Observer class in charge of printing to file the state of each {@link StarStreamNode}
- * found in the {@link Network} at simulation completion.
+ * found in the {@link Network} at simulation completion.<br>
+ * When configured as {@link StarStreamNodesObserver#INCREMENTAL}, the observer
+ * never visits the network: it prints instead a CSV row out of the {@link StarStreamMetrics}
+ * counters every {@link StarStreamNodesObserver#SNAPSHOT_PERIOD} executions, and once
+ * more when the very last simulation cycle begins, thus producing a time series that
+ * can be watched while the simulation is still running.
  *
  * @author frusso
  * @version 0.1
@@ -41,6 +50,14 @@ public class StarStreamNodesObserver implements Control {
    * The file name to log to.
    */
   public static final String LOG_FILE = "log";
+  /**
+   * Whether to print periodic snapshots instead of the end-of-run dump (default false).
+   */
+  public static final String INCREMENTAL = "incremental";
+  /**
+   * How many executions must elapse between two snapshots (default 100).
+   */
+  public static final String SNAPSHOT_PERIOD = "snapshotPeriod";
   private static final String SEPARATOR = ".";
   /**
    * Whether to log or not.
@@ -54,6 +71,18 @@ public class StarStreamNodesObserver implements Control {
    * The stream to log to.
    */
   private PrintStream stream;
+  /**
+   * Whether to print periodic snapshots instead of the end-of-run dump.
+   */
+  private boolean incremental;
+  /**
+   * How many executions must elapse between two snapshots.
+   */
+  private int snapshotPeriod;
+  /**
+   * How many times the observer has been executed.
+   */
+  private long executions;
 
   /**
    * Constructor.
@@ -64,41 +93,124 @@ public class StarStreamNodesObserver implements Control {
   public StarStreamNodesObserver(String prefix) throws FileNotFoundException {
     super();
     doLog = Configuration.getBoolean(prefix + SEPARATOR + DO_LOG);
+    incremental = Configuration.getBoolean(prefix + SEPARATOR + INCREMENTAL, false);
+    snapshotPeriod = Configuration.getInt(prefix + SEPARATOR + SNAPSHOT_PERIOD, 100);
+    if (snapshotPeriod < 1) {
+      throw new IllegalParameterException(prefix + SEPARATOR + SNAPSHOT_PERIOD, "The snapshot period must be at least 1");
+    }
+    StarStreamMetrics.reset();
     if (doLog) {
-      logFile = new FileNameGenerator(Configuration.getString(prefix + SEPARATOR + LOG_FILE), ".log").nextCounterName();
+      logFile = new FileNameGenerator(Configuration.getString(prefix + SEPARATOR + LOG_FILE), incremental ? ".csv" : ".log").nextCounterName();
       stream = new PrintStream(new FileOutputStream(logFile));
+      if (incremental) {
+        logSnapshotHeader();
+      }
     }
   }
 
   /**
    * Once the very last simulation cycle begins, this method collects information
    * related to each {@link StarStreamNode}'s {@link StarStreamStore} instance and
-   * print it all to the configured log file.
+   * print it all to the configured log file. In incremental mode, a snapshot
+   * is printed instead, both at that time and periodically.
    *
    * @return {@link Boolean#TRUE}
    */
   @Override
   public boolean execute() {
     boolean stop = false;
-    if (doLog && (CommonState.getTime() == CommonState.getEndTime()-1)) {
-      dump();
+    boolean last = CommonState.getTime() == CommonState.getEndTime()-1;
+    executions++;
+    if (doLog) {
+      if (incremental) {
+        if (last || executions % snapshotPeriod == 0) {
+          logSnapshot();
+        }
+      } else if (last) {
+        dump();
+      }
     }
     return stop;
   }
 
+  /**
+   * Formats the count, the main percentiles and the max of the given histogram.
+   *
+   * @param histogram The histogram
+   * @return The formatted figures
+   */
+  private static String formatPercentiles(LatencyHistogram histogram) {
+    return histogram.getCount() + "/" + histogram.getValueAtPercentile(50) + "/" + histogram.getValueAtPercentile(90) + "/" +
+            histogram.getValueAtPercentile(99) + "/" + histogram.getValueAtPercentile(99.9) + "/" + histogram.getMax();
+  }
+
+  /**
+   * Prints the CSV header of the snapshots.
+   */
+  private void logSnapshotHeader() {
+    StringBuilder sb = new StringBuilder("time,startedPlaybacks,playbacksTimeWindow,chunksPlayed,chunksMissed,unsentChunkMsgs,deliveryTimeMean,deliveryTimeP50,deliveryTimeP90,deliveryTimeP99,deliveryTimeP999,deliveryTimeMax");
+    for (DeliveryPath path : DeliveryPath.values()) {
+      String name = path.name().toLowerCase();
+      sb.append(',').append(name).append("Chunks");
+      sb.append(',').append(name).append("P50");
+      sb.append(',').append(name).append("P99");
+      sb.append(',').append(name).append("P999");
+    }
+    for (StarStreamMessage.Type type : StarStreamMessage.Type.values()) {
+      sb.append(",sent").append(type.name());
+    }
+    log(sb.toString());
+  }
+
+  /**
+   * Prints a CSV row out of the current {@link StarStreamMetrics} counters.
+   */
+  private void logSnapshot() {
+    LatencyHistogram deliveryTimes = StarStreamMetrics.getDeliveryTimes();
+    StringBuilder sb = new StringBuilder();
+    sb.append(CommonState.getTime());
+    sb.append(',').append(StarStreamMetrics.getStartedPlaybacks());
+    sb.append(',').append(StarStreamMetrics.getPlaybacksTimeWindow());
+    sb.append(',').append(StarStreamMetrics.getChunksPlayed());
+    sb.append(',').append(StarStreamMetrics.getChunksMissed());
+    sb.append(',').append(StarStreamMetrics.getUnsentChunkMsgs());
+    sb.append(',').append(deliveryTimes.getCount() == 0 ? 0 : deliveryTimes.getMean());
+    sb.append(',').append(deliveryTimes.getValueAtPercentile(50));
+    sb.append(',').append(deliveryTimes.getValueAtPercentile(90));
+    sb.append(',').append(deliveryTimes.getValueAtPercentile(99));
+    sb.append(',').append(deliveryTimes.getValueAtPercentile(99.9));
+    sb.append(',').append(deliveryTimes.getMax());
+    for (DeliveryPath path : DeliveryPath.values()) {
+      LatencyHistogram pathDeliveryTimes = StarStreamMetrics.getDeliveryTimes(path);
+      sb.append(',').append(pathDeliveryTimes.getCount());
+      sb.append(',').append(pathDeliveryTimes.getValueAtPercentile(50));
+      sb.append(',').append(pathDeliveryTimes.getValueAtPercentile(99));
+      sb.append(',').append(pathDeliveryTimes.getValueAtPercentile(99.9));
+    }
+    for (StarStreamMessage.Type type : StarStreamMessage.Type.values()) {
+      sb.append(',').append(StarStreamMetrics.getSentMessages(type));
+    }
+    log(sb.toString());
+    stream.flush();
+  }
+
   /**
    * Dumps down to the log file.
    */
-  private void dump() {
+  void dump() {
     IncrementalStats stats = new IncrementalStats();
 
     System.err.print("Dumping *-Stream stats to file " + logFile + "... ");
 
-    // total chunks
-    log("Total chunks: "+StarStreamSource.getTotalChunks());
+    List<UUID> sessionIds = StarStreamSource.getSessionIds();
+    for (UUID sessionId : sessionIds) {
+      String label = labelOf(sessionId, sessionIds);
+      // total chunks
+      log(label+"Total chunks: "+StarStreamSource.getTotalChunks(sessionId));
 
-    // nodes x chunk
-    log("Nodes x chunk: "+StarStreamSource.getNodesPerChunk());
+      // nodes x chunk
+      log(label+"Nodes x chunk: "+StarStreamSource.getNodesPerChunk(sessionId));
+    }
 
     // total nodes
     int dim = Network.size();
@@ -113,78 +225,9 @@ public class StarStreamNodesObserver implements Control {
     }
     log("Active nodes: "+activeNodes);
 
-    // playback started
-    int nodesThatStartedPlayack = 0;
-    List<PastryId> nodesThatDidNotStartedPlayback = new LinkedList<PastryId>();
-    for (int i = 0; i < dim; i++) {
-      StarStreamNode node = (StarStreamNode) Network.get(i);
-      if(node.hasStartedPlayback())
-        nodesThatStartedPlayack++;
-      else
-        nodesThatDidNotStartedPlayback.add(node.getPastryId());
-    }
-    log("Started playbacks: "+nodesThatStartedPlayack);
-    log("Not started playbacks node-ids: "+nodesThatDidNotStartedPlayback);
-
-    // start-streaming time window
-    long lastPlaybackStart = 0;
-    long firstPlaybackStart = Long.MAX_VALUE;
-    for (int i = 0; i < dim; i++) {
-      StarStreamNode node = (StarStreamNode) Network.get(i);
-      long time = node.getWhenPlaybackStarted();
-      if(time > lastPlaybackStart)
-        lastPlaybackStart = time;
-      if(time < firstPlaybackStart)
-        firstPlaybackStart = time;
-    }
-    log("Playbacks time-window: "+(lastPlaybackStart-firstPlaybackStart));
-
-    // missing chunks distribution
-    Map<Integer,Integer> chunksTmpMap = new HashMap<Integer, Integer>();
-    for (int i = 0; i < dim; i++) {
-      StarStreamNode node = (StarStreamNode) Network.get(i);
-      int missingChunks = node.countMissingChunks();
-      Integer nodesCount = chunksTmpMap.get(missingChunks);
-      if(nodesCount==null) {
-        chunksTmpMap.put(missingChunks, 1);
-      } else {
-        chunksTmpMap.put(missingChunks, ++nodesCount);
-      }
-    }
-    log("Missing chunks distribution [missed-chunks/nodes]: "+chunksTmpMap);
-    chunksTmpMap.clear();
-
-    // TTL-rejected chunks stats
-    for (int i = 0; i < dim; i++) {
-      StarStreamNode node = (StarStreamNode) Network.get(i);
-      Set<Integer> missed = node.getStore().getRejectedChunksDueToExpiration();
-      for(int id : missed) {
-        Integer nodesCount = chunksTmpMap.get(id);
-        if(nodesCount==null) {
-          chunksTmpMap.put(id, 1);
-        } else {
-          chunksTmpMap.put(id, ++nodesCount);
-        }
-      }
+    for (UUID sessionId : sessionIds) {
+      dumpPlaybacks(labelOf(sessionId, sessionIds), sessionId, dim);
     }
-    log("Rejected chunks for ttl expiration [chunk-id/nodes]: "+chunksTmpMap.size()+" "+chunksTmpMap);
-    chunksTmpMap.clear();
-
-    // capacity-rejected chunks stats
-    for (int i = 0; i < dim; i++) {
-      StarStreamNode node = (StarStreamNode) Network.get(i);
-      Set<Integer> missed = node.getStore().getRejectedChunksDueToCapacityLimit();
-      for(int id : missed) {
-        Integer nodesCount = chunksTmpMap.get(id);
-        if(nodesCount==null) {
-          chunksTmpMap.put(id, 1);
-        } else {
-          chunksTmpMap.put(id, ++nodesCount);
-        }
-      }
-    }
-    log("Rejected chunks for capacity limit [chunk-id/nodes]: "+chunksTmpMap.size()+" "+chunksTmpMap);
-    chunksTmpMap.clear();
 
     // chunks not sent due to max-retries count
     for (int i = 0; i < dim; i++) {
@@ -211,7 +254,7 @@ public class StarStreamNodesObserver implements Control {
       StarStreamNode node = (StarStreamNode) Network.get(i);
       int pChunks = node.getChunksReceivedFromPastry();
       int sChunks = node.getChunksReceivedFromStarStream();
-      double res = pChunks * 100 / (pChunks+sChunks);
+      double res = (pChunks+sChunks)==0 ? 0 : pChunks * 100 / (pChunks+sChunks);
       stats.add(res);
     }
     log("Avg % of chunks received by Pastry: "+stats.getAverage());
@@ -226,7 +269,7 @@ public class StarStreamNodesObserver implements Control {
       StarStreamNode node = (StarStreamNode) Network.get(i);
       int pChunks = node.getChunksReceivedFromPastry();
       int sChunks = node.getChunksReceivedFromStarStream();
-      double res = sChunks * 100 / (pChunks+sChunks);
+      double res = (pChunks+sChunks)==0 ? 0 : sChunks * 100 / (pChunks+sChunks);
       stats.add(res);
     }
     log("Avg % of chunks received by StarStream: "+stats.getAverage());
@@ -247,6 +290,36 @@ public class StarStreamNodesObserver implements Control {
     log("Variance of perceived avg chunk delivery-time: "+stats.getVar());
     log("StD of perceived avg chunk delivery-time: "+stats.getStD());
 
+    // distributions of chunk delivery times, merged from the per-node histograms
+    LatencyHistogram allDeliveryTimes = null;
+    for (DeliveryPath path : DeliveryPath.values()) {
+      LatencyHistogram pathDeliveryTimes = null;
+      for (int i = 0; i < dim; i++) {
+        StarStreamNode node = (StarStreamNode) Network.get(i);
+        LatencyHistogram nodeDeliveryTimes = node.getDeliveryTimes(path);
+        if (nodeDeliveryTimes != null) {
+          if (pathDeliveryTimes == null) {
+            pathDeliveryTimes = nodeDeliveryTimes.copy();
+          } else {
+            pathDeliveryTimes.add(nodeDeliveryTimes);
+          }
+        }
+      }
+      if (pathDeliveryTimes != null) {
+        log("Chunk delivery-time by " + path + " [count/p50/p90/p99/p99.9/max]: " + formatPercentiles(pathDeliveryTimes));
+        if (allDeliveryTimes == null) {
+          allDeliveryTimes = pathDeliveryTimes.copy();
+        } else {
+          allDeliveryTimes.add(pathDeliveryTimes);
+        }
+      } else {
+        log("Chunk delivery-time by " + path + " [count/p50/p90/p99/p99.9/max]: 0");
+      }
+    }
+    if (allDeliveryTimes != null) {
+      log("Chunk delivery-time [count/p50/p90/p99/p99.9/max]: " + formatPercentiles(allDeliveryTimes));
+    }
+
     // avg sent messages per node
     stats.reset();
     for (int i = 0; i < dim; i++) {
@@ -260,14 +333,124 @@ public class StarStreamNodesObserver implements Control {
     log("StD of messages sent per node: "+stats.getStD());
     stats.reset();
 
+    for (UUID sessionId : sessionIds) {
+      dumpPlayers(labelOf(sessionId, sessionIds), sessionId, dim, stats);
+    }
+
+    System.err.print("done!\n\n");
+  }
+
+  /**
+   * Returns the prefix of the lines about the given session: none if it is the
+   * only one.
+   *
+   * @param sessionId The session id
+   * @param sessionIds Every session id
+   * @return The prefix
+   */
+  private static String labelOf(UUID sessionId, List<UUID> sessionIds) {
+    return sessionIds.size() == 1 ? "" : "[session "+sessionIds.indexOf(sessionId)+"] ";
+  }
+
+  /**
+   * Dumps the playback start and the missing and rejected chunks of the given session.
+   *
+   * @param label The prefix of each line
+   * @param sessionId The session id
+   * @param dim The network size
+   */
+  private void dumpPlaybacks(String label, UUID sessionId, int dim) {
+    // playback started
+    int nodesThatStartedPlayack = 0;
+    List<PastryId> nodesThatDidNotStartedPlayback = new LinkedList<PastryId>();
+    for (int i = 0; i < dim; i++) {
+      StarStreamNode node = (StarStreamNode) Network.get(i);
+      if(node.hasStartedPlayback(sessionId))
+        nodesThatStartedPlayack++;
+      else
+        nodesThatDidNotStartedPlayback.add(node.getPastryId());
+    }
+    log(label+"Started playbacks: "+nodesThatStartedPlayack);
+    log(label+"Not started playbacks node-ids: "+nodesThatDidNotStartedPlayback);
+
+    // start-streaming time window
+    long lastPlaybackStart = 0;
+    long firstPlaybackStart = Long.MAX_VALUE;
+    for (int i = 0; i < dim; i++) {
+      StarStreamNode node = (StarStreamNode) Network.get(i);
+      long time = node.getWhenPlaybackStarted(sessionId);
+      if(time > lastPlaybackStart)
+        lastPlaybackStart = time;
+      if(time < firstPlaybackStart)
+        firstPlaybackStart = time;
+    }
+    log(label+"Playbacks time-window: "+(lastPlaybackStart-firstPlaybackStart));
+
+    // missing chunks distribution
+    Map<Integer,Integer> chunksTmpMap = new HashMap<Integer, Integer>();
+    for (int i = 0; i < dim; i++) {
+      StarStreamNode node = (StarStreamNode) Network.get(i);
+      int missingChunks = node.countMissingChunks(sessionId);
+      Integer nodesCount = chunksTmpMap.get(missingChunks);
+      if(nodesCount==null) {
+        chunksTmpMap.put(missingChunks, 1);
+      } else {
+        chunksTmpMap.put(missingChunks, ++nodesCount);
+      }
+    }
+    log(label+"Missing chunks distribution [missed-chunks/nodes]: "+chunksTmpMap);
+    chunksTmpMap.clear();
+
+    // TTL-rejected chunks stats
+    for (int i = 0; i < dim; i++) {
+      StarStreamNode node = (StarStreamNode) Network.get(i);
+      Set<Integer> missed = node.getStore().getRejectedChunksDueToExpiration(sessionId);
+      for(int id : missed) {
+        Integer nodesCount = chunksTmpMap.get(id);
+        if(nodesCount==null) {
+          chunksTmpMap.put(id, 1);
+        } else {
+          chunksTmpMap.put(id, ++nodesCount);
+        }
+      }
+    }
+    log(label+"Rejected chunks for ttl expiration [chunk-id/nodes]: "+chunksTmpMap.size()+" "+chunksTmpMap);
+    chunksTmpMap.clear();
+
+    // capacity-rejected chunks stats
+    for (int i = 0; i < dim; i++) {
+      StarStreamNode node = (StarStreamNode) Network.get(i);
+      Set<Integer> missed = node.getStore().getRejectedChunksDueToCapacityLimit(sessionId);
+      for(int id : missed) {
+        Integer nodesCount = chunksTmpMap.get(id);
+        if(nodesCount==null) {
+          chunksTmpMap.put(id, 1);
+        } else {
+          chunksTmpMap.put(id, ++nodesCount);
+        }
+      }
+    }
+    log(label+"Rejected chunks for capacity limit [chunk-id/nodes]: "+chunksTmpMap.size()+" "+chunksTmpMap);
+  }
+
+  /**
+   * Dumps the players statistics of the given session.
+   *
+   * @param label The prefix of each line
+   * @param sessionId The session id
+   * @param dim The network size
+   * @param stats Empty stats to compute with, left empty
+   */
+  private void dumpPlayers(String label, UUID sessionId, int dim, IncrementalStats stats) {
     // players statistics
+    Map<Integer,Integer> chunksTmpMap = new HashMap<Integer, Integer>();
     int nodesWithUncompletePlaybacks = 0;
     for (int i = 0; i < dim; i++) {
       StarStreamNode node = (StarStreamNode) Network.get(i);
-      List<Integer> missed = node.getUnplayedChunks();
+      List<Integer> missed = node.getUnplayedChunks(sessionId);
       if(missed.size()>0)
         nodesWithUncompletePlaybacks++;
-      stats.add(node.getPercentageOfUnplayedChunks());
+      stats.add(node.getPercentageOfUnplayedChunks(sessionId));
       for(int id : missed) {
         Integer nodesCount = chunksTmpMap.get(id);
         if(nodesCount==null) {
@@ -277,19 +460,18 @@ public class StarStreamNodesObserver implements Control {
         }
       }
     }
-    log("Nodes with incomplete playbacks: "+nodesWithUncompletePlaybacks);
-    log("Avg % of not played chunks: "+stats.getAverage());
-    log("Min % of not played chunks: "+stats.getMin());
-    log("Max % of not played chunks: "+stats.getMax());
-    log("Not played chunks [chunk-id/nodes]: "+chunksTmpMap);
-    chunksTmpMap.clear();
+    log(label+"Nodes with incomplete playbacks: "+nodesWithUncompletePlaybacks);
+    log(label+"Avg % of not played chunks: "+stats.getAverage());
+    log(label+"Min % of not played chunks: "+stats.getMin());
+    log(label+"Max % of not played chunks: "+stats.getMax());
+    log(label+"Not played chunks [chunk-id/nodes]: "+chunksTmpMap);
     stats.reset();
 
     // distances between not played chunks
     IncrementalStats _stats = new IncrementalStats();
     for (int i = 0; i < dim; i++) {
       StarStreamNode node = (StarStreamNode) Network.get(i);
-      List<Integer> missed = node.getUnplayedChunks();
+      List<Integer> missed = node.getUnplayedChunks(sessionId);
       for(int j = missed.size()-1; j>0; j--) {
         _stats.add(missed.get(j)-missed.get(j-1));
       }
@@ -301,9 +483,9 @@ public class StarStreamNodesObserver implements Control {
       }
       _stats.reset();
     }
-    log("Avg distance between not played chunks: "+stats.getAverage());
-    log("Min distance between not played chunks: "+stats.getMin());
-    log("Max distance between not played chunks: "+stats.getMax());
+    log(label+"Avg distance between not played chunks: "+stats.getAverage());
+    log(label+"Min distance between not played chunks: "+stats.getMin());
+    log(label+"Max distance between not played chunks: "+stats.getMax());
     log("");
     stats.reset();
 
@@ -311,10 +493,9 @@ public class StarStreamNodesObserver implements Control {
     /*
     for (int i = 0; i < dim; i++) {
       StarStreamNode node = (StarStreamNode) Network.get(i);
-      log(node.getPlayer().toString());
+      log(node.getPlayer(sessionId).toString());
     }
     */
-    System.err.print("done!\n\n");
   }
 
   /**
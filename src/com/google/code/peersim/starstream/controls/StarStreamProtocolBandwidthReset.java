@@ -21,27 +21,53 @@ import peersim.core.Network;
  */
 public class StarStreamProtocolBandwidthReset implements Control {
 
+  /**
+   * Visits the nodes, possibly in parallel (see {@link PartitionedNodeLoop#THREADS}).
+   */
+  private final PartitionedNodeLoop loop;
+
   /**
    * Constructor.
    * @param prefix The PeerSim configuration prefix
    */
   public StarStreamProtocolBandwidthReset(String prefix) {
+    loop = new PartitionedNodeLoop(prefix);
   }
 
   /**
    * Tells every {@link StarStreamProtocol} instance that there has been
    * a new simulated-time tick and that both the outbound and inbound bandwithes
    * can be reset to their original levels.<br>
-   * Moreover signal every node to process potentially pending delayed message.
+   * Moreover signal every node to process potentially pending delayed message
+   * and then to send the chunk advertisements collected during the previous tick.<br>
+   * When more than one thread is configured, bandwidths are reset in parallel first,
+   * while messages are still processed and sent one node at a time, in index order.
    */
   @Override
   public boolean execute() {
     boolean stop = false;
-    int dim = Network.size();
-    for(int i=0; i<dim; i++) {
-      StarStreamNode node = (StarStreamNode) Network.get(i);
-      node.resetUsedBandwidth();
-      node.processDelayedMessages();
+    if (loop.isParallel()) {
+      loop.forEachNode(new PartitionedNodeLoop.NodeTask() {
+
+        @Override
+        public void run(StarStreamNode node) {
+          node.resetUsedBandwidth();
+        }
+      });
+      int dim = Network.size();
+      for(int i=0; i<dim; i++) {
+        StarStreamNode node = (StarStreamNode) Network.get(i);
+        node.processDelayedMessages();
+        node.flushAdvertisements();
+      }
+    } else {
+      int dim = Network.size();
+      for(int i=0; i<dim; i++) {
+        StarStreamNode node = (StarStreamNode) Network.get(i);
+        node.resetUsedBandwidth();
+        node.processDelayedMessages();
+        node.flushAdvertisements();
+      }
     }
     return stop;
   }
@@ -9,23 +9,29 @@ import com.google.code.peersim.pastry.controls.PastryOverlayBuilder;
 import com.google.code.peersim.pastry.controls.PastryOverlayBuilder.OverlayBuilderListenerIfc;
 import com.google.code.peersim.pastry.protocol.PastryId;
 import com.google.code.peersim.starstream.controls.ChunkUtils.*;
+import com.google.code.peersim.starstream.protocol.EventLog;
 import com.google.code.peersim.starstream.protocol.StarStreamNode;
+import com.google.code.peersim.starstream.protocol.RandomStreams;
 import com.google.code.peersim.starstream.protocol.StarStreamProtocol;
+import com.google.code.peersim.starstream.protocol.TraceRecorder;
 import com.google.code.peersim.starstream.protocol.messages.ChunkMessage;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
 import peersim.core.CommonState;
 import peersim.core.Control;
 import peersim.core.Network;
 import peersim.edsim.EDSimulator;
-import peersim.util.FileNameGenerator;
+import peersim.util.ExtendedRandom;
 
 /**
  * This control class represents the source of the *-Stream network.
@@ -36,9 +42,13 @@ import peersim.util.FileNameGenerator;
  * <li>how many distinct chunks must be generated and spread per simulated-time unit</li>
  * <li>how many distinct nodes should be (at most) selected to receive the same chunk</li>
  * </ol>
- * The total amount of produced chunks is also configurable.<br>
+ * The total amount of produced chunks is also configurable, and so is the number
+ * of bytes each of them carries (see {@link PayloadModel}).<br>
  * The source starts streaming at a configurable point in time and stops when all the
  * chunks have been sent out.<br>
+ * Each configured source streams its own *-Stream session: several sources make
+ * for several concurrent sessions (channels), every node taking part to all of them.
+ * The configured sources are kept by the {@link SimulationContext}.<br>
  * If a sent chunk is not acknowledged within the configured
  * timeout by all the nodes it was sent to, it is sent again to a number of nodes equal
  * to the number of nodes that did not sent their ack.<br>
@@ -50,25 +60,49 @@ import peersim.util.FileNameGenerator;
  * @since 0.1
  */
 public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
-  /**
-   * Single session-id applied to every chunk.
-   */
-  private static final UUID SESSION_ID = UUID.randomUUID();
   /**
    * Configurable number of chunks that must be produced per simulated-time unit.
    */
   public static final String CHUNKS_PER_TIME_UNIT = "chunksPerTimeUnit";
 
-  public static boolean isSeqIdLegal(int nextChunkSeqId) {
-    return nextChunkSeqId < chunks;
+  /**
+   * Tells whether the given sequence id belongs to the chunks of the given session.
+   *
+   * @param sessionId The *-Stream session id
+   * @param nextChunkSeqId The sequence id
+   * @return Whether the source of the session produces such a chunk
+   */
+  public static boolean isSeqIdLegal(UUID sessionId, int nextChunkSeqId) {
+    StarStreamSource source = SimulationContext.current().sources.get(sessionId);
+    return source != null && nextChunkSeqId < source.chunks;
   }
 
+  /**
+   * Returns the total number of chunks of every session.
+   *
+   * @return The number of chunks
+   */
   public static int getTotalChunks() {
-    return chunks;
+    int total = 0;
+    for (StarStreamSource source : SimulationContext.current().sources.values()) {
+      total += source.chunks;
+    }
+    return total;
   }
 
-  static int getNodesPerChunk() {
-    return nodesPerChunk;
+  /**
+   * Returns the total number of chunks of the given session.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The number of chunks, {@code 0} for unknown sessions
+   */
+  public static int getTotalChunks(UUID sessionId) {
+    StarStreamSource source = SimulationContext.current().sources.get(sessionId);
+    return source == null ? 0 : source.chunks;
+  }
+
+  static int getNodesPerChunk(UUID sessionId) {
+    return SimulationContext.current().sources.get(sessionId).nodesPerChunk;
   }
 
   private int chunksPerTimeUnit;
@@ -76,7 +110,7 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
    * Configurable number of nodes each new chunk must be sent to.
    */
   public static final String NODES_PER_CHUNK = "nodesPerChunk";
-  private static int nodesPerChunk;
+  private int nodesPerChunk;
   /**
    * Configurable number of nodes each new chunk must be sent to.
    */
@@ -86,15 +120,24 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
    * Total number of chunks the source has to produce and send.
    */
   public static final String CHUNKS = "chunks";
-  private static int chunks;
+  private int chunks;
 
   public static final String TTL = "ttl";
   private int ttl;
+  /**
+   * Configurable model telling how many bytes each chunk carries, either
+   * {@link PayloadModel#NONE} (default), {@link PayloadModel#CBR} or {@link PayloadModel#VBR}.
+   */
+  public static final String PAYLOAD = "payload";
+  /**
+   * The model the size of each produced chunk is taken from.
+   */
+  private PayloadModel payloadModel;
 //  /**
 //   * Configurable simulated-time starting from which the source can begin producing and sending chunks.
 //   */
 //  public static final String START_TIME = "start";
-  private static long start = Long.MAX_VALUE;
+  private long start = Long.MAX_VALUE;
   /**
    * Configurable simulated-time units before an ack for a sent {@link ChunkMessage} must be received before
    * resending that chunk to another randomly choosen node.
@@ -105,16 +148,32 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
    * The log file to log to.
    */
   public static final String LOG_FILE = "log";
-  private String logFile;
   /**
    * Whether to log or not.
    */
   public static final String DO_LOG = "doLog";
-  private boolean doLog;
   /**
-   * The stream to the log file.
+   * The format of the log, either {@link EventLog#TEXT} (default) or {@link EventLog#BINARY}.
    */
-  private PrintStream stream;
+  public static final String LOG_FORMAT = "logFormat";
+  /**
+   * The log, {@code null} if the source must not log its activity.
+   */
+  private EventLog eventLog;
+  /**
+   * Whether the sent chunks must be recorded by a {@link TraceRecorder} (default false).
+   */
+  public static final String TRACE = "trace";
+  /**
+   * The trace file name prefix (default "starstream-trace-"): it should be the
+   * same prefix configured for {@link StarStreamProtocol}, for the whole run to
+   * be traced into a single file.
+   */
+  public static final String TRACE_FILE = "traceFile";
+  /**
+   * The trace recorder, {@code null} if the sent chunks must not be traced.
+   */
+  private TraceRecorder traceRecorder;
   /**
    * Whether this control class is active or not.
    */
@@ -122,7 +181,7 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
   /**
    * Counter of the chunks that have been created so far.
    */
-  private static int createdChunksCounter = 0;
+  private int createdChunksCounter = 0;
   /**
    * Fake source-node for sending messages to other nodes.
    */
@@ -130,18 +189,25 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
   /**
    * Memory of all the already sent chunks.
    */
-  private static Map<PastryId,SentChunkDescriptor> sentChunks =  new HashMap<PastryId,SentChunkDescriptor>();
-
-  
+  private Map<PastryId,SentChunkDescriptor> sentChunks =  new HashMap<PastryId,SentChunkDescriptor>();
+  /**
+   * The *-Stream session this source streams.
+   */
+  private final UUID sessionId;
+  /**
+   * The PeerSim prefix this source has been configured with.
+   */
+  private final String prefix;
 
   /**
    * Used by {@link StarStreamProtocol}s to signal that a chunk could have not
    * been received.
    *
+   * @param sessionId The session id
    * @param ko The chunk ID
    */
-  public static void chunkKo(PastryId chunkId) {
-    SentChunkDescriptor scd = sentChunks.get(chunkId);
+  public static void chunkKo(UUID sessionId, PastryId chunkId) {
+    SentChunkDescriptor scd = sentChunksOf(sessionId).get(chunkId);
     if(scd!=null) {
       scd.receivedNacks++;
     } else {
@@ -156,10 +222,11 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
    * Used by {@link StarStreamProtocol}s to signal that a chunk has
    * been received and processed.
    * 
+   * @param sessionId The session id
    * @param ko The chunk ID
    */
-  public static void chunkOk(PastryId chunkId) {
-    SentChunkDescriptor scd = sentChunks.get(chunkId);
+  public static void chunkOk(UUID sessionId, PastryId chunkId) {
+    SentChunkDescriptor scd = sentChunksOf(sessionId).get(chunkId);
     if(scd!=null) {
       scd.receivedAcks++;
     } else {
@@ -171,16 +238,106 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
   }
 
   /**
-   * Returns the *-Stream streaming session id.
-   * @return The *-Stream streaming session id
+   * Returns the session id of the first configured source.
+   * @return The *-Stream streaming session id, {@code null} if there are no sources
    */
   public static UUID getStarStreamSessionId() {
-    return SESSION_ID;
+    Map<UUID, StarStreamSource> sources = SimulationContext.current().sources;
+    return sources.isEmpty() ? null : sources.keySet().iterator().next();
+  }
+
+  /**
+   * Returns the number of bytes a typical chunk carries, that is the largest
+   * nominal chunk payload among the configured sources: it only depends on the
+   * configuration, not on the chunks produced so far.
+   *
+   * @return The number of bytes, {@code 0} if there are no sources
+   */
+  public static int getNominalChunkPayloadSize() {
+    return SimulationContext.current().nominalChunkPayloadSize;
+  }
+
+  /**
+   * Returns the position of the given session among those of the configured sources,
+   * in configuration order.
+   *
+   * @param sessionId The session id
+   * @return The position, {@code -1} if no source streams the session
+   */
+  public static int getSessionIndex(UUID sessionId) {
+    int index = 0;
+    for (UUID id : SimulationContext.current().sources.keySet()) {
+      if (id.equals(sessionId)) {
+        return index;
+      }
+      index++;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the session ids of every configured source, in configuration order.
+   *
+   * @return The *-Stream streaming session ids
+   */
+  public static List<UUID> getSessionIds() {
+    return new ArrayList<UUID>(SimulationContext.current().sources.keySet());
+  }
+
+  /**
+   * Derives the session id from the PeerSim seed and the source prefix, so that
+   * the same seed yields the same session ids and thus the same chunk identifiers.
+   *
+   * @param prefix The source prefix
+   * @return The session id
+   */
+  private static UUID newSessionId(String prefix) {
+    ExtendedRandom r = RandomStreams.forControl(StarStreamSource.class.getName() + "." + prefix);
+    return new UUID(r.nextLong(), r.nextLong());
+  }
+
+  /**
+   * Registers the given source, replacing the one previously configured with
+   * the same prefix, if any, that is the source of a previous experiment.
+   *
+   * @param source The source
+   */
+  private static void register(StarStreamSource source) {
+    SimulationContext context = SimulationContext.current();
+    Iterator<StarStreamSource> it = context.sources.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().prefix.equals(source.prefix)) {
+        it.remove();
+      }
+    }
+    context.sources.put(source.sessionId, source);
+    int nominalChunkPayloadSize = 0;
+    for (StarStreamSource s : context.sources.values()) {
+      nominalChunkPayloadSize = Math.max(nominalChunkPayloadSize, s.payloadModel.nominalChunkSize());
+    }
+    context.nominalChunkPayloadSize = nominalChunkPayloadSize;
+  }
+
+  /**
+   * Returns the memory of the chunks sent by the source of the given session.
+   *
+   * @param sessionId The session id
+   * @return The sent chunks
+   */
+  private static Map<PastryId,SentChunkDescriptor> sentChunksOf(UUID sessionId) {
+    StarStreamSource source = SimulationContext.current().sources.get(sessionId);
+    if(source==null)
+      throw new IllegalStateException("BAD BAD THING: no source streams session "+sessionId);
+    return source.sentChunks;
   }
 
   private int chunkPlaybackLength;
   private long advance;
   private boolean adaptiveAdvance;
+  /**
+   * The source's own random stream, see {@link RandomStreams}.
+   */
+  private final ExtendedRandom random;
 
   /**
    * Constructor.
@@ -189,6 +346,9 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
    */
   public StarStreamSource(String prefix) throws FileNotFoundException {
     super();
+    this.prefix = prefix;
+    sessionId = newSessionId(prefix);
+    random = RandomStreams.forControl(prefix);
     chunksPerTimeUnit = Configuration.getInt(prefix+"."+CHUNKS_PER_TIME_UNIT);
     nodesPerChunk = (int) Math.ceil( Configuration.getDouble(prefix+"."+NODES_PER_CHUNK) );
     if(nodesPerChunk==0)
@@ -197,15 +357,28 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
 //    start = Configuration.getLong(prefix+"."+START_TIME);
     ackTimeout = Configuration.getInt(prefix+"."+CHUNK_ACK_TIMEOUT);
     ttl = Configuration.getInt(prefix+"."+TTL);
-    doLog = Configuration.getBoolean(prefix+"."+DO_LOG);
     elegibleNodeRetriesPercentage = Configuration.getInt(prefix+"."+ELEGIBLE_NODE_RETRIES_PERCENTAGE);
-    if(doLog) {
-      logFile = new FileNameGenerator(Configuration.getString(prefix + "."+LOG_FILE), ".log").nextCounterName();
-      stream = new PrintStream(new FileOutputStream(logFile));
+    if(Configuration.getBoolean(prefix+"."+DO_LOG)) {
+      String logFormat = Configuration.getString(prefix+"."+LOG_FORMAT, EventLog.TEXT);
+      eventLog = EventLog.open(Configuration.getString(prefix + "."+LOG_FILE), logFormat);
+      if(eventLog==null)
+        throw new IllegalParameterException(prefix+"."+LOG_FORMAT, "Unknown log format "+logFormat);
+    }
+    if(Configuration.getBoolean(prefix+"."+TRACE, false)) {
+      try {
+        traceRecorder = TraceRecorder.open(Configuration.getString(prefix+"."+TRACE_FILE, "starstream-trace-"));
+      } catch(IOException e) {
+        throw new IllegalParameterException(prefix+"."+TRACE_FILE, "Cannot create the trace file: "+e.getMessage());
+      }
     }
     chunkPlaybackLength = Configuration.getInt(prefix+"."+"chunkPlaybackLength");
+    String payload = Configuration.getString(prefix+"."+PAYLOAD, PayloadModel.NONE);
+    payloadModel = PayloadModel.newInstance(payload, prefix, chunkPlaybackLength);
+    if(payloadModel==null)
+      throw new IllegalParameterException(prefix+"."+PAYLOAD, "Unknown payload model "+payload);
     advance = Configuration.getInt(prefix+"."+"advance");
     adaptiveAdvance = Configuration.getBoolean(prefix+"."+"adaptiveAdvance");
+    register(this);
     // register for overlay construction events
     PastryOverlayBuilder.addOverlayBuilderListener(this);
   }
@@ -231,7 +404,7 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
       if(isTimeForChunk()) {
         // new chunks creation and diffusion
         if(createdChunksCounter<chunks) {
-          Set<Chunk<?>> batch = produceChunks(SESSION_ID, chunksPerTimeUnit);
+          Set<Chunk<?>> batch = produceChunks(sessionId, chunksPerTimeUnit);
           spreadChunks(batch,nodesPerChunk);
         }
         // check for expired timeouts
@@ -247,11 +420,14 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
 
   @Override
   public void overlayBuilt() {
+    // sources of previous experiments stay registered with the overlay builder
+    if(SimulationContext.current().sources.get(sessionId)!=this)
+      return;
     if(!enabled) {
       start = CommonState.getTime() * 2;
       int dim = Network.size();
       for(int i=0; i<dim; i++) {
-        ((StarStreamNode)Network.get(i)).streamingStartsAt(start);
+        ((StarStreamNode)Network.get(i)).streamingStartsAt(sessionId, start);
       }
     }
     enabled = true;
@@ -306,7 +482,7 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
     double dynAdvance;
     if(adaptiveAdvance) {
       int dim = Network.size();
-      int nodeIndex = CommonState.r.nextInt(dim);
+      int nodeIndex = random.nextInt(dim);
       dynAdvance = ((StarStreamNode)Network.get(nodeIndex)).getPerceivedMaxChunkDeliveryTime();
       if(dynAdvance==Double.MIN_VALUE)
         dynAdvance = advance;
@@ -322,13 +498,13 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
   }
 
   /**
-   * Logs the given message to the configured stream.
+   * Logs that the given message has been sent, if logging is enabled.
    *
    * @param msg The message
    */
-  private void log(String msg) {
-    if(doLog)
-      stream.println(CommonState.getTime()+") "+msg);
+  private void log(ChunkMessage msg) {
+    if(eventLog!=null)
+      eventLog.log(EventLog.NO_NODE, EventLog.Event.SEND, msg);
   }
 
   /**
@@ -342,7 +518,8 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
     Set<Chunk<?>> batch = new HashSet<Chunk<?>>();
     for(int i=0; i<n; i++) {
       if(createdChunksCounter<chunks) {
-        Chunk<String> chunk = ChunkUtils.<String>createChunk(String.valueOf(createdChunksCounter),sessionId,createdChunksCounter++,ttl);
+        ChunkPayload payload = new ChunkPayload(payloadModel.nextChunkSize());
+        Chunk<ChunkPayload> chunk = ChunkUtils.<ChunkPayload>createChunk(payload,sessionId,createdChunksCounter++,ttl);
         batch.add(chunk);
       }
     }
@@ -354,7 +531,7 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
    * @return A node
    */
   private StarStreamNode randomNode() {
-    return (StarStreamNode) Network.get( CommonState.r.nextInt(Network.size()) );
+    return (StarStreamNode) Network.get( random.nextInt(Network.size()) );
   }
 
   /**
@@ -387,7 +564,9 @@ public class StarStreamSource implements Control, OverlayBuilderListenerIfc {
    */
   private void send(ChunkMessage msg, StarStreamNode node) {
     EDSimulator.add(0, msg, node, node.getStarStreamPid());
-    log("[SND] "+msg);
+    if(traceRecorder!=null)
+      traceRecorder.sent(msg);
+    log(msg);
   }
 
   /**
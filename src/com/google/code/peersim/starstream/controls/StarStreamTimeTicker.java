@@ -19,27 +19,58 @@ import peersim.core.Network;
  */
 public class StarStreamTimeTicker implements Control {
 
+  /**
+   * Visits the nodes, possibly in parallel (see {@link PartitionedNodeLoop#THREADS}).
+   */
+  private final PartitionedNodeLoop loop;
+
   /**
    * PeerSim dictated constructor.
    * @param prefix The configuration properties' prefix
    */
   public StarStreamTimeTicker(String prefix) {
     super();
+    loop = new PartitionedNodeLoop(prefix);
   }
 
   /**
    * This method iterates over the full network of nodes, and if a node is up and
    * running ({@link StarStreamNode#isUp()}) invokes {@link StarStreamNode#checkForStarStreamTimeouts()}
-   * over that node.
+   * over that node.<br>
+   * When more than one thread is configured, the node-local steps of the tick are
+   * performed in parallel while the one that sends messages is still performed
+   * one node at a time, in index order.
    * @return Whether the simulation must be halted or not
    */
   @Override
   public boolean execute() {
     boolean stop = false;
-    int size = Network.size();
-    for(int i=0; i<size; i++) {
-      StarStreamNode node = (StarStreamNode) Network.get(i);
-      node.tick();
+    if (loop.isParallel()) {
+      loop.forEachNode(new PartitionedNodeLoop.NodeTask() {
+
+        @Override
+        public void run(StarStreamNode node) {
+          node.prepareTick();
+        }
+      });
+      int size = Network.size();
+      for(int i=0; i<size; i++) {
+        StarStreamNode node = (StarStreamNode) Network.get(i);
+        node.tickNetwork();
+      }
+      loop.forEachNode(new PartitionedNodeLoop.NodeTask() {
+
+        @Override
+        public void run(StarStreamNode node) {
+          node.tickPlayer();
+        }
+      });
+    } else {
+      int size = Network.size();
+      for(int i=0; i<size; i++) {
+        StarStreamNode node = (StarStreamNode) Network.get(i);
+        node.tick();
+      }
     }
     return stop;
   }
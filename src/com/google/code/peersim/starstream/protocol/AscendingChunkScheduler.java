@@ -0,0 +1,52 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * {@link ChunkScheduler} that requests every missing chunk in ascending sequence
+ * id order from the first available neighbor, regardless of playback times and
+ * of what neighbors are known to hold.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class AscendingChunkScheduler extends ChunkScheduler {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  List<Integer> schedule(StarStreamNode node, UUID sessionId, Collection<Integer> seqIds) {
+    return new ArrayList<Integer>(seqIds);
+  }
+
+  /**
+   * Never reads it.
+   * <br><br>
+   * {@inheritDoc}
+   */
+  @Override
+  boolean readsAvailability() {
+    return false;
+  }
+
+  /**
+   * Always chooses the first neighbor.
+   * <br><br>
+   * {@inheritDoc}
+   */
+  @Override
+  StarStreamNode selectSource(StarStreamNode node, UUID sessionId, PastryId chunkId, Set<StarStreamNode> neighbors) {
+    return neighbors.iterator().next();
+  }
+}
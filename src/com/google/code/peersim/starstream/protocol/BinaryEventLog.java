@@ -0,0 +1,109 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.protocol.messages.ChunkMessage;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import peersim.core.CommonState;
+import peersim.util.FileNameGenerator;
+
+/**
+ * {@link EventLog} writing one binary record per event. The file begins with
+ * {@link EventLog#BINARY_MAGIC} and {@link EventLog#BINARY_VERSION}, then each
+ * record is laid out as follows:
+ * <ul>
+ * <li>{@code long} simulated time, {@code long} node id, {@code byte} event ordinal, {@code long} value</li>
+ * <li>{@code byte} message type ordinal, {@code -1} if there is no message, otherwise followed by
+ * {@code long} message id, {@code long} correlation id, {@code long} source id,
+ * {@code long} destination id and {@code int} chunk sequence id ({@code -1} for non-chunk messages)</li>
+ * <li>{@code boolean} whether a detail follows, then the detail as modified UTF-8</li>
+ * </ul>
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class BinaryEventLog extends EventLog {
+
+  /**
+   * The stream to log to.
+   */
+  private final DataOutputStream out;
+
+  /**
+   * Constructor.
+   *
+   * @param filePrefix The file name prefix
+   * @throws java.io.FileNotFoundException Thrown iff the file cannot be created
+   */
+  BinaryEventLog(String filePrefix) throws FileNotFoundException {
+    String file = new FileNameGenerator(filePrefix, ".bin").nextCounterName();
+    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(BINARY_MAGIC);
+      out.writeInt(BINARY_VERSION);
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot write the event log header. See nested exceptions, please.", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void log(long nodeId, Event event, long value, StarStreamMessage msg, Object details) {
+    try {
+      out.writeLong(CommonState.getTime());
+      out.writeLong(nodeId);
+      out.writeByte(event.ordinal());
+      out.writeLong(value);
+      if (msg == null) {
+        out.writeByte(-1);
+      } else {
+        out.writeByte(msg.getType().ordinal());
+        out.writeLong(msg.getMessageId());
+        out.writeLong(msg.getCorrelationId());
+        out.writeLong(idOf(msg.getSource()));
+        out.writeLong(idOf(msg.getDestination()));
+        out.writeInt(msg instanceof ChunkMessage ? ((ChunkMessage) msg).getChunk().getSequenceId() : -1);
+      }
+      out.writeBoolean(details != null);
+      if (details != null) {
+        out.writeUTF(details.toString());
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot write to the event log. See nested exceptions, please.", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void flush() {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot flush the event log. See nested exceptions, please.", e);
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  synchronized void close() {
+    try {
+      out.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot close the event log. See nested exceptions, please.", e);
+    }
+  }
+}
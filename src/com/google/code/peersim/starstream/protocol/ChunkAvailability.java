@@ -0,0 +1,231 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.controls.ChunkUtils;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps track of which chunks, by *-Stream session and sequence id, each neighbor
+ * has been seen holding by a {@link StarStreamProtocol} instance, that is which
+ * chunks it advertised, reported in its buffer maps or sent.<br>
+ * For each session, the record is a bounded cache of the neighbors most recently
+ * seen holding some chunk: when it is full, the neighbor that has not been heard
+ * of for the longest time is forgotten, together with its chunks. Neighbors that
+ * report a chunk as missing are forgotten as holders of that chunk only.<br>
+ * Bitmaps are relative to the session expiry low-water mark (see {@link ChunkUtils#getLowestLiveSeqNumber(java.util.UUID)}),
+ * and are shifted as the mark advances: chunks below it are forgotten, hence the
+ * record is bounded by the number of holders times the number of live chunks.
+ * The record is meant as a hint for {@link ChunkScheduler}s only.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class ChunkAvailability {
+
+  /**
+   * The record of each session.
+   */
+  private final Map<UUID, Session> sessions = new HashMap<UUID, Session>();
+  /**
+   * How many holders each session record keeps.
+   */
+  private final int capacity;
+
+  /**
+   * Constructor.
+   *
+   * @param capacity How many holders each session record keeps
+   */
+  ChunkAvailability(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Records that the given neighbor holds the chunk with the given sequence id.
+   *
+   * @param holder The neighbor
+   * @param sessionId The *-Stream session id
+   * @param seqId The sequence id
+   */
+  void add(StarStreamNode holder, UUID sessionId, int seqId) {
+    if (holder == null || seqId < 0) {
+      return;
+    }
+    Session session = sessions.get(sessionId);
+    if (session == null) {
+      session = new Session();
+      sessions.put(sessionId, session);
+    }
+    session.advance(ChunkUtils.getLowestLiveSeqNumber(sessionId));
+    if (seqId < session.base) {
+      return;
+    }
+    session.add(holder, seqId - session.base);
+    if (session.holdings.size() > capacity) {
+      session.evictEldest();
+    }
+  }
+
+  /**
+   * Records that the given neighbor does not hold the chunk with the given sequence
+   * id, although it might have been seen holding it before.
+   *
+   * @param node The neighbor
+   * @param sessionId The *-Stream session id
+   * @param seqId The sequence id
+   */
+  void remove(StarStreamNode node, UUID sessionId, int seqId) {
+    Session session = sessions.get(sessionId);
+    BitSet held = session == null ? null : session.holdings.get(node);
+    int i = session == null ? -1 : seqId - session.base;
+    if (held != null && i >= 0 && held.get(i)) {
+      held.clear(i);
+      session.holders[i]--;
+    }
+  }
+
+  /**
+   * Tells how many neighbors have been seen holding the chunk with the given
+   * sequence id.
+   *
+   * @param sessionId The *-Stream session id
+   * @param seqId The sequence id
+   * @return The number of holders
+   */
+  int countHolders(UUID sessionId, int seqId) {
+    Session session = sessions.get(sessionId);
+    return session == null ? 0 : session.count(seqId - session.base);
+  }
+
+  /**
+   * Tells whether the given neighbor has been seen holding the chunk with the
+   * given sequence id.
+   *
+   * @param node The neighbor
+   * @param sessionId The *-Stream session id
+   * @param seqId The sequence id
+   * @return Whether the neighbor holds the chunk or not
+   */
+  boolean isHolder(StarStreamNode node, UUID sessionId, int seqId) {
+    Session session = sessions.get(sessionId);
+    BitSet held = session == null ? null : session.holdings.get(node);
+    return held != null && seqId >= session.base && held.get(seqId - session.base);
+  }
+
+  /**
+   * Returns the neighbor most recently seen holding some chunk, among those holding
+   * the chunk with the given sequence id.
+   *
+   * @param sessionId The *-Stream session id
+   * @param seqId The sequence id
+   * @return The neighbor, or {@code null} if no neighbor is known to hold the chunk
+   */
+  StarStreamNode getRecentHolder(UUID sessionId, int seqId) {
+    StarStreamNode holder = null;
+    Session session = sessions.get(sessionId);
+    if (session != null && session.count(seqId - session.base) > 0) {
+      // holders are in least-recently-seen order, the last match wins
+      for (Map.Entry<StarStreamNode, BitSet> entry : session.holdings.entrySet()) {
+        if (entry.getValue().get(seqId - session.base)) {
+          holder = entry.getKey();
+        }
+      }
+    }
+    return holder;
+  }
+
+  /**
+   * The record of a single *-Stream session.
+   */
+  private static class Session {
+
+    /**
+     * The sequence ids, relative to {@link Session#base}, each neighbor has been
+     * seen holding, in least-recently-seen neighbor order.
+     */
+    private final Map<StarStreamNode, BitSet> holdings = new LinkedHashMap<StarStreamNode, BitSet>();
+    /**
+     * How many neighbors have been seen holding each sequence id, relative to
+     * {@link Session#base}.
+     */
+    private int[] holders = new int[0];
+    /**
+     * The sequence id bitmaps and counters start from.
+     */
+    private int base = 0;
+
+    /**
+     * Moves {@link Session#base} up to the given sequence id, forgetting every
+     * chunk below it.
+     *
+     * @param lowest The new base
+     */
+    private void advance(int lowest) {
+      int shift = lowest - base;
+      if (shift <= 0) {
+        return;
+      }
+      for (Map.Entry<StarStreamNode, BitSet> entry : holdings.entrySet()) {
+        BitSet held = entry.getValue();
+        entry.setValue(held.get(Math.min(shift, held.length()), Math.max(shift, held.length())));
+      }
+      if (shift < holders.length) {
+        System.arraycopy(holders, shift, holders, 0, holders.length - shift);
+        Arrays.fill(holders, holders.length - shift, holders.length, 0);
+      } else {
+        Arrays.fill(holders, 0);
+      }
+      base = lowest;
+    }
+
+    /**
+     * Tells how many neighbors have been seen holding the given relative sequence id.
+     *
+     * @param i The sequence id, relative to {@link Session#base}
+     * @return The number of holders
+     */
+    private int count(int i) {
+      return (i >= 0 && i < holders.length) ? holders[i] : 0;
+    }
+
+    private void add(StarStreamNode holder, int seqId) {
+      // re-inserting makes the holder the most recently seen one
+      BitSet held = holdings.remove(holder);
+      if (held == null) {
+        held = new BitSet();
+      }
+      holdings.put(holder, held);
+      if (!held.get(seqId)) {
+        held.set(seqId);
+        if (seqId >= holders.length) {
+          int[] grown = new int[Math.max(seqId + 1, holders.length * 2)];
+          System.arraycopy(holders, 0, grown, 0, holders.length);
+          holders = grown;
+        }
+        holders[seqId]++;
+      }
+    }
+
+    /**
+     * Forgets the least recently seen holder, and its chunks.
+     */
+    private void evictEldest() {
+      Iterator<BitSet> it = holdings.values().iterator();
+      BitSet held = it.next();
+      it.remove();
+      for (int seqId = held.nextSetBit(0); seqId >= 0; seqId = held.nextSetBit(seqId + 1)) {
+        holders[seqId]--;
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.controls.ChunkUtils;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Instances of this class are used by {@link StarStreamNode}s to decide which
+ * of their missing chunks must be requested, in which order, and which neighbor
+ * each request must be addressed to.<br>
+ * The concrete implementation is choosen by means of the
+ * {@link StarStreamNode#CHUNK_SCHEDULER} configuration property.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public abstract class ChunkScheduler {
+
+  /**
+   * Name of the default implementation, that requests every missing chunk in
+   * ascending sequence id order from the first available neighbor.
+   */
+  public static final String ASCENDING = "ascending";
+  /**
+   * Name of the implementation that requests the chunks whose playback time comes
+   * first, skipping those that could not be played any longer.
+   */
+  public static final String DEADLINE_FIRST = "deadlineFirst";
+  /**
+   * Name of the implementation that requests the chunks held by the fewest
+   * neighbors first.
+   */
+  public static final String RAREST_FIRST = "rarestFirst";
+  /**
+   * Name of the implementation that behaves as {@link ChunkScheduler#DEADLINE_FIRST}
+   * for the chunks that are going to be played soon and as {@link ChunkScheduler#RAREST_FIRST}
+   * for the others.
+   */
+  public static final String HYBRID = "hybrid";
+
+  /**
+   * Factory method.
+   *
+   * @param impl The implementation name
+   * @param horizon How many simulated-time units ahead of the current time a
+   * chunk playback time must fall for the chunk to be considered urgent
+   * @return The new scheduler, or {@code null} if {@code impl} is unknown
+   */
+  static ChunkScheduler newInstance(String impl, int horizon) {
+    ChunkScheduler scheduler = null;
+    if (ASCENDING.equals(impl)) {
+      scheduler = new AscendingChunkScheduler();
+    } else if (DEADLINE_FIRST.equals(impl)) {
+      scheduler = new DeadlineFirstChunkScheduler();
+    } else if (RAREST_FIRST.equals(impl)) {
+      scheduler = new RarestFirstChunkScheduler();
+    } else if (HYBRID.equals(impl)) {
+      scheduler = new HybridChunkScheduler(horizon);
+    }
+    return scheduler;
+  }
+
+  /**
+   * Returns the sequence ids, among the given missing ones, that must be requested,
+   * in the order they must be requested.
+   *
+   * @param node The node the chunks are missing at
+   * @param sessionId The *-Stream session id of the missing chunks
+   * @param seqIds The missing sequence ids, in ascending order
+   * @return The sequence ids to request
+   */
+  abstract List<Integer> schedule(StarStreamNode node, UUID sessionId, Collection<Integer> seqIds);
+
+  /**
+   * Tells whether this scheduler reads the {@link ChunkAvailability} record of
+   * the nodes, which is not maintained otherwise.
+   *
+   * @return {@code true}, unless overridden
+   */
+  boolean readsAvailability() {
+    return true;
+  }
+
+  /**
+   * Chooses the neighbor a request for the given chunk must be addressed to.
+   * The default implementation prefers the first neighbor known to hold the chunk,
+   * if any, then the node most recently seen holding it, as long as it is up, and
+   * the first neighbor otherwise.
+   *
+   * @param node The requesting node
+   * @param sessionId The *-Stream session id
+   * @param chunkId The *-Stream chunk id
+   * @param neighbors The available neighbors, not empty
+   * @return The neighbor
+   */
+  StarStreamNode selectSource(StarStreamNode node, UUID sessionId, PastryId chunkId, Set<StarStreamNode> neighbors) {
+    ChunkAvailability availability = node.getChunkAvailability();
+    int seqId = ChunkUtils.getSequenceIdForChunkId(sessionId, chunkId);
+    for (StarStreamNode neighbor : neighbors) {
+      if (availability.isHolder(neighbor, sessionId, seqId)) {
+        return neighbor;
+      }
+    }
+    StarStreamNode holder = availability.getRecentHolder(sessionId, seqId);
+    if (holder != null && holder.isUp()) {
+      return holder;
+    }
+    return neighbors.iterator().next();
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import peersim.core.CommonState;
+
+/**
+ * {@link ChunkScheduler} that requests the missing chunks in playback time order,
+ * skipping those whose playback time has already come: they would be received too
+ * late to be played anyway, and requesting them would only waste bandwidth.<br>
+ * Since chunks are played in sequence id order, before playback starts this
+ * scheduler behaves as the {@link AscendingChunkScheduler}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class DeadlineFirstChunkScheduler extends ChunkScheduler {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  List<Integer> schedule(StarStreamNode node, UUID sessionId, Collection<Integer> seqIds) {
+    return skipLate(node, sessionId, seqIds);
+  }
+
+  /**
+   * Returns the given sequence ids, in the same order, but for those whose
+   * playback time has already come.
+   *
+   * @param node The node the chunks are missing at
+   * @param sessionId The *-Stream session id of the chunks
+   * @param seqIds The sequence ids
+   * @return The sequence ids that can still be played
+   */
+  static List<Integer> skipLate(StarStreamNode node, UUID sessionId, Collection<Integer> seqIds) {
+    StarStreamPlayer player = node.getPlayer(sessionId);
+    long now = CommonState.getTime();
+    List<Integer> res = new ArrayList<Integer>(seqIds.size());
+    for (Integer seqId : seqIds) {
+      long playbackTime = player.getPlaybackTime(seqId);
+      if (playbackTime < 0 || playbackTime > now) {
+        res.add(seqId);
+      }
+    }
+    return res;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+
+/**
+ * Queue of {@link StarStreamMessage}s that could have not been processed, or sent,
+ * due to bandwidth unavailability. Implementations differ in the order messages
+ * are given another chance in, that is in how the available bandwidth is shared
+ * among the waiting messages.
+ * <br><br>
+ * Messages are drained in <i>rounds</i>: {@link DelayedMessageQueue#beginDrain()}
+ * fixes the messages a round is made of, and {@link DelayedMessageQueue#poll()}
+ * returns them one at a time. Messages added during a round are not returned until
+ * the next one.<br>
+ * The concrete implementation of the queue of outgoing messages is choosen by
+ * means of the {@link StarStreamProtocol#UPLOAD_SCHEDULER} configuration property.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+abstract class DelayedMessageQueue {
+
+  /**
+   * Name of the default implementation, that drains messages by type priority
+   * first and in arrival order then.
+   */
+  static final String PRIORITY = "priority";
+  /**
+   * Name of the implementation that shares the bandwidth among destinations
+   * fairly, and among the message types of each destination according to their
+   * priority.
+   */
+  static final String WEIGHTED_FAIR = "weightedFair";
+
+  /**
+   * Factory method.
+   *
+   * @param impl The implementation name, either {@link DelayedMessageQueue#PRIORITY}
+   * or {@link DelayedMessageQueue#WEIGHTED_FAIR}
+   * @return The new queue, or {@code null} if {@code impl} is unknown
+   */
+  static DelayedMessageQueue newInstance(String impl) {
+    DelayedMessageQueue queue = null;
+    if (PRIORITY.equals(impl)) {
+      queue = new PriorityDelayedMessageQueue();
+    } else if (WEIGHTED_FAIR.equals(impl)) {
+      queue = new WeightedFairDelayedMessageQueue();
+    }
+    return queue;
+  }
+
+  /**
+   * Enqueues the given message.
+   *
+   * @param msg The message
+   */
+  abstract void add(StarStreamMessage msg);
+
+  /**
+   * Tells how many messages are queued.
+   *
+   * @return The number of queued messages
+   */
+  abstract int size();
+
+  /**
+   * Starts a new drain round made of all the messages currently queued.
+   */
+  abstract void beginDrain();
+
+  /**
+   * Removes and returns the next message of the current round.
+   *
+   * @return The next message, or {@code null} if the round is over
+   */
+  abstract StarStreamMessage poll();
+}
@@ -0,0 +1,30 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+/**
+ * The ways a chunk can get to a {@link StarStreamNode}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public enum DeliveryPath {
+
+  /**
+   * The chunk has been sent without being requested, that is pushed by the streaming
+   * source or sent again after a {@link com.google.code.peersim.starstream.protocol.messages.ChunkKo}.
+   */
+  PUSH,
+  /**
+   * The chunk has been sent by a neighbor in reply to one of our chunk requests
+   * still waiting for an answer.
+   */
+  PULL,
+  /**
+   * The chunk has been delivered by a Pastry lookup or resource routing.
+   */
+  PASTRY
+}
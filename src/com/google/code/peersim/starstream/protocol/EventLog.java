@@ -0,0 +1,266 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.io.FileNotFoundException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Structured log of *-Stream events, shared by every {@link StarStreamProtocol}
+ * instance, by {@link StarStreamNode}s and by the streaming source.<br>
+ * Events are logged as a handful of primitive fields plus, where needed, a message
+ * or a free-text detail: nothing is formatted unless the log is in {@link EventLog#TEXT}
+ * format, so that callers do not pay for string building when logging is disabled
+ * (they hold no log at all) nor when it is binary. Every instance writes through a
+ * buffer, that is flushed when the JVM exits.<br>
+ * Binary logs can be turned into text by means of
+ * {@link com.google.code.peersim.starstream.tools.EventLogDecoder}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public abstract class EventLog {
+
+  /**
+   * Name of the format that writes one human-readable line per event.
+   */
+  public static final String TEXT = "text";
+  /**
+   * Name of the format that writes one compact binary record per event.
+   */
+  public static final String BINARY = "binary";
+  /**
+   * Node identifier used for events that do not belong to any node, such as those
+   * of the streaming source.
+   */
+  public static final long NO_NODE = -1;
+  /**
+   * Value used for events that carry no numeric value.
+   */
+  public static final long NO_VALUE = Long.MIN_VALUE;
+  /**
+   * First bytes of every binary log.
+   */
+  public static final int BINARY_MAGIC = 0x53534556;
+  /**
+   * Version of the binary record layout, written right after {@link EventLog#BINARY_MAGIC}.
+   */
+  public static final int BINARY_VERSION = 1;
+
+  /**
+   * The kinds of logged events. Binary logs store the ordinal, hence new kinds
+   * must be appended.
+   */
+  public static enum Event {
+
+    SEND("[SND]"),
+    RECEIVE("[RCV]"),
+    /**
+     * The value is how late the timeout has been detected.
+     */
+    TIMEOUT("[TIMEOUT]"),
+    /**
+     * The value is the max number of retries that has been reached.
+     */
+    NOT_SENT("[NOT SENT]"),
+    EXPIRED("[*** EXPIRED ***]"),
+    DELAYED_BEGIN("[DELAYED MESSAGES] begin"),
+    DELAYED_END("[DELAYED MESSAGES] end"),
+    PASTRY_EVENT("[PASTRY-EVENT]"),
+    /**
+     * The value is the sequence id of the stored chunk.
+     */
+    CHUNK_STORED("[*-STREAM] stored chunk"),
+    /**
+     * The value is the sequence id of the searched chunk.
+     */
+    CHUNK_SEARCH("[*-STREAM] starts looking for chunk"),
+    /**
+     * The value is the sequence id of the chunk no one knows anything about.
+     */
+    CHUNK_UNKNOWN("[*-STREAM] WARN no one knows anything about chunk"),
+    PLAYBACK_STARTED("[*-STREAM] started playback");
+    /**
+     * The text the event is rendered with.
+     */
+    private final String label;
+
+    private Event(String label) {
+      this.label = label;
+    }
+
+    /**
+     * Returns the text the event is rendered with.
+     *
+     * @return The label
+     */
+    public String getLabel() {
+      return label;
+    }
+  }
+  /**
+   * The instances opened so far, by file name prefix.
+   */
+  private static final Map<String, EventLog> logs = new HashMap<String, EventLog>();
+  /**
+   * The hook flushing every instance at JVM exit, {@code null} until some instance
+   * is opened.
+   */
+  private static Thread flushHook;
+
+  /**
+   * Returns the log writing to the file with the given name prefix, opening it
+   * the first time it is asked for: every caller passing the same prefix shares
+   * the same instance, and the same file.
+   *
+   * @param filePrefix The file name prefix
+   * @param format Either {@link EventLog#TEXT} or {@link EventLog#BINARY}
+   * @return The log, or {@code null} if {@code format} is unknown
+   * @throws java.io.FileNotFoundException Thrown iff the file cannot be created
+   */
+  public static synchronized EventLog open(String filePrefix, String format) throws FileNotFoundException {
+    EventLog log = logs.get(filePrefix);
+    if (log == null) {
+      if (TEXT.equals(format)) {
+        log = new TextEventLog(filePrefix);
+      } else if (BINARY.equals(format)) {
+        log = new BinaryEventLog(filePrefix);
+      }
+      if (log != null) {
+        logs.put(filePrefix, log);
+        registerFlushHook();
+      }
+    }
+    return log;
+  }
+
+  /**
+   * Flushes every instance opened so far.
+   */
+  public static synchronized void flushAll() {
+    for (EventLog log : logs.values()) {
+      log.flush();
+    }
+  }
+
+  /**
+   * Closes every instance opened so far and unregisters the hook flushing them
+   * at JVM exit, so that nothing keeps referring to this class once the simulation
+   * is over: callers running several simulations in the same JVM, each in its own
+   * class loader, invoke this method at the end of every simulation.
+   */
+  public static synchronized void closeAll() {
+    for (EventLog log : logs.values()) {
+      log.close();
+    }
+    logs.clear();
+    if (flushHook != null) {
+      Runtime.getRuntime().removeShutdownHook(flushHook);
+      flushHook = null;
+    }
+  }
+
+  /**
+   * Renders an event as a line of text, the same way for logs written as text
+   * and for decoded binary logs.
+   *
+   * @param time The simulated time
+   * @param nodeId The node identifier, or {@link EventLog#NO_NODE}
+   * @param event The event
+   * @param value The event value, or {@link EventLog#NO_VALUE}
+   * @param message The rendered message, or {@code null}
+   * @param details The free-text detail, or {@code null}
+   * @return The line
+   */
+  public static String format(long time, long nodeId, Event event, long value, String message, String details) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(time).append(") ").append(event.getLabel());
+    if (nodeId != NO_NODE) {
+      sb.append(" node ").append(nodeId);
+    }
+    if (value != NO_VALUE) {
+      sb.append(' ').append(value);
+    }
+    if (message != null) {
+      sb.append(' ').append(message);
+    }
+    if (details != null) {
+      sb.append(' ').append(details);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Logs an event.
+   *
+   * @param nodeId The node identifier, or {@link EventLog#NO_NODE}
+   * @param event The event
+   * @param value The event value, or {@link EventLog#NO_VALUE}
+   * @param msg The message the event is about, or {@code null}
+   * @param details An object whose text describes the event, or {@code null}
+   */
+  public abstract void log(long nodeId, Event event, long value, StarStreamMessage msg, Object details);
+
+  /**
+   * Logs an event about a message.
+   *
+   * @param nodeId The node identifier, or {@link EventLog#NO_NODE}
+   * @param event The event
+   * @param msg The message
+   */
+  public void log(long nodeId, Event event, StarStreamMessage msg) {
+    log(nodeId, event, NO_VALUE, msg, null);
+  }
+
+  /**
+   * Logs an event carrying a numeric value.
+   *
+   * @param nodeId The node identifier, or {@link EventLog#NO_NODE}
+   * @param event The event
+   * @param value The event value
+   */
+  public void log(long nodeId, Event event, long value) {
+    log(nodeId, event, value, null, null);
+  }
+
+  /**
+   * Writes down whatever is still buffered.
+   */
+  public abstract void flush();
+
+  /**
+   * Writes down whatever is still buffered and releases the file.
+   */
+  abstract void close();
+
+  /**
+   * Registers, once, a hook flushing every instance at JVM exit.
+   */
+  private static void registerFlushHook() {
+    if (flushHook == null) {
+      flushHook = new Thread("starstream-event-log-flush") {
+
+        @Override
+        public void run() {
+          flushAll();
+        }
+      };
+      Runtime.getRuntime().addShutdownHook(flushHook);
+    }
+  }
+
+  /**
+   * Returns the identifier of the given node.
+   *
+   * @param node The node, possibly {@code null}
+   * @return The identifier, {@link EventLog#NO_NODE} for {@code null}
+   */
+  static long idOf(StarStreamNode node) {
+    return node == null ? NO_NODE : node.getID();
+  }
+}
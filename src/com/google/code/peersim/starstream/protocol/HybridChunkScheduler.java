@@ -0,0 +1,65 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import peersim.core.CommonState;
+
+/**
+ * {@link ChunkScheduler} that splits the missing chunks, once those that could not
+ * be played any longer have been skipped, into:
+ * <ol>
+ * <li><i>urgent</i> chunks, whose playback time falls within a configurable horizon:
+ * they are requested first, in playback time order</li>
+ * <li>the others, that are requested afterwards, rarest first</li>
+ * </ol>
+ * Before playback starts every chunk is considered not urgent.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class HybridChunkScheduler extends ChunkScheduler {
+
+  /**
+   * How many simulated-time units ahead of the current time a chunk playback time
+   * must fall for the chunk to be considered urgent.
+   */
+  private final int horizon;
+
+  /**
+   * Constructor.
+   *
+   * @param horizon The urgency horizon
+   */
+  HybridChunkScheduler(int horizon) {
+    this.horizon = horizon;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  List<Integer> schedule(StarStreamNode node, UUID sessionId, Collection<Integer> seqIds) {
+    StarStreamPlayer player = node.getPlayer(sessionId);
+    long now = CommonState.getTime();
+    List<Integer> urgent = new ArrayList<Integer>();
+    List<Integer> others = new ArrayList<Integer>();
+    for (Integer seqId : DeadlineFirstChunkScheduler.skipLate(node, sessionId, seqIds)) {
+      long playbackTime = player.getPlaybackTime(seqId);
+      if (playbackTime >= 0 && playbackTime <= now + horizon) {
+        urgent.add(seqId);
+      } else {
+        others.add(seqId);
+      }
+    }
+    RarestFirstChunkScheduler.sortByRarity(node, sessionId, others);
+    urgent.addAll(others);
+    return urgent;
+  }
+}
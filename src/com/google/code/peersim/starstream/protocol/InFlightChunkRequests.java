@@ -0,0 +1,215 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.protocol.messages.ChunkRequest;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link ChunkRequest}s a {@link StarStreamProtocol} instance is waiting an
+ * answer for, by chunk identifier, that is by *-Stream session and sequence id.<br>
+ * At most one request per chunk is in flight at any time: further advertisers of
+ * the same chunk are not asked for it, but kept as fallback sources, to be asked
+ * should the in-flight request fail. A request stops being in flight as soon as
+ * the chunk is delivered, or once it has not been answered within the message
+ * timeout.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class InFlightChunkRequests {
+
+  /**
+   * How many fallback sources are kept per chunk.
+   */
+  static final int MAX_FALLBACKS = 4;
+  /**
+   * The in-flight requests.
+   */
+  private final Map<PastryId, InFlight> requests = new HashMap<PastryId, InFlight>();
+  /**
+   * How long a request can stay in flight without being answered.
+   */
+  private final int timeout;
+
+  /**
+   * Constructor.
+   *
+   * @param timeout How long a request can stay in flight without being answered
+   */
+  InFlightChunkRequests(int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Tells whether a request for the given chunk is in flight.
+   *
+   * @param chunkId The chunk identifier
+   * @param now Current simulated-time
+   * @return Whether the chunk has been requested and the request can still be answered
+   */
+  boolean isInFlight(PastryId chunkId, long now) {
+    return get(chunkId, now) != null;
+  }
+
+  /**
+   * Tells whether an in-flight request for the given chunk is waiting for its
+   * timeout, that is whether its failure is going to be detected.
+   *
+   * @param chunkId The chunk identifier
+   * @param now Current simulated-time
+   * @return Whether the request is in flight and watched
+   */
+  boolean isWatched(PastryId chunkId, long now) {
+    InFlight inFlight = get(chunkId, now);
+    return inFlight != null && inFlight.watched;
+  }
+
+  /**
+   * Tells whether the request with the given id is the in-flight one for the
+   * given chunk, even if it has not been answered in time.
+   *
+   * @param chunkId The chunk identifier
+   * @param requestId The request identifier
+   * @return Whether the request is the in-flight one
+   */
+  boolean isCurrent(PastryId chunkId, long requestId) {
+    InFlight inFlight = requests.get(chunkId);
+    return inFlight != null && inFlight.requestId == requestId;
+  }
+
+  /**
+   * Tells whether the request with the given id has been superseded by another
+   * request for the same chunk, that is either still in flight or going to have
+   * its own failure detected: the failure of the former must then be ignored.
+   *
+   * @param chunkId The chunk identifier
+   * @param requestId The identifier of the failed request
+   * @param now Current simulated-time
+   * @return Whether another request for the chunk is in charge of it
+   */
+  boolean isSuperseded(PastryId chunkId, long requestId, long now) {
+    InFlight inFlight = requests.get(chunkId);
+    return inFlight != null && inFlight.requestId != requestId && (inFlight.watched || inFlight.time + timeout >= now);
+  }
+
+  /**
+   * Records the given request as the in-flight one for its chunk. The fallback
+   * sources of the chunk, if any, are kept.
+   *
+   * @param req The request
+   * @param now Current simulated-time
+   * @param watched Whether the request is waiting for its timeout
+   */
+  void add(ChunkRequest req, long now, boolean watched) {
+    InFlight inFlight = requests.get(req.getChunkId());
+    if (inFlight == null) {
+      inFlight = new InFlight();
+      requests.put(req.getChunkId(), inFlight);
+    }
+    inFlight.requestId = req.getMessageId();
+    inFlight.time = now;
+    inFlight.watched = watched;
+  }
+
+  /**
+   * Keeps the given node as a fallback source of the given chunk, if a request
+   * for it is in flight.
+   *
+   * @param chunkId The chunk identifier
+   * @param node The node
+   * @param now Current simulated-time
+   * @return Whether a request for the chunk is in flight
+   */
+  boolean addFallback(PastryId chunkId, StarStreamNode node, long now) {
+    InFlight inFlight = get(chunkId, now);
+    if (inFlight != null && node != null && inFlight.fallbacks.size() < MAX_FALLBACKS && !inFlight.fallbacks.contains(node)) {
+      inFlight.fallbacks.add(node);
+    }
+    return inFlight != null;
+  }
+
+  /**
+   * Returns, and forgets, the first fallback source of the given chunk that is
+   * still up, given that the in-flight request with the given id has failed.
+   *
+   * @param chunkId The chunk identifier
+   * @param requestId The identifier of the failed request
+   * @return The fallback source, or {@code null} if there is none or the failed
+   * request is not the in-flight one
+   */
+  StarStreamNode pollFallback(PastryId chunkId, long requestId) {
+    StarStreamNode fallback = null;
+    InFlight inFlight = requests.get(chunkId);
+    if (inFlight != null && inFlight.requestId == requestId) {
+      while (fallback == null && !inFlight.fallbacks.isEmpty()) {
+        StarStreamNode node = inFlight.fallbacks.remove(0);
+        if (node.isUp()) {
+          fallback = node;
+        }
+      }
+    }
+    return fallback;
+  }
+
+  /**
+   * Forgets the request for the given chunk, either because the chunk has been
+   * delivered or because no one else can be asked for it.
+   *
+   * @param chunkId The chunk identifier
+   * @return The identifier of the forgotten request, {@link StarStreamMessage#NO_ID}
+   * if there was none
+   */
+  long remove(PastryId chunkId) {
+    InFlight inFlight = requests.remove(chunkId);
+    return inFlight == null ? StarStreamMessage.NO_ID : inFlight.requestId;
+  }
+
+  /**
+   * Returns the in-flight request for the given chunk, forgetting it if it has
+   * not been answered in time.
+   *
+   * @param chunkId The chunk identifier
+   * @param now Current simulated-time
+   * @return The request, or {@code null}
+   */
+  private InFlight get(PastryId chunkId, long now) {
+    InFlight inFlight = requests.get(chunkId);
+    if (inFlight != null && inFlight.time + timeout < now) {
+      requests.remove(chunkId);
+      inFlight = null;
+    }
+    return inFlight;
+  }
+
+  /**
+   * A request in flight.
+   */
+  private static class InFlight {
+
+    /**
+     * The request message identifier.
+     */
+    private long requestId;
+    /**
+     * When the request has been issued.
+     */
+    private long time;
+    /**
+     * Whether the request is waiting for its timeout.
+     */
+    private boolean watched;
+    /**
+     * Nodes that advertised the chunk while the request was in flight.
+     */
+    private final List<StarStreamNode> fallbacks = new ArrayList<StarStreamNode>(MAX_FALLBACKS);
+  }
+}
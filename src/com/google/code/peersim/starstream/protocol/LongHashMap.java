@@ -0,0 +1,170 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+/**
+ * Minimal hash map with primitive {@code long} keys, based on open addressing
+ * and linear probing. It avoids boxing keys and allocating one entry object per
+ * mapping, that matters for the memories of pending messages every
+ * {@link StarStreamProtocol} instance keeps.<br>
+ * {@code null} values are not supported.
+ * <br><br>
+ * <b>Note:</b> instances of this class are not thread-safe.
+ *
+ * @param <V> The type of the values
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class LongHashMap<V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private long[] keys;
+  private Object[] values;
+  private int size;
+  private int mask;
+
+  /**
+   * Constructor.
+   */
+  LongHashMap() {
+    keys = new long[INITIAL_CAPACITY];
+    values = new Object[INITIAL_CAPACITY];
+    mask = INITIAL_CAPACITY - 1;
+  }
+
+  /**
+   * Returns the value associated with the given key.
+   *
+   * @param key The key
+   * @return The value, or {@code null} if there is no mapping for the key
+   */
+  @SuppressWarnings("unchecked")
+  V get(long key) {
+    int i = indexOf(key);
+    return (i < 0) ? null : (V) values[i];
+  }
+
+  /**
+   * Associates the given value with the given key.
+   *
+   * @param key The key
+   * @param value The value, must not be {@code null}
+   * @return The previous value, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  V put(long key, V value) {
+    if (value == null) throw new IllegalArgumentException("The value cannot be 'null'");
+    int i = slot(key);
+    while (values[i] != null) {
+      if (keys[i] == key) {
+        V old = (V) values[i];
+        values[i] = value;
+        return old;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    values[i] = value;
+    size++;
+    if (size * 2 > values.length) {
+      resize(values.length * 2);
+    }
+    return null;
+  }
+
+  /**
+   * Removes the mapping for the given key.
+   *
+   * @param key The key
+   * @return The removed value, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  V remove(long key) {
+    int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+    V old = (V) values[i];
+    // backward-shift the entries of the same probe sequence to fill the hole
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (values[j] == null) {
+        break;
+      }
+      int k = slot(keys[j]);
+      boolean movable = (i <= j) ? (k <= i || k > j) : (k <= i && k > j);
+      if (movable) {
+        keys[i] = keys[j];
+        values[i] = values[j];
+        i = j;
+      }
+    }
+    values[i] = null;
+    size--;
+    return old;
+  }
+
+  /**
+   * Tells how many mappings are stored.
+   *
+   * @return The number of mappings
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the index of the given key, or {@code -1} if it is not mapped.
+   *
+   * @param key The key
+   * @return The index
+   */
+  private int indexOf(long key) {
+    int i = slot(key);
+    while (values[i] != null) {
+      if (keys[i] == key) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the home slot of the given key.
+   *
+   * @param key The key
+   * @return The slot
+   */
+  private int slot(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  /**
+   * Rehashes every mapping into new tables of the given capacity.
+   *
+   * @param capacity The new capacity, a power of two
+   */
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    keys = new long[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    for (int i = 0; i < oldValues.length; i++) {
+      if (oldValues[i] != null) {
+        int j = slot(oldKeys[i]);
+        while (values[j] != null) {
+          j = (j + 1) & mask;
+        }
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+      }
+    }
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.controls.ChunkUtils;
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Default {@link StarStreamStore} implementation, that keeps the chunks of each
+ * *-Stream session in a {@link Map} and in a {@link SortedSet} ordered by
+ * sequence number.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class MapStarStreamStore extends StarStreamStore {
+
+  /**
+   * Internal representation of the store, one entry per *-Stream session.
+   */
+  private Map<UUID, Session> sessions;
+  private int maxSize;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToCapacityLimit() {
+    Set<Integer> rejected = new HashSet<Integer>();
+    for (Session session : sessions.values()) {
+      rejected.addAll(session.rejectedChunksDueToCapacityLimit);
+    }
+    return Collections.unmodifiableSet(rejected);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToCapacityLimit(UUID sessionId) {
+    Session session = sessions.get(sessionId);
+    return session == null ? Collections.<Integer>emptySet() : Collections.unmodifiableSet(session.rejectedChunksDueToCapacityLimit);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToExpiration() {
+    Set<Integer> rejected = new HashSet<Integer>();
+    for (Session session : sessions.values()) {
+      rejected.addAll(session.rejectedChunksDueToExpiration);
+    }
+    return Collections.unmodifiableSet(rejected);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToExpiration(UUID sessionId) {
+    Session session = sessions.get(sessionId);
+    return session == null ? Collections.<Integer>emptySet() : Collections.unmodifiableSet(session.rejectedChunksDueToExpiration);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<UUID, Session> entry : sessions.entrySet()) {
+      UUID sid = entry.getKey();
+      Session session = entry.getValue();
+      session.purge(sid);
+      sb.append("SessionId: " + sid + "\n");
+      sb.append("Size: " + session.chunks.size() + "\n");
+      int i = 0;
+      for (Map.Entry<PastryId, Chunk<?>> chunk : session.chunks.entrySet()) {
+        sb.append((i++) + ") " + chunk.getValue() + "\n");
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize The maximum number of chunks that can be stored
+   */
+  MapStarStreamStore(int maxSize) {
+    sessions = new LinkedHashMap<UUID, Session>();
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  boolean addChunk(Chunk<?> chunk) {
+    boolean added = false;
+    Session session = sessions.get(chunk.getSessionId());
+    if(session!=null) {
+      if(!session.chunks.containsKey(chunk.getResourceId())) {
+        // the chunk has to be stored iff it has not expired yet
+        if(!chunk.isExpired()) {
+          // the chunk is valid and can be added as long as the max-size is not
+          // exceeded
+          if(size()<maxSize) {
+            added = true;
+          } else {
+            // size limit!
+            session.rejectedChunksDueToCapacityLimit.add(chunk.getSequenceId());
+          }
+        } else {
+          // the chunk has already expired
+          if(!session.storeHistory.contains(chunk.getSequenceId()))
+            session.rejectedChunksDueToExpiration.add(chunk.getSequenceId());
+        }
+      } else {
+        // the chunk is already in
+        // NOP
+      }
+    } else {
+      // the first time we see that session id: the chunk can be immediately stored
+      session = new Session();
+      sessions.put(chunk.getSessionId(), session);
+      added = true;
+    }
+    if(added) {
+      session.chunks.put(chunk.getResourceId(), chunk);
+      session.orderedStore.add(chunk);
+      session.sequenceIds.add(chunk.getSequenceId());
+      session.storeHistory.add(chunk.getSequenceId());
+    }
+    return added;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  Chunk<?> getChunk(UUID sessionId, PastryId chunkId) {
+    Chunk<?> chunk = null;
+    Session session = sessions.get(sessionId);
+    if (session != null) {
+      chunk = session.chunks.get(chunkId);
+      // remove and return null if expired
+      if (chunk != null && chunk.isExpired()) {
+        // remove from map...
+        session.chunks.remove(chunkId);
+        // remove from set...
+        session.orderedStore.remove(chunk);
+        session.sequenceIds.remove(chunk.getSequenceId());
+        // nullify return value
+        chunk = null;
+      }
+    }
+    return chunk;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  int countContiguousChunksFromStart(UUID sessionId) {
+    int count = 1;
+    Session session = sessions.get(sessionId);
+    if(session!=null) {
+      session.purge(sessionId);
+      if(!session.sequenceIds.isEmpty()) {
+        count = session.sequenceIds.getContiguousLength();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  List<Integer> getMissingSequenceIds(UUID sessionId) {
+    List<Integer> ids = new ArrayList<Integer>();
+    Session session = sessions.get(sessionId);
+    if(session!=null) {
+      session.purge(sessionId);
+      session.sequenceIds.addMissingTo(ids);
+    }
+    return ids;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  int getLowestSequenceId(UUID sessionId) {
+    int lowest = -1;
+    Session session = sessions.get(sessionId);
+    if(session!=null) {
+      session.purge(sessionId);
+      if(!session.sequenceIds.isEmpty()) {
+        lowest = session.sequenceIds.getLowest();
+      }
+    }
+    return lowest;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  BitSet getSequenceIds(UUID sessionId, int from, int to) {
+    BitSet ids;
+    Session session = sessions.get(sessionId);
+    if(session!=null) {
+      ids = session.sequenceIds.get(from, to);
+    } else {
+      ids = new BitSet();
+    }
+    return ids;
+  }
+
+  /**
+   * Tells how many chunks are stored, whatever their session.
+   *
+   * @return The number of stored chunks
+   */
+  private int size() {
+    int size = 0;
+    for (Map.Entry<UUID, Session> entry : sessions.entrySet()) {
+      Session session = entry.getValue();
+      session.purge(entry.getKey());
+      size += session.chunks.size();
+    }
+    return size;
+  }
+
+  /**
+   * The chunks of a single *-Stream session.
+   */
+  private static class Session {
+
+    private final Map<PastryId, Chunk<?>> chunks = new HashMap<PastryId, Chunk<?>>();
+    private final SortedSet<Chunk<?>> orderedStore = new TreeSet<Chunk<?>>();
+    /**
+     * Stored sequence ids, with incrementally maintained contiguous run and gaps.
+     */
+    private final SequenceIdTracker sequenceIds = new SequenceIdTracker();
+    private final Set<Integer> storeHistory = new HashSet<Integer>();
+    private final Set<Integer> rejectedChunksDueToExpiration = new HashSet<Integer>();
+    private final Set<Integer> rejectedChunksDueToCapacityLimit = new HashSet<Integer>();
+
+    /**
+     * Removes the expired chunks. Since chunks expire in sequence id order, only
+     * the expired prefix, below the session low-water mark, is visited.
+     *
+     * @param sessionId The session id
+     */
+    private void purge(UUID sessionId) {
+      if (sequenceIds.isEmpty()) {
+        return;
+      }
+      int lowestLive = ChunkUtils.getLowestLiveSeqNumber(sessionId);
+      while (!sequenceIds.isEmpty() && sequenceIds.getLowest() < lowestLive) {
+        Chunk<?> chunk = orderedStore.first();
+        // remove from set...
+        orderedStore.remove(chunk);
+        // remove from map...
+        chunks.remove(chunk.getResourceId());
+        sequenceIds.remove(chunk.getSequenceId());
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage.Type;
+import java.util.ArrayDeque;
+
+/**
+ * {@link DelayedMessageQueue} keeping messages in one FIFO bucket per
+ * {@link Type#getPriority()} value, and draining them in ascending priority order
+ * first and in arrival order then. Unlike a sorted set, distinct messages of the
+ * same type and with the same timestamp are all retained.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class PriorityDelayedMessageQueue extends DelayedMessageQueue {
+
+  /**
+   * One bucket per message priority.
+   */
+  private final ArrayDeque<StarStreamMessage>[] buckets;
+  /**
+   * How many messages of each bucket still belong to the current round.
+   */
+  private final int[] inRound;
+  /**
+   * The bucket the current round is draining.
+   */
+  private int cursor;
+  /**
+   * Total number of queued messages.
+   */
+  private int size;
+
+  /**
+   * Constructor.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  PriorityDelayedMessageQueue() {
+    int maxPriority = 0;
+    for (Type type : Type.values()) {
+      maxPriority = Math.max(maxPriority, type.getPriority());
+    }
+    buckets = (ArrayDeque<StarStreamMessage>[]) new ArrayDeque[maxPriority + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new ArrayDeque<StarStreamMessage>();
+    }
+    inRound = new int[buckets.length];
+    cursor = buckets.length;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void add(StarStreamMessage msg) {
+    buckets[msg.getType().getPriority()].addLast(msg);
+    size++;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  int size() {
+    return size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void beginDrain() {
+    for (int i = 0; i < buckets.length; i++) {
+      inRound[i] = buckets[i].size();
+    }
+    cursor = 0;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  StarStreamMessage poll() {
+    while (cursor < buckets.length && inRound[cursor] == 0) {
+      cursor++;
+    }
+    StarStreamMessage msg = null;
+    if (cursor < buckets.length) {
+      inRound[cursor]--;
+      size--;
+      msg = buckets[cursor].pollFirst();
+    }
+    return msg;
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import peersim.core.CommonState;
+import peersim.util.ExtendedRandom;
+
+/**
+ * Factory of independent random streams, each one derived from the PeerSim seed
+ * ({@value peersim.core.CommonState#PAR_SEED}) and from a stream identifier only.
+ * Each {@link StarStreamNode} and each control class draws from its own stream
+ * rather than from {@link CommonState#r}, so that what a node draws does not depend
+ * on how many numbers other nodes have drawn before, nor on the order nodes are
+ * visited in.<br>
+ * Stream identifiers are node identifiers for nodes, and negative numbers derived
+ * from the configuration prefix for control classes.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public final class RandomStreams {
+
+  /**
+   * Utility class.
+   */
+  private RandomStreams() {
+  }
+
+  /**
+   * Returns a new stream for the given node.
+   *
+   * @param nodeId The node identifier
+   * @return The stream
+   */
+  public static ExtendedRandom forNode(long nodeId) {
+    return new ExtendedRandom(seedFor(nodeId));
+  }
+
+  /**
+   * Returns a new stream for the control class configured with the given prefix.
+   *
+   * @param prefix The PeerSim configuration prefix
+   * @return The stream
+   */
+  public static ExtendedRandom forControl(String prefix) {
+    return new ExtendedRandom(seedFor(-1 - (prefix.hashCode() & 0xFFFFFFFFL)));
+  }
+
+  /**
+   * Derives the seed of a stream from the PeerSim seed and the stream identifier.
+   *
+   * @param stream The stream identifier
+   * @return The seed
+   */
+  static long seedFor(long stream) {
+    return mix(CommonState.r.getLastSeed() + mix(stream + 0x9E3779B97F4A7C15L));
+  }
+
+  /**
+   * The SplitMix64 finalizer: scatters close inputs over the whole {@code long} range.
+   *
+   * @param z The input
+   * @return The mixed value
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
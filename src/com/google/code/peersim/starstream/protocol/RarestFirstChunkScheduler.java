@@ -0,0 +1,54 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * {@link ChunkScheduler} that requests first the missing chunks known to be held
+ * by the fewest neighbors, so that rare chunks get replicated before the
+ * neighbors holding them drop them. Chunks with the same number of holders are
+ * requested in ascending sequence id order.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class RarestFirstChunkScheduler extends ChunkScheduler {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  List<Integer> schedule(StarStreamNode node, UUID sessionId, Collection<Integer> seqIds) {
+    List<Integer> res = new ArrayList<Integer>(seqIds);
+    sortByRarity(node, sessionId, res);
+    return res;
+  }
+
+  /**
+   * Sorts the given sequence ids by increasing number of known holders. The sort
+   * is stable.
+   *
+   * @param node The node the chunks are missing at
+   * @param sessionId The *-Stream session id of the chunks
+   * @param seqIds The sequence ids
+   */
+  static void sortByRarity(StarStreamNode node, final UUID sessionId, List<Integer> seqIds) {
+    final ChunkAvailability availability = node.getChunkAvailability();
+    Collections.sort(seqIds, new Comparator<Integer>() {
+
+      @Override
+      public int compare(Integer a, Integer b) {
+        return availability.countHolders(sessionId, a) - availability.countHolders(sessionId, b);
+      }
+    });
+  }
+}
@@ -0,0 +1,353 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.controls.ChunkUtils;
+import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * {@link StarStreamStore} implementation that keeps the chunks of each *-Stream
+ * session in a fixed-capacity ring buffer, indexed by {@code sequenceId % maxSize}.
+ * Store history and rejections are tracked, per session, by means of {@link BitSet}s
+ * indexed by sequence id.<br>
+ * Since chunks are produced with increasing timestamps and the very same TTL,
+ * they expire in sequence id order: expired chunks are thus evicted starting
+ * from the lowest sequence id of each ring, without scanning the whole store.<br>
+ * A chunk whose slot is already taken by another chunk that has not expired yet
+ * is rejected due to capacity limit.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class RingStarStreamStore extends StarStreamStore {
+
+  /**
+   * One ring per *-Stream session.
+   */
+  private final Map<UUID, Ring> rings;
+  private final int maxSize;
+
+  /**
+   * Constructor.
+   *
+   * @param maxSize The maximum number of chunks that can be stored
+   */
+  RingStarStreamStore(int maxSize) {
+    rings = new LinkedHashMap<UUID, Ring>();
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToCapacityLimit() {
+    BitSet rejected = new BitSet();
+    for (Ring ring : rings.values()) {
+      rejected.or(ring.rejectedChunksDueToCapacityLimit);
+    }
+    return toSet(rejected);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToCapacityLimit(UUID sessionId) {
+    Ring ring = rings.get(sessionId);
+    return toSet(ring == null ? new BitSet() : ring.rejectedChunksDueToCapacityLimit);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToExpiration() {
+    BitSet rejected = new BitSet();
+    for (Ring ring : rings.values()) {
+      rejected.or(ring.rejectedChunksDueToExpiration);
+    }
+    return toSet(rejected);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Set<Integer> getRejectedChunksDueToExpiration(UUID sessionId) {
+    Ring ring = rings.get(sessionId);
+    return toSet(ring == null ? new BitSet() : ring.rejectedChunksDueToExpiration);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<UUID, Ring> entry : rings.entrySet()) {
+      Ring ring = entry.getValue();
+      ring.purge(entry.getKey());
+      sb.append("SessionId: " + entry.getKey() + "\n");
+      sb.append("Size: " + ring.ids.size() + "\n");
+      int i = 0;
+      for (int seqId = ring.ids.getLowest(); !ring.ids.isEmpty() && seqId <= ring.ids.getHighest(); seqId++) {
+        Chunk<?> chunk = ring.get(seqId);
+        if (chunk != null) {
+          sb.append((i++) + ") " + chunk + "\n");
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  boolean addChunk(Chunk<?> chunk) {
+    boolean added = false;
+    int seqId = chunk.getSequenceId();
+    Ring ring = rings.get(chunk.getSessionId());
+    if (ring != null) {
+      if (ring.get(seqId) == null) {
+        // the chunk has to be stored iff it has not expired yet
+        if (!chunk.isExpired()) {
+          // the chunk is valid and can be added as long as both its slot is
+          // free and the max-size is not exceeded
+          if (ring.isSlotAvailable(seqId) && size() < maxSize) {
+            added = true;
+          } else {
+            // size limit!
+            ring.rejectedChunksDueToCapacityLimit.set(seqId);
+          }
+        } else {
+          // the chunk has already expired
+          if (!ring.storeHistory.get(seqId)) {
+            ring.rejectedChunksDueToExpiration.set(seqId);
+          }
+        }
+      } else {
+        // the chunk is already in
+        // NOP
+      }
+    } else {
+      // the first time we see that session id: the chunk can be immediately stored
+      ring = new Ring(maxSize);
+      rings.put(chunk.getSessionId(), ring);
+      added = true;
+    }
+    if (added) {
+      ring.put(chunk);
+      ring.storeHistory.set(seqId);
+    }
+    return added;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  Chunk<?> getChunk(UUID sessionId, PastryId chunkId) {
+    Chunk<?> chunk = null;
+    Ring ring = rings.get(sessionId);
+    if (ring != null) {
+      int seqId = ChunkUtils.getSequenceIdForChunkId(sessionId, chunkId);
+      if (seqId >= 0) {
+        chunk = ring.get(seqId);
+        // return null if expired, the chunk will be evicted by the next purge
+        if (chunk != null && chunk.isExpired()) {
+          chunk = null;
+        }
+      }
+    }
+    return chunk;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  int countContiguousChunksFromStart(UUID sessionId) {
+    int count = 1;
+    Ring ring = rings.get(sessionId);
+    if (ring != null) {
+      ring.purge(sessionId);
+      if (!ring.ids.isEmpty()) {
+        count = ring.ids.getContiguousLength();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  List<Integer> getMissingSequenceIds(UUID sessionId) {
+    List<Integer> ids = new ArrayList<Integer>();
+    Ring ring = rings.get(sessionId);
+    if (ring != null) {
+      ring.purge(sessionId);
+      ring.ids.addMissingTo(ids);
+    }
+    return ids;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  int getLowestSequenceId(UUID sessionId) {
+    int lowest = -1;
+    Ring ring = rings.get(sessionId);
+    if (ring != null) {
+      ring.purge(sessionId);
+      if (!ring.ids.isEmpty()) {
+        lowest = ring.ids.getLowest();
+      }
+    }
+    return lowest;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  BitSet getSequenceIds(UUID sessionId, int from, int to) {
+    BitSet ids;
+    Ring ring = rings.get(sessionId);
+    if (ring != null) {
+      ids = ring.ids.get(from, to);
+    } else {
+      ids = new BitSet();
+    }
+    return ids;
+  }
+
+  /**
+   * Tells how many chunks are stored, whatever their session, evicting the
+   * expired ones first.
+   *
+   * @return The number of stored chunks
+   */
+  private int size() {
+    int size = 0;
+    for (Map.Entry<UUID, Ring> entry : rings.entrySet()) {
+      Ring ring = entry.getValue();
+      ring.purge(entry.getKey());
+      size += ring.ids.size();
+    }
+    return size;
+  }
+
+  /**
+   * Converts the given {@link BitSet} into a read-only set of sequence ids.
+   *
+   * @param bits The bits
+   * @return The set of sequence ids
+   */
+  private static Set<Integer> toSet(BitSet bits) {
+    Set<Integer> ids = new TreeSet<Integer>();
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+      ids.add(i);
+    }
+    return Collections.unmodifiableSet(ids);
+  }
+
+  /**
+   * Fixed-capacity ring buffer holding the chunks of a single *-Stream session.
+   */
+  private static class Ring {
+
+    private final Chunk<?>[] slots;
+    /**
+     * The sequence ids currently in the ring.
+     */
+    private final SequenceIdTracker ids;
+    private final BitSet storeHistory;
+    private final BitSet rejectedChunksDueToExpiration;
+    private final BitSet rejectedChunksDueToCapacityLimit;
+
+    private Ring(int capacity) {
+      slots = new Chunk<?>[capacity];
+      ids = new SequenceIdTracker();
+      storeHistory = new BitSet();
+      rejectedChunksDueToExpiration = new BitSet();
+      rejectedChunksDueToCapacityLimit = new BitSet();
+    }
+
+    /**
+     * Returns the chunk with the given sequence id, if it is in the ring.
+     *
+     * @param seqId The sequence id
+     * @return The chunk or {@code null}
+     */
+    private Chunk<?> get(int seqId) {
+      Chunk<?> chunk = slots[seqId % slots.length];
+      if (chunk != null && chunk.getSequenceId() != seqId) {
+        chunk = null;
+      }
+      return chunk;
+    }
+
+    /**
+     * Tells whether the slot the given sequence id maps to is free, evicting
+     * its current occupant if it has already expired.
+     *
+     * @param seqId The sequence id
+     * @return Whether the slot is available or not
+     */
+    private boolean isSlotAvailable(int seqId) {
+      int slot = seqId % slots.length;
+      Chunk<?> occupant = slots[slot];
+      if (occupant != null && occupant.isExpired()) {
+        slots[slot] = null;
+        ids.remove(occupant.getSequenceId());
+        occupant = null;
+      }
+      return occupant == null;
+    }
+
+    /**
+     * Stores the given chunk into its slot, that must be available.
+     *
+     * @param chunk The chunk
+     */
+    private void put(Chunk<?> chunk) {
+      slots[chunk.getSequenceId() % slots.length] = chunk;
+      ids.add(chunk.getSequenceId());
+    }
+
+    /**
+     * Evicts expired chunks in expiration order, that is starting from the
+     * lowest sequence id, and stops at the session low-water mark.
+     *
+     * @param sessionId The session id
+     */
+    private void purge(UUID sessionId) {
+      if (ids.isEmpty()) {
+        return;
+      }
+      int lowestLive = ChunkUtils.getLowestLiveSeqNumber(sessionId);
+      while (!ids.isEmpty() && ids.getLowest() < lowestLive) {
+        int seqId = ids.getLowest();
+        ids.remove(seqId);
+        slots[seqId % slots.length] = null;
+      }
+    }
+  }
+}
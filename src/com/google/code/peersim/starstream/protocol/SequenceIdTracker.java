@@ -0,0 +1,184 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Keeps track of the sequence ids stored for a single *-Stream session, and
+ * incrementally maintains both the length of the contiguous run of sequence ids
+ * starting from the lowest one and the gaps between the lowest and the highest
+ * stored sequence ids.<br>
+ * This way {@link StarStreamStore} implementations can answer
+ * {@link StarStreamStore#countContiguousChunksFromStart(java.util.UUID)} in constant
+ * time and {@link StarStreamStore#getMissingSequenceIds(java.util.UUID)} in time
+ * proportional to the number of gaps, without materializing the store.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class SequenceIdTracker {
+
+  /**
+   * The tracked sequence ids.
+   */
+  private final BitSet present = new BitSet();
+  /**
+   * How many sequence ids are tracked.
+   */
+  private int count;
+  /**
+   * The lowest tracked sequence id, meaningful iff {@code count > 0}.
+   */
+  private int lowest;
+  /**
+   * The highest tracked sequence id, meaningful iff {@code count > 0}.
+   */
+  private int highest;
+  /**
+   * Length of the contiguous run of sequence ids starting from {@link SequenceIdTracker#lowest}.
+   */
+  private int run;
+
+  /**
+   * Starts tracking the given sequence id.
+   *
+   * @param seqId The sequence id
+   */
+  void add(int seqId) {
+    if (present.get(seqId)) {
+      return;
+    }
+    present.set(seqId);
+    count++;
+    if (count == 1) {
+      lowest = seqId;
+      highest = seqId;
+      run = 1;
+    } else {
+      if (seqId < lowest) {
+        // the new id becomes the beginning of the run
+        run = (seqId + 1 == lowest) ? run + 1 : 1;
+        lowest = seqId;
+      } else if (seqId == lowest + run) {
+        // the run grows and might join the ids that follow
+        run = present.nextClearBit(seqId) - lowest;
+      }
+      highest = Math.max(highest, seqId);
+    }
+  }
+
+  /**
+   * Stops tracking the given sequence id.
+   *
+   * @param seqId The sequence id
+   */
+  void remove(int seqId) {
+    if (!present.get(seqId)) {
+      return;
+    }
+    present.clear(seqId);
+    count--;
+    if (count == 0) {
+      run = 0;
+    } else {
+      if (seqId == lowest) {
+        // the typical case: the oldest chunk expired
+        lowest = present.nextSetBit(seqId + 1);
+        run = (run > 1) ? run - 1 : present.nextClearBit(lowest) - lowest;
+      } else if (seqId < lowest + run) {
+        // the run has been broken
+        run = seqId - lowest;
+      }
+      if (seqId == highest) {
+        highest = present.length() - 1;
+      }
+    }
+  }
+
+  /**
+   * Tells how many sequence ids are tracked.
+   *
+   * @return The number of tracked sequence ids
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * Tells whether no sequence id is tracked.
+   *
+   * @return Whether no sequence id is tracked
+   */
+  boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * Returns the lowest tracked sequence id.
+   *
+   * @return The lowest sequence id, meaningful iff this tracker is not empty
+   */
+  int getLowest() {
+    return lowest;
+  }
+
+  /**
+   * Returns the highest tracked sequence id.
+   *
+   * @return The highest sequence id, meaningful iff this tracker is not empty
+   */
+  int getHighest() {
+    return highest;
+  }
+
+  /**
+   * Returns the length of the contiguous run of sequence ids starting from the
+   * lowest one.
+   *
+   * @return The length of the run, {@code 0} if this tracker is empty
+   */
+  int getContiguousLength() {
+    return run;
+  }
+
+  /**
+   * Returns the tracked sequence ids in [{@code from}..{@code to}), as a set of
+   * bits where bit {@code i} stands for sequence id {@code from+i}.
+   *
+   * @param from The first sequence id, inclusive
+   * @param to The last sequence id, exclusive
+   * @return The bits
+   */
+  BitSet get(int from, int to) {
+    return present.get(from, to);
+  }
+
+  /**
+   * Tells how many sequence ids are missing between the lowest and the highest
+   * tracked ones.
+   *
+   * @return The number of gaps
+   */
+  int countMissing() {
+    return (count == 0) ? 0 : highest - lowest + 1 - count;
+  }
+
+  /**
+   * Appends the sequence ids missing between the lowest and the highest tracked
+   * ones to the given list, in ascending order.
+   *
+   * @param ids The list to append to
+   */
+  void addMissingTo(List<Integer> ids) {
+    if (count > 0) {
+      for (int i = present.nextClearBit(lowest + run); i < highest; i = present.nextClearBit(i + 1)) {
+        ids.add(i);
+      }
+    }
+  }
+}
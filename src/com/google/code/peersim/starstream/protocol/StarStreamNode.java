@@ -9,19 +9,26 @@ import com.google.code.peersim.pastry.protocol.PastryNode;
 import com.google.code.peersim.pastry.protocol.PastryProtocol;
 import com.google.code.peersim.starstream.controls.ChunkUtils;
 import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import com.google.code.peersim.starstream.controls.LatencyHistogram;
+import com.google.code.peersim.starstream.controls.StarStreamMetrics;
 import com.google.code.peersim.starstream.controls.StarStreamSource;
+import com.google.code.peersim.starstream.protocol.EventLog.Event;
 import java.io.FileNotFoundException;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
 import peersim.config.Configuration;
 import peersim.config.FastConfig;
+import peersim.config.IllegalParameterException;
 import peersim.core.CommonState;
 import peersim.transport.Transport;
+import peersim.util.ExtendedRandom;
 import peersim.util.IncrementalStats;
 
 /**
@@ -40,6 +47,17 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
    * Configuration parameter key that ties a *-Stream node to its *-Stream protocol.
    */
   public static final String STAR_STREAM = "starstream";
+  /**
+   * Configurable {@link ChunkScheduler} implementation, either {@link ChunkScheduler#ASCENDING}
+   * (default), {@link ChunkScheduler#DEADLINE_FIRST}, {@link ChunkScheduler#RAREST_FIRST}
+   * or {@link ChunkScheduler#HYBRID}.
+   */
+  public static final String CHUNK_SCHEDULER = "chunkScheduler";
+  /**
+   * Configurable horizon, in simulated-time units, within which the {@link ChunkScheduler#HYBRID}
+   * scheduler considers a chunk urgent (defaults to {@code advance}).
+   */
+  public static final String CHUNK_SCHEDULER_HORIZON = "chunkSchedulerHorizon";
   /**
    * The protocol identifier assigned to the *-Stream protocol by the PeerSim runtime.
    */
@@ -52,20 +70,21 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
 //  private long START_STREAMING_TIME;
   private int START_STREAMING_TIMEOUT;
   private int WAIT_BETWEEN_FORCES;
-  private long lastForce;
   private boolean aggressive;
 //  private long whenPlaybackStarted;
   private IncrementalStats perceivedChunkDeliveryTimes;
   private int advance;
   private int chunkPlaybackLength;
-  // useful to know which chunks were requested for but not discovered, at the end of the simulation
-  private Set<Integer> issuedChunkRequests;
-  private SortedSet<Integer> deliveredChunks;
-  private List<Integer> chunkRequestsForSeqIdsWithoutPastryIdYet;
-//  private int lastPlayedChunkSeqId;
-  private StarStreamPlayer player;
-  private int totalChunks;
-  private Long streamingStartTime;
+  /**
+   * What this node keeps about each *-Stream session, in the order sessions
+   * have been heard of.
+   */
+  private Map<UUID, Session> sessions;
+  private ChunkScheduler chunkScheduler;
+  /**
+   * This node's own random stream, see {@link RandomStreams}.
+   */
+  private ExtendedRandom random;
 
   /**
    * Default PeerSim-required constructor.
@@ -87,7 +106,11 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     aggressive = Configuration.getBoolean(prefix + SEPARATOR + "aggressive");
     advance = Configuration.getInt(prefix + SEPARATOR + "advance");
     chunkPlaybackLength = Configuration.getInt(prefix + SEPARATOR + "chunkPlaybackLength");
-    totalChunks = Configuration.getInt(prefix + SEPARATOR + "totalChunks");
+    String scheduler = Configuration.getString(prefix + SEPARATOR + CHUNK_SCHEDULER, ChunkScheduler.ASCENDING);
+    chunkScheduler = ChunkScheduler.newInstance(scheduler, Configuration.getInt(prefix + SEPARATOR + CHUNK_SCHEDULER_HORIZON, advance));
+    if (chunkScheduler == null) {
+      throw new IllegalParameterException(prefix + SEPARATOR + CHUNK_SCHEDULER, "Unknown chunk scheduler '" + scheduler + "'");
+    }
     init();
   }
 
@@ -101,8 +124,8 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     return clone;
   }
 
-  public int countMissingChunks() {
-    return issuedChunkRequests.size();
+  public int countMissingChunks(UUID sessionId) {
+    return getSession(sessionId).issuedChunkRequests.size();
   }
 
   /**
@@ -121,14 +144,24 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     return getStarStreamProtocol().getChunksReceivedFromStarStream();
   }
 
-  public List<Integer> getUnplayedChunks() {
-    return  player.getMissedChunks();
+  public List<Integer> getUnplayedChunks(UUID sessionId) {
+    return getSession(sessionId).player.getMissedChunks();
   }
 
   public double getPerceivedAvgChunkDeliveryTime() {
     return perceivedChunkDeliveryTimes.getAverage();
   }
 
+  /**
+   * Returns the perceived delivery times of the chunks delivered by the given path.
+   *
+   * @param path The delivery path
+   * @return The delivery times, {@code null} if no chunk has been delivered by that path
+   */
+  public LatencyHistogram getDeliveryTimes(DeliveryPath path) {
+    return getStarStreamProtocol().getDeliveryTimes(path);
+  }
+
   public double getPerceivedMaxChunkDeliveryTime() {
     double max;
     if (perceivedChunkDeliveryTimes.getN() == 0) {
@@ -139,16 +172,22 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     return max;
   }
 
-  public double getPercentageOfUnplayedChunks() {
-    return 100 * getUnplayedChunks().size() / totalChunks;
+  public double getPercentageOfUnplayedChunks(UUID sessionId) {
+    return 100 * getUnplayedChunks(sessionId).size() / StarStreamSource.getTotalChunks(sessionId);
   }
 
-  public List<Integer> getPlayedChunks() {
-    return player.getPlayedChunks();
+  public List<Integer> getPlayedChunks(UUID sessionId) {
+    return getSession(sessionId).player.getPlayedChunks();
   }
 
-  public StarStreamPlayer getPlayer() {
-    return player;
+  /**
+   * Returns the player of the given *-Stream session.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The player
+   */
+  public StarStreamPlayer getPlayer(UUID sessionId) {
+    return getSession(sessionId).player;
   }
 
   public long getSentMessages() {
@@ -177,12 +216,12 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     return getStarStreamProtocol().getUnsentChunkMsgsDueToTimeout();
   }
 
-  public long getWhenPlaybackStarted() {
-    return player.getWhenPlaybackStarted();
+  public long getWhenPlaybackStarted(UUID sessionId) {
+    return getSession(sessionId).player.getWhenPlaybackStarted();
   }
 
-  public boolean hasStartedPlayback() {
-    return player.isStarted();
+  public boolean hasStartedPlayback(UUID sessionId) {
+    return getSession(sessionId).player.isStarted();
   }
 
   /**
@@ -190,12 +229,13 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
    */
   @Override
   public void notifyNewChunk(Chunk<?> chunk) {
-    log("[*-STREAM] node " + this.getPastryId() + " has stored resource " + chunk);
+    log(Event.CHUNK_STORED, chunk.getSequenceId());
     updateLocalStats(chunk);
-    removeFromIssuedChunkRequests(chunk.getSequenceId());
-    addToDeliveredChunks(chunk.getSequenceId());
-    if (!player.isStarted()) {
-      checkIfPlaybackIsAllowed();
+    Session session = getSession(chunk.getSessionId());
+    session.issuedChunkRequests.remove(chunk.getSequenceId());
+    session.deliveredChunks.add(chunk.getSequenceId());
+    if (!session.player.isStarted()) {
+      checkIfPlaybackIsAllowed(session);
     }
   }
 
@@ -208,6 +248,16 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     }
   }
 
+  /**
+   * Tells the node to send the chunk advertisements it has been collecting since
+   * the previous simulated-time tick, if advertisements are batched.
+   */
+  public void flushAdvertisements() {
+    if (isJoined()) {
+      getStarStreamProtocol().flushAdvertisements();
+    }
+  }
+
   /**
    * Tells the associated {@link StarStreamProtocol} instance that there has been
    * a new simulated-time tick and that both the outbound and inbound bandwiths
@@ -217,16 +267,63 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     getStarStreamProtocol().resetUsedBandwidth();
   }
 
-  public void streamingStartsAt(long start) {
-    streamingStartTime = start;
+  /**
+   * Tells the node that the given *-Stream session starts streaming at the given
+   * simulated-time: from then on the node takes part to that session.
+   *
+   * @param sessionId The *-Stream session id
+   * @param start The simulated-time streaming starts at
+   */
+  public void streamingStartsAt(UUID sessionId, long start) {
+    getSession(sessionId).streamingStartTime = start;
   }
 
   public void tick() {
-    if (isJoined() && streamingStartTime!=null) {
+    prepareTick();
+    tickNetwork();
+    tickPlayer();
+  }
+
+  /**
+   * First step of {@link StarStreamNode#tick()}: collects the messages whose timeout
+   * has expired. It touches nothing but this node, thus it can be invoked concurrently
+   * on different nodes.
+   */
+  public void prepareTick() {
+    if (isTicking()) {
+      getStarStreamProtocol().collectTimeouts();
+    }
+  }
+
+  /**
+   * Second step of {@link StarStreamNode#tick()}: handles expired messages and
+   * issues chunk requests. Since it sends messages it must be invoked on one node
+   * at a time, in the same order the nodes are ticked in.
+   */
+  public void tickNetwork() {
+    if (isTicking()) {
       checkForStarStreamTimeouts();
-      checkForStartStreamingTimeout();
-      proactiveSearch();
-      player.tick();
+      for (Session session : sessions.values()) {
+        if (session.streamingStartTime != null) {
+          checkForStartStreamingTimeout(session);
+          proactiveSearch(session);
+        }
+      }
+    }
+  }
+
+  /**
+   * Last step of {@link StarStreamNode#tick()}: lets the player play the chunk due
+   * at the current simulated-time, if any. It touches nothing but this node, thus
+   * it can be invoked concurrently on different nodes.
+   */
+  public void tickPlayer() {
+    if (isTicking()) {
+      for (Session session : sessions.values()) {
+        if (session.streamingStartTime != null) {
+          session.player.tick();
+        }
+      }
     }
   }
 
@@ -248,6 +345,48 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     return (Transport) getProtocol(FastConfig.getTransport(STAR_STREAM_PID));
   }
 
+  /**
+   * Returns what this node knows about the chunks its neighbors hold.
+   *
+   * @return The chunk availability record
+   */
+  ChunkAvailability getChunkAvailability() {
+    return getStarStreamProtocol().getChunkAvailability();
+  }
+
+  /**
+   * Returns this node's own random stream: it must be used in place of
+   * {@link CommonState#r} for anything the node draws.
+   *
+   * @return The random stream
+   */
+  ExtendedRandom getRandom() {
+    return random;
+  }
+
+  /**
+   * Logs a *-Stream event to the log shared with the {@link StarStreamProtocol},
+   * if logging is enabled.
+   *
+   * @param event The event
+   * @param value The event value, or {@link EventLog#NO_VALUE}
+   */
+  private void log(Event event, long value) {
+    EventLog eventLog = getStarStreamProtocol().getEventLog();
+    if (eventLog != null) {
+      eventLog.log(getID(), event, value);
+    }
+  }
+
+  /**
+   * Returns the {@link ChunkScheduler} this node decides which chunks to request with.
+   *
+   * @return The chunk scheduler
+   */
+  ChunkScheduler getChunkScheduler() {
+    return chunkScheduler;
+  }
+
   /**
    * Returns a reference to this node's assigned {@link StarStreamProtocol} instance.
    * @return The {@link StarStreamProtocol} instance
@@ -264,36 +403,72 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     getStarStreamProtocol().checkForTimeouts();
   }
 
-  private void checkForStartStreamingTimeout() {
-    if (!player.isStarted() && CommonState.getTime()>=(streamingStartTime+START_STREAMING_TIMEOUT)) {
-      if (CommonState.getTime()>lastForce+WAIT_BETWEEN_FORCES) {
+  /**
+   * Tells whether the node takes part to the streaming, that is whether it must
+   * be ticked.
+   *
+   * @return Whether the node must be ticked or not
+   */
+  private boolean isTicking() {
+    if (isJoined()) {
+      for (Session session : sessions.values()) {
+        if (session.streamingStartTime != null) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns what this node keeps about the given *-Stream session, creating it
+   * the first time the session is heard of.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The session
+   */
+  private Session getSession(UUID sessionId) {
+    Session session = sessions.get(sessionId);
+    if (session == null) {
+      session = new Session(new StarStreamPlayer(this, sessionId, chunkPlaybackLength, StarStreamSource.getTotalChunks(sessionId)));
+      sessions.put(sessionId, session);
+    }
+    return session;
+  }
+
+  private void checkForStartStreamingTimeout(Session session) {
+    if (!session.player.isStarted() && CommonState.getTime()>=(session.streamingStartTime+START_STREAMING_TIMEOUT)) {
+      if (CommonState.getTime()>session.lastForce+WAIT_BETWEEN_FORCES) {
         // driiin!!! timeout expired
         // start proactive search (pull) for those chunks required to fill in
         // the buffer
-        lastForce = CommonState.getTime();
-        List<Integer> missingChunkIds = collectMissingChunkIds();
-        UUID sessionId = StarStreamSource.getStarStreamSessionId();
+        session.lastForce = CommonState.getTime();
+        UUID sessionId = session.player.getSessionId();
+        List<Integer> missingChunkIds = chunkScheduler.schedule(this, sessionId, collectMissingChunkIds(sessionId));
         for (Integer id : missingChunkIds) {
-          if(addToIssuedChunkRequests(id)) {
-            issueChunkRequest(sessionId, id);
+          if(session.issuedChunkRequests.add(id)) {
+            issueChunkRequest(session, id);
           }
         }
       }
     }
   }
 
-  private void issueChunkRequest(UUID sessionId, int nextChunkSeqId) {
+  private void issueChunkRequest(Session session, int nextChunkSeqId) {
+    UUID sessionId = session.player.getSessionId();
     PastryId chunkId = ChunkUtils.getChunkIdForSequenceId(sessionId, nextChunkSeqId);
     if (chunkId != null) {
-      log("[*-STREAM] node " + this.getPastryId() + " starts looking for chunk(" + nextChunkSeqId + ") " + chunkId);
+      log(Event.CHUNK_SEARCH, nextChunkSeqId);
       getStarStreamProtocol().searchForChunk(sessionId, chunkId);
     } else {
-      chunkRequestsForSeqIdsWithoutPastryIdYet.add(nextChunkSeqId);
-      log("[*-STREAM] WARN node " + this.getPastryId() + " No one knows anything about chunk " + nextChunkSeqId);
+      session.chunkRequestsForSeqIdsWithoutPastryIdYet.add(nextChunkSeqId);
+      log(Event.CHUNK_UNKNOWN, nextChunkSeqId);
     }
   }
 
-  private SortedSet<Integer> getMissingChunkSeqIdsLessThan(int seqId) {
+  private SortedSet<Integer> getMissingChunkSeqIdsLessThan(Session session, int seqId) {
+    SortedSet<Integer> deliveredChunks = session.deliveredChunks;
+    List<Integer> chunkRequestsForSeqIdsWithoutPastryIdYet = session.chunkRequestsForSeqIdsWithoutPastryIdYet;
     SortedSet<Integer> missings = new TreeSet<Integer>();
     // the lowest received chunk seq-id (if any)
     int first;
@@ -315,28 +490,29 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     return missings;
   }
 
-  private void proactiveSearch() {
-    if (player.isStarted() && (CommonState.getTime() > streamingStartTime+START_STREAMING_TIMEOUT)) {
-      processDelayedChunkRequests();
-      scheduleNextChunkRequest();
+  private void proactiveSearch(Session session) {
+    if (session.player.isStarted() && (CommonState.getTime() > session.streamingStartTime+START_STREAMING_TIMEOUT)) {
+      processDelayedChunkRequests(session);
+      scheduleNextChunkRequest(session);
     }
   }
 
-  private void processDelayedChunkRequests() {
-    UUID sessionId = StarStreamSource.getStarStreamSessionId();
+  private void processDelayedChunkRequests(Session session) {
+    List<Integer> chunkRequestsForSeqIdsWithoutPastryIdYet = session.chunkRequestsForSeqIdsWithoutPastryIdYet;
     Integer[] pcrs = chunkRequestsForSeqIdsWithoutPastryIdYet.toArray(new Integer[chunkRequestsForSeqIdsWithoutPastryIdYet.size()]);
     chunkRequestsForSeqIdsWithoutPastryIdYet.clear();
     for (int pcr : pcrs) {
-      issueChunkRequest(sessionId, pcr);
+      issueChunkRequest(session, pcr);
     }
   }
 
-  private void scheduleNextChunkRequest() {
+  private void scheduleNextChunkRequest(Session session) {
+    UUID sessionId = session.player.getSessionId();
     long currentTime = CommonState.getTime();
     double avgObservedDeliveryTime = (perceivedChunkDeliveryTimes.getN() == 0) ? 0 : perceivedChunkDeliveryTimes.getAverage();
-    double num = currentTime + avgObservedDeliveryTime - player.getWhenPlaybackStarted() + advance;
+    double num = currentTime + avgObservedDeliveryTime - session.player.getWhenPlaybackStarted() + advance;
     int nextChunkSeqId = Double.valueOf(Math.floor(num / chunkPlaybackLength)).intValue();
-    if (StarStreamSource.isSeqIdLegal(nextChunkSeqId) && !hasBeenDelivered(nextChunkSeqId)) {
+    if (StarStreamSource.isSeqIdLegal(sessionId, nextChunkSeqId) && !session.deliveredChunks.contains(nextChunkSeqId)) {
       // once the next seq-id has been computed we have to:
       // 1. store somewhere that the i-th chunk has been scheduled for search right now
       // 2. start searching for that chunk iff this is the very first time we scheduled it
@@ -347,34 +523,26 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
       //    configurable retries
       // Thus, according to the two observations above, it is not necessary implementing
       // at this level any kind of resubmission logic for chunk requests
-      SortedSet<Integer> missingChunkSeqIds = getMissingChunkSeqIdsLessThan(nextChunkSeqId);
+      // NOTE: every scheduled seq-id is requested on its own
+      SortedSet<Integer> missingChunkSeqIds = getMissingChunkSeqIdsLessThan(session, nextChunkSeqId);
       missingChunkSeqIds.add(nextChunkSeqId);
-      UUID sessionId = StarStreamSource.getStarStreamSessionId();
-      for (int seqId : missingChunkSeqIds) {
-        if (addToIssuedChunkRequests(seqId)) {
-          issueChunkRequest(sessionId, nextChunkSeqId);
+      for (int seqId : chunkScheduler.schedule(this, sessionId, missingChunkSeqIds)) {
+        if (session.issuedChunkRequests.add(seqId)) {
+          issueChunkRequest(session, seqId);
         }
       }
     }
   }
 
-  private void addToDeliveredChunks(int sequenceId) {
-    deliveredChunks.add(sequenceId);
-  }
-
-  private boolean addToIssuedChunkRequests(int nextChunkSeqId) {
-    return issuedChunkRequests.add(nextChunkSeqId);
-  }
-
-  private void checkIfPlaybackIsAllowed() {
-    int contiguousChunks = getStore().countContiguousChunksFromStart(StarStreamSource.getStarStreamSessionId());
+  private void checkIfPlaybackIsAllowed(Session session) {
+    int contiguousChunks = getStore().countContiguousChunksFromStart(session.player.getSessionId());
     if (contiguousChunks >= MIN_CONTIGUOUS_CHUNKS_IN_BUFFER) {
-      startPalyBack();
+      startPalyBack(session);
     }
   }
 
-  private List<Integer> collectMissingChunkIds() {
-    List<Integer> seqIds = getStore().getMissingSequenceIds(StarStreamSource.getStarStreamSessionId());
+  private List<Integer> collectMissingChunkIds(UUID sessionId) {
+    List<Integer> seqIds = getStore().getMissingSequenceIds(sessionId);
     if (seqIds.size() == 0) {
       if (aggressive) {
         // we are really unlucky, the buffer is completely empty, but luckly we know
@@ -383,14 +551,14 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
           seqIds.add(i);
         }
       } else {
-        seqIds.add(ChunkUtils.getMinSeqNumber());
+        seqIds.add(ChunkUtils.getMinSeqNumber(sessionId));
       }
     }
     return seqIds;
   }
 
-  boolean hasBeenDelivered(int seqId) {
-    return deliveredChunks.contains(seqId);
+  boolean hasBeenDelivered(UUID sessionId, int seqId) {
+    return getSession(sessionId).deliveredChunks.contains(seqId);
   }
 
   /**
@@ -403,25 +571,41 @@ public class StarStreamNode extends PastryNode implements StarStreamProtocolList
     getStarStreamProtocol().registerStarStreamListener(this);
     PastryProtocol pastry = getPastryProtocol();
     getStarStreamProtocol().registerPastryListeners(pastry);
-    this.lastForce = 0;
-    this.player = new StarStreamPlayer(this, StarStreamSource.getStarStreamSessionId(), chunkPlaybackLength, totalChunks);
+    this.random = RandomStreams.forNode(getID());
     this.perceivedChunkDeliveryTimes = new IncrementalStats();
-    this.issuedChunkRequests = new LinkedHashSet<Integer>();
-    this.deliveredChunks = new TreeSet<Integer>();
-    this.chunkRequestsForSeqIdsWithoutPastryIdYet = new LinkedList<Integer>();
-  }
-
-  private void removeFromIssuedChunkRequests(int sequenceId) {
-    issuedChunkRequests.remove(sequenceId);
+    this.sessions = new LinkedHashMap<UUID, Session>();
   }
 
-  private void startPalyBack() {
-    player.start();
-    log("[*-STREAM] node " + this.getPastryId() + " has started playback");
+  private void startPalyBack(Session session) {
+    session.player.start();
+    StarStreamMetrics.playbackStarted(session.player.getWhenPlaybackStarted());
+    log(Event.PLAYBACK_STARTED, EventLog.NO_VALUE);
   }
 
   private void updateLocalStats(Chunk<?> chunk) {
     long deliveryTime = CommonState.getTime() - chunk.getTimeStamp();
     perceivedChunkDeliveryTimes.add(deliveryTime);
   }
+
+  /**
+   * What a node keeps about a single *-Stream session: the player and the
+   * bookkeeping of the chunk requests issued for the session.
+   */
+  private static class Session {
+
+    private final StarStreamPlayer player;
+    // useful to know which chunks were requested for but not discovered, at the end of the simulation
+    private final Set<Integer> issuedChunkRequests = new LinkedHashSet<Integer>();
+    private final SortedSet<Integer> deliveredChunks = new TreeSet<Integer>();
+    private final List<Integer> chunkRequestsForSeqIdsWithoutPastryIdYet = new LinkedList<Integer>();
+    /**
+     * The simulated-time the session starts streaming at, {@code null} until known.
+     */
+    private Long streamingStartTime;
+    private long lastForce = 0;
+
+    private Session(StarStreamPlayer player) {
+      this.player = player;
+    }
+  }
 }
\ No newline at end of file
@@ -5,6 +5,7 @@
 
 package com.google.code.peersim.starstream.protocol;
 
+import com.google.code.peersim.starstream.controls.StarStreamMetrics;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
@@ -48,10 +49,25 @@ public class StarStreamPlayer {
     return Collections.unmodifiableList(playedChunks);
   }
 
+  UUID getSessionId() {
+    return sessionId;
+  }
+
   long getWhenPlaybackStarted() {
     return whenPlaybackStarted;
   }
 
+  /**
+   * Returns the simulated-time the chunk with the given sequence id is due to be
+   * played at.
+   *
+   * @param seqId The sequence id
+   * @return The playback time, {@code -1} if playback has not started yet
+   */
+  long getPlaybackTime(int seqId) {
+    return playbackStarted ? whenPlaybackStarted + (long) seqId * chunkPlaybackLength : -1;
+  }
+
   boolean isStarted() {
     return playbackStarted;
   }
@@ -61,6 +77,7 @@ public class StarStreamPlayer {
     whenPlaybackStarted = CommonState.getTime();
     lastPlayedChunkSeqId = 0;
     playedChunks.add(lastPlayedChunkSeqId);
+    StarStreamMetrics.chunkPlayed();
   }
 
   void tick() {
@@ -68,12 +85,13 @@ public class StarStreamPlayer {
       long nextChunktime = whenPlaybackStarted + ((lastPlayedChunkSeqId*chunkPlaybackLength)+chunkPlaybackLength);
       if(CommonState.getTime()==nextChunktime) {
         int nextId = ++lastPlayedChunkSeqId;
-        if(node.hasBeenDelivered(nextId)) {
+        if(node.hasBeenDelivered(sessionId, nextId)) {
           // great, the chunk is there!
           playChunk(nextId);
         } else {
           // damn, this is a streaming-delay!
           missedChunks.add(nextId);
+          StarStreamMetrics.chunkMissed();
         }
       }
     }
@@ -81,5 +99,6 @@ public class StarStreamPlayer {
 
   private void playChunk(int seqId) {
     playedChunks.add(seqId);
+    StarStreamMetrics.chunkPlayed();
   }
 }
\ No newline at end of file
@@ -11,32 +11,43 @@ import com.google.code.peersim.pastry.protocol.PastryProtocolListenerIfc;
 import com.google.code.peersim.pastry.protocol.PastryResourceAssignLsnrIfc.ResourceAssignedInfo;
 import com.google.code.peersim.pastry.protocol.PastryResourceDiscoveryLsnrIfc.ResourceDiscoveredInfo;
 import com.google.code.peersim.starstream.controls.StarStreamSource;
+import com.google.code.peersim.starstream.controls.ChunkUtils;
 import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
+import com.google.code.peersim.starstream.controls.LatencyHistogram;
+import com.google.code.peersim.starstream.controls.StarStreamMetrics;
+import com.google.code.peersim.starstream.protocol.EventLog.Event;
 import com.google.code.peersim.starstream.protocol.messages.ChunkAdvertisement;
+import com.google.code.peersim.starstream.protocol.messages.BufferMap;
+import com.google.code.peersim.starstream.protocol.messages.ChunkAdvertisementBundle;
 import com.google.code.peersim.starstream.protocol.messages.ChunkKo;
 import com.google.code.peersim.starstream.protocol.messages.ChunkMessage;
 import com.google.code.peersim.starstream.protocol.messages.ChunkMissing;
 import com.google.code.peersim.starstream.protocol.messages.ChunkOk;
 import com.google.code.peersim.starstream.protocol.messages.ChunkRequest;
+import com.google.code.peersim.starstream.protocol.messages.EstimatedMessageSizeModel;
+import com.google.code.peersim.starstream.protocol.messages.MeasuredMessageSizeModel;
+import com.google.code.peersim.starstream.protocol.messages.MessageIdGeneratorIfc;
+import com.google.code.peersim.starstream.protocol.messages.MessageSizeModelIfc;
+import com.google.code.peersim.starstream.protocol.messages.PerNodeMessageIdGenerator;
+import com.google.code.peersim.starstream.protocol.messages.SequentialMessageIdGenerator;
 import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
 import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage.Type;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.PrintStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.UUID;
 import peersim.config.Configuration;
+import peersim.config.IllegalParameterException;
 import peersim.core.CommonState;
 import peersim.core.Node;
 import peersim.edsim.EDProtocol;
 import peersim.transport.Transport;
-import peersim.util.FileNameGenerator;
 
 /**
  * Implementation of the *-Stream Protocol.
@@ -63,6 +74,81 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * Size for the *-Stream Store.
    */
   private int starStoreSize;
+  /**
+   * Configurable implementation for the *-Stream Store, either {@link StarStreamStore#MAP_IMPL}
+   * (default) or {@link StarStreamStore#RING_IMPL}.
+   */
+  public static final String STORE_IMPL = "storeImpl";
+  /**
+   * Configurable max amount of bandwidth that can be accumulated and used within
+   * a single tick, as a multiple of the per-tick down-stream and up-stream (default
+   * 1, meaning no burst).
+   */
+  public static final String BANDWIDTH_BURST = "bandwidthBurst";
+  /**
+   * Configurable fraction, in [0..1], of the bandwidth left unused by a tick that
+   * is still available at the next one (default 0).
+   */
+  public static final String BANDWIDTH_CARRY_OVER = "bandwidthCarryOver";
+  /**
+   * Configurable order messages delayed for lack of up-stream are given another
+   * chance in, either {@code priority} (default), by message type priority, or
+   * {@code weightedFair}, sharing the up-stream fairly among destinations and by
+   * weight among message types.
+   */
+  public static final String UPLOAD_SCHEDULER = "uploadScheduler";
+  /**
+   * Implementation for the *-Stream Store.
+   */
+  private String storeImpl;
+  /**
+   * Configurable scheme for assigning *-Stream message identifiers, either
+   * {@link MessageIdGeneratorIfc#SEQUENTIAL} (default) or {@link MessageIdGeneratorIfc#PER_NODE}.
+   */
+  public static final String MESSAGE_IDS = "messageIds";
+  /**
+   * Configurable model messages are weighed with as far as bandwidth is concerned,
+   * either {@link MessageSizeModelIfc#ESTIMATED} (default) or {@link MessageSizeModelIfc#MEASURED}.
+   */
+  public static final String SIZE_MODEL = "sizeModel";
+  /**
+   * Configurable switch for batching chunk advertisements: when enabled, the
+   * advertisements addressed to the same neighbor are collected into a single
+   * {@link ChunkAdvertisementBundle} sent once per simulated-time tick.
+   */
+  public static final String BATCH_ADVERTISEMENTS = "batchAdvertisements";
+  /**
+   * Whether chunk advertisements should be batched or not.
+   */
+  private boolean batchAdvertisements;
+  /**
+   * Configurable switch for the buffer-map mode: when enabled, chunks are not
+   * advertised one by one any longer, but each node periodically sends its neighbors
+   * a {@link BufferMap} and pulls the chunks it misses from the neighbors' maps.
+   */
+  public static final String BUFFER_MAPS = "bufferMaps";
+  /**
+   * Whether the buffer-map mode is enabled or not.
+   */
+  private boolean bufferMaps;
+  /**
+   * Configurable number of simulated-time ticks between two consecutive {@link BufferMap}
+   * exchanges (default 1).
+   */
+  public static final String BUFFER_MAP_PERIOD = "bufferMapPeriod";
+  /**
+   * Number of simulated-time ticks between two consecutive {@link BufferMap} exchanges.
+   */
+  private int bufferMapPeriod;
+  /**
+   * Configurable number of sequence ids each {@link BufferMap} spans (defaults
+   * to {@value #STAR_STORE_SIZE}).
+   */
+  public static final String BUFFER_MAP_WINDOW = "bufferMapWindow";
+  /**
+   * Number of sequence ids each {@link BufferMap} spans.
+   */
+  private int bufferMapWindow;
   /**
    * Whether messages should be corruptable or not.
    */
@@ -108,9 +194,19 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   public static final String DO_LOG = "doLog";
   /**
-   * Whether the protocol should log its activity or not.
+   * Configurable format of the log, either {@link EventLog#TEXT} (default) or
+   * {@link EventLog#BINARY}.
+   */
+  public static final String LOG_FORMAT = "logFormat";
+  /**
+   * Property for configuring whether sent and received messages must be recorded
+   * by a {@link TraceRecorder} (default false).
+   */
+  public static final String TRACE = "trace";
+  /**
+   * Configurable trace file name prefix (default "starstream-trace-").
    */
-  private boolean doLog;
+  public static final String TRACE_FILE = "traceFile";
   /**
    * PeerSim property separator char.
    */
@@ -120,9 +216,15 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   private StarStreamNode owner;
   /**
-   * The stream to log to.
+   * The log shared by every instance, {@code null} if the protocol must not log
+   * its activity.
+   */
+  private EventLog eventLog;
+  /**
+   * The trace recorder shared by every instance, {@code null} if messages must
+   * not be traced.
    */
-  private PrintStream stream;
+  private TraceRecorder traceRecorder;
   /**
    * The reference to the underlying {@link PastryProtocol} instance.
    */
@@ -139,18 +241,91 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * Memory that associates a *-Stream message identifier with the message it refers to.
    * The identifier is meant to be matched to incoming messages' correlation-identifiers.
    */
-  private Map<UUID, ChunkMessage> pendingChunkMessages = new HashMap<UUID, ChunkMessage>();
+  private LongHashMap<ChunkMessage> pendingChunkMessages = new LongHashMap<ChunkMessage>();
   /**
    * Memory that associates a *-Stream message identifier with the message it refers to.
    * The identifier is meant to be matched to incoming messages' correlation-identifiers.
    */
-  private Map<UUID, ChunkRequest> pendingChunkRequests = new HashMap<UUID, ChunkRequest>();
+  private LongHashMap<ChunkRequest> pendingChunkRequests = new LongHashMap<ChunkRequest>();
+  /**
+   * Timing wheel that tells which of the {@link ChunkMessage}s waiting for an ack
+   * might have expired at a given simulated-time.
+   */
+  private TimeoutWheel<ChunkMessage> chunkMessageTimeouts;
+  /**
+   * Timing wheel that tells which of the {@link ChunkRequest}s waiting for an answer
+   * might have expired at a given simulated-time.
+   */
+  private TimeoutWheel<ChunkRequest> chunkRequestTimeouts;
+  /**
+   * {@link ChunkMessage}s returned by {@link StarStreamProtocol#chunkMessageTimeouts}
+   * by the last {@link StarStreamProtocol#collectTimeouts()}, not handled yet.
+   */
+  private List<ChunkMessage> expiredChunkMessages;
+  /**
+   * {@link ChunkRequest}s returned by {@link StarStreamProtocol#chunkRequestTimeouts}
+   * by the last {@link StarStreamProtocol#collectTimeouts()}, not handled yet.
+   */
+  private List<ChunkRequest> expiredChunkRequests;
+  /**
+   * The simulated-time the expired messages have been collected at, {@code -1}
+   * if there are none waiting to be handled.
+   */
+  private long timeoutsCollectedAt = -1;
   private int downStream;
   private int upStream;
-  private int usedDownStream = 0;
-  private int usedUpStream = 0;
-  private SortedSet<StarStreamMessage> delayedInMessages = new TreeSet<StarStreamMessage>();
-  private SortedSet<StarStreamMessage> delayedOutMessages = new TreeSet<StarStreamMessage>();
+  private double bandwidthBurst;
+  private double bandwidthCarryOver;
+  private String uploadScheduler;
+  /**
+   * The down-stream still available.
+   */
+  private TokenBucket downStreamBucket;
+  /**
+   * The up-stream still available.
+   */
+  private TokenBucket upStreamBucket;
+  /**
+   * Incoming messages that could have not been processed due to down-stream unavailability.
+   */
+  private DelayedMessageQueue delayedInMessages = DelayedMessageQueue.newInstance(DelayedMessageQueue.PRIORITY);
+  /**
+   * Outgoing messages that could have not been sent due to up-stream unavailability.
+   */
+  private DelayedMessageQueue delayedOutMessages;
+  /**
+   * Chunk advertisements collected since the last simulated-time tick, by destination,
+   * in the order destinations have been chosen for the first time.
+   */
+  private Map<StarStreamNode, ChunkAdvertisementBundle> advertisementBundles = new LinkedHashMap<StarStreamNode, ChunkAdvertisementBundle>();
+  /**
+   * Simulated-time ticks elapsed since the last {@link BufferMap} exchange.
+   */
+  private int ticksSinceLastBufferMap;
+  /**
+   * Whether new chunks have been stored since the last {@link BufferMap} exchange.
+   */
+  private boolean bufferMapChanged;
+  /**
+   * The chunk requests waiting for an answer, at most one per chunk: chunks are
+   * not requested again to other neighbors until either they are received or the
+   * request fails.
+   */
+  private InFlightChunkRequests inFlightChunkRequests;
+  /**
+   * Configurable number of neighbors, per *-Stream session, whose chunks each node
+   * keeps track of in order to address its chunk requests (default 64).
+   */
+  public static final String AVAILABILITY_CACHE_SIZE = "availabilityCacheSize";
+  /**
+   * Number of neighbors, per *-Stream session, whose chunks each node keeps track of.
+   */
+  private int availabilityCacheSize;
+  /**
+   * What this node knows about the chunks its neighbors hold: maintained only if
+   * the chunk scheduler of the owner reads it.
+   */
+  private ChunkAvailability chunkAvailability;
   private boolean aggressive;
   private long sentMessages = 0;
   private int unsentChunkMsgsDueToTimeout;
@@ -162,6 +337,15 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * Counter of chunks received by means of the StarStream API.
    */
   private int chunksReceivedFromStarStream;
+  /**
+   * Bits of precision of the per-node delivery-time histograms.
+   */
+  private static final int DELIVERY_TIMES_PRECISION_BITS = 5;
+  /**
+   * Perceived chunk delivery times, by {@link DeliveryPath} ordinal. Each histogram
+   * is created the first time a chunk is delivered by the corresponding path.
+   */
+  private LatencyHistogram[] deliveryTimes = new LatencyHistogram[DeliveryPath.values().length];
 
   /**
    * Constructor. Sets up only those configuration parameters that can be set
@@ -172,10 +356,21 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
   public StarStreamProtocol(String prefix) throws FileNotFoundException {
     msgTimeout = Configuration.getInt(prefix + SEPARATOR + MSG_TIMEOUT);
     starStoreSize = Configuration.getInt(prefix + SEPARATOR + STAR_STORE_SIZE);
+    storeImpl = Configuration.getString(prefix + SEPARATOR + STORE_IMPL, StarStreamStore.MAP_IMPL);
     reliableTransportPid = Configuration.getPid(prefix + SEPARATOR + REL_TRANSPORT);
-    doLog = Configuration.getBoolean(prefix + SEPARATOR + DO_LOG);
-    if (doLog) {
-      stream = new PrintStream(new FileOutputStream(new FileNameGenerator(Configuration.getString(prefix + SEPARATOR + LOG_FILE), ".log").nextCounterName()));
+    if (Configuration.getBoolean(prefix + SEPARATOR + DO_LOG)) {
+      String logFormat = Configuration.getString(prefix + SEPARATOR + LOG_FORMAT, EventLog.TEXT);
+      eventLog = EventLog.open(Configuration.getString(prefix + SEPARATOR + LOG_FILE), logFormat);
+      if (eventLog == null) {
+        throw new IllegalParameterException(prefix + SEPARATOR + LOG_FORMAT, "Unknown log format " + logFormat);
+      }
+    }
+    if (Configuration.getBoolean(prefix + SEPARATOR + TRACE, false)) {
+      try {
+        traceRecorder = TraceRecorder.open(Configuration.getString(prefix + SEPARATOR + TRACE_FILE, "starstream-trace-"));
+      } catch (IOException e) {
+        throw new IllegalParameterException(prefix + SEPARATOR + TRACE_FILE, "Cannot create the trace file: " + e.getMessage());
+      }
     }
     corruptedMessages = Configuration.getBoolean(prefix + SEPARATOR + CORRUPTED_MESSAGES);
     if (corruptedMessages) {
@@ -183,8 +378,60 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     }
     downStream = Configuration.getInt(prefix + SEPARATOR + "downStream");
     upStream = Configuration.getInt(prefix + SEPARATOR + "upStream");
+    bandwidthBurst = Configuration.getDouble(prefix + SEPARATOR + BANDWIDTH_BURST, 1);
+    if (bandwidthBurst < 1) {
+      throw new IllegalParameterException(prefix + SEPARATOR + BANDWIDTH_BURST, "The bandwidth burst must be at least 1");
+    }
+    bandwidthCarryOver = Configuration.getDouble(prefix + SEPARATOR + BANDWIDTH_CARRY_OVER, 0);
+    if (bandwidthCarryOver < 0 || bandwidthCarryOver > 1) {
+      throw new IllegalParameterException(prefix + SEPARATOR + BANDWIDTH_CARRY_OVER, "The bandwidth carry-over must be in [0..1]");
+    }
+    downStreamBucket = new TokenBucket(downStream, downStream * bandwidthBurst, bandwidthCarryOver);
+    upStreamBucket = new TokenBucket(upStream, upStream * bandwidthBurst, bandwidthCarryOver);
+    uploadScheduler = Configuration.getString(prefix + SEPARATOR + UPLOAD_SCHEDULER, DelayedMessageQueue.PRIORITY);
+    delayedOutMessages = DelayedMessageQueue.newInstance(uploadScheduler);
+    if (delayedOutMessages == null) {
+      throw new IllegalParameterException(prefix + SEPARATOR + UPLOAD_SCHEDULER, "Unknown upload scheduler '" + uploadScheduler + "'");
+    }
     maxChunkRetries = Configuration.getInt(prefix + SEPARATOR + MAX_CHUNK_RETRIES);
-    store = new StarStreamStore(starStoreSize);
+    store = StarStreamStore.newInstance(storeImpl, starStoreSize);
+    if (store == null) {
+      throw new IllegalParameterException(prefix + SEPARATOR + STORE_IMPL, "Unknown *-Stream Store implementation '" + storeImpl + "'");
+    }
+    chunkMessageTimeouts = new TimeoutWheel<ChunkMessage>(msgTimeout + 1);
+    chunkRequestTimeouts = new TimeoutWheel<ChunkRequest>(msgTimeout + 1);
+    String messageIds = Configuration.getString(prefix + SEPARATOR + MESSAGE_IDS, MessageIdGeneratorIfc.SEQUENTIAL);
+    if (MessageIdGeneratorIfc.SEQUENTIAL.equals(messageIds)) {
+      StarStreamMessage.setMessageIdGenerator(new SequentialMessageIdGenerator());
+    } else if (MessageIdGeneratorIfc.PER_NODE.equals(messageIds)) {
+      StarStreamMessage.setMessageIdGenerator(new PerNodeMessageIdGenerator());
+    } else {
+      throw new IllegalParameterException(prefix + SEPARATOR + MESSAGE_IDS, "Unknown message identifier scheme '" + messageIds + "'");
+    }
+    String sizeModel = Configuration.getString(prefix + SEPARATOR + SIZE_MODEL, MessageSizeModelIfc.ESTIMATED);
+    if (MessageSizeModelIfc.ESTIMATED.equals(sizeModel)) {
+      StarStreamMessage.setMessageSizeModel(new EstimatedMessageSizeModel());
+    } else if (MessageSizeModelIfc.MEASURED.equals(sizeModel)) {
+      StarStreamMessage.setMessageSizeModel(new MeasuredMessageSizeModel());
+    } else {
+      throw new IllegalParameterException(prefix + SEPARATOR + SIZE_MODEL, "Unknown message size model '" + sizeModel + "'");
+    }
+    batchAdvertisements = Configuration.getBoolean(prefix + SEPARATOR + BATCH_ADVERTISEMENTS, false);
+    bufferMaps = Configuration.getBoolean(prefix + SEPARATOR + BUFFER_MAPS, false);
+    bufferMapPeriod = Configuration.getInt(prefix + SEPARATOR + BUFFER_MAP_PERIOD, 1);
+    if (bufferMapPeriod < 1) {
+      throw new IllegalParameterException(prefix + SEPARATOR + BUFFER_MAP_PERIOD, "The buffer-map period must be at least 1");
+    }
+    bufferMapWindow = Configuration.getInt(prefix + SEPARATOR + BUFFER_MAP_WINDOW, starStoreSize);
+    if (bufferMapWindow < 1) {
+      throw new IllegalParameterException(prefix + SEPARATOR + BUFFER_MAP_WINDOW, "The buffer-map window must be at least 1");
+    }
+    availabilityCacheSize = Configuration.getInt(prefix + SEPARATOR + AVAILABILITY_CACHE_SIZE, 64);
+    if (availabilityCacheSize < 1) {
+      throw new IllegalParameterException(prefix + SEPARATOR + AVAILABILITY_CACHE_SIZE, "The availability cache must hold at least 1 neighbor");
+    }
+    chunkAvailability = new ChunkAvailability(availabilityCacheSize);
+    inFlightChunkRequests = new InFlightChunkRequests(msgTimeout);
     aggressive = Configuration.getBoolean(prefix + SEPARATOR + "aggressive");
   }
 
@@ -197,15 +444,26 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
       Object clone = super.clone();
       ((StarStreamProtocol) clone).owner = null;
       ((StarStreamProtocol) clone).pastryProtocol = null;
-      ((StarStreamProtocol) clone).store = new StarStreamStore(starStoreSize);
+      ((StarStreamProtocol) clone).store = StarStreamStore.newInstance(storeImpl, starStoreSize);
       ((StarStreamProtocol) clone).listeners = new ArrayList<StarStreamProtocolListenerIfc>();
-      ((StarStreamProtocol) clone).pendingChunkMessages = new HashMap<UUID, ChunkMessage>();
-      ((StarStreamProtocol) clone).pendingChunkRequests = new HashMap<UUID, ChunkRequest>();
-      ((StarStreamProtocol) clone).usedDownStream = 0;
-      ((StarStreamProtocol) clone).usedUpStream = 0;
-      ((StarStreamProtocol) clone).delayedInMessages = new TreeSet<StarStreamMessage>();
-      ((StarStreamProtocol) clone).delayedOutMessages = new TreeSet<StarStreamMessage>();
+      ((StarStreamProtocol) clone).pendingChunkMessages = new LongHashMap<ChunkMessage>();
+      ((StarStreamProtocol) clone).pendingChunkRequests = new LongHashMap<ChunkRequest>();
+      ((StarStreamProtocol) clone).chunkMessageTimeouts = new TimeoutWheel<ChunkMessage>(msgTimeout + 1);
+      ((StarStreamProtocol) clone).chunkRequestTimeouts = new TimeoutWheel<ChunkRequest>(msgTimeout + 1);
+      ((StarStreamProtocol) clone).expiredChunkMessages = null;
+      ((StarStreamProtocol) clone).expiredChunkRequests = null;
+      ((StarStreamProtocol) clone).timeoutsCollectedAt = -1;
+      ((StarStreamProtocol) clone).downStreamBucket = new TokenBucket(downStream, downStream * bandwidthBurst, bandwidthCarryOver);
+      ((StarStreamProtocol) clone).upStreamBucket = new TokenBucket(upStream, upStream * bandwidthBurst, bandwidthCarryOver);
+      ((StarStreamProtocol) clone).delayedInMessages = DelayedMessageQueue.newInstance(DelayedMessageQueue.PRIORITY);
+      ((StarStreamProtocol) clone).delayedOutMessages = DelayedMessageQueue.newInstance(uploadScheduler);
+      ((StarStreamProtocol) clone).advertisementBundles = new LinkedHashMap<StarStreamNode, ChunkAdvertisementBundle>();
+      ((StarStreamProtocol) clone).ticksSinceLastBufferMap = 0;
+      ((StarStreamProtocol) clone).bufferMapChanged = false;
+      ((StarStreamProtocol) clone).inFlightChunkRequests = new InFlightChunkRequests(msgTimeout);
+      ((StarStreamProtocol) clone).chunkAvailability = new ChunkAvailability(availabilityCacheSize);
       ((StarStreamProtocol) clone).sentMessages = 0;
+      ((StarStreamProtocol) clone).deliveryTimes = new LatencyHistogram[DeliveryPath.values().length];
       return clone;
     } catch (CloneNotSupportedException e) {
       throw new RuntimeException("Cloning failed. See nested exceptions, please.", e);
@@ -228,6 +486,36 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     return chunksReceivedFromStarStream;
   }
 
+  /**
+   * Returns the perceived delivery times of the chunks delivered by the given path.
+   * Histograms of different nodes can be added to each other.
+   *
+   * @param path The delivery path
+   * @return The delivery times, {@code null} if no chunk has been delivered by that path
+   */
+  public LatencyHistogram getDeliveryTimes(DeliveryPath path) {
+    return deliveryTimes[path.ordinal()];
+  }
+
+  /**
+   * Records the delivery time of a newly stored chunk both locally and in the
+   * network-wide metrics.
+   *
+   * @param path How the chunk got here
+   * @param chunk The chunk
+   */
+  private void recordDeliveryTime(DeliveryPath path, Chunk<?> chunk) {
+    long deliveryTime = Math.max(0, CommonState.getTime() - chunk.getTimeStamp());
+    LatencyHistogram histogram = deliveryTimes[path.ordinal()];
+    if (histogram == null) {
+      // latencies cannot exceed the simulation length
+      histogram = new LatencyHistogram(DELIVERY_TIMES_PRECISION_BITS, Math.max(1, CommonState.getEndTime()));
+      deliveryTimes[path.ordinal()] = histogram;
+    }
+    histogram.record(deliveryTime);
+    StarStreamMetrics.chunkDelivered(path, deliveryTime);
+  }
+
   /**
    * Returns the number of unsent chunnks due to message timeout.
    * @return The number of unsent chunnks due to message timeout.
@@ -241,7 +529,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   @Override
   public void joined(JoinedInfo info) {
-    log("[PASTRY-EVENT] " + info);
+    log(Event.PASTRY_EVENT, EventLog.NO_VALUE, null, info);
   }
 
   /**
@@ -258,6 +546,9 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     if (event instanceof StarStreamMessage) {
       // this is a known event, let's process it
       StarStreamMessage msg = (StarStreamMessage) event;
+      if (traceRecorder != null) {
+        traceRecorder.received(msg);
+      }
       if (updateUsedDownStream(msg)) {
         // there is enough input-stream to consume the message...
         processEvent(msg);
@@ -277,35 +568,35 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
   }
 
   /**
-   * Starts the processing of both delayed input and output messages.
+   * Starts the processing of both delayed input and output messages. Only the
+   * messages that were already delayed when this method is invoked are considered:
+   * those delayed again in the meantime are left for the next invocation.
    */
   void processDelayedMessages() {
-    StarStreamMessage[] inMsgs = new StarStreamMessage[delayedInMessages.size()];
-    delayedInMessages.<StarStreamMessage>toArray(inMsgs);
-    StarStreamMessage[] outMsgs = new StarStreamMessage[delayedOutMessages.size()];
-    delayedOutMessages.<StarStreamMessage>toArray(outMsgs);
-
-    int max = Math.max(inMsgs.length, outMsgs.length);
-    for (int i = 0; i < max; i++) {
-      log("[DELAYED MESSAGES] begin");
+    delayedInMessages.beginDrain();
+    delayedOutMessages.beginDrain();
+    StarStreamMessage inMsg = delayedInMessages.poll();
+    StarStreamMessage outMsg = delayedOutMessages.poll();
+    while (inMsg != null || outMsg != null) {
+      log(Event.DELAYED_BEGIN, EventLog.NO_VALUE, null, null);
       // one from the ins...
-      if (i < inMsgs.length) {
-        // if the index is valid we try and process the message
-        StarStreamMessage msg = inMsgs[i];
-        if (updateUsedDownStream(msg)) {
-          removeFromDelayedInMessages(msg);
+      if (inMsg != null) {
+        if (updateUsedDownStream(inMsg)) {
           // since there is enough bandwidth we process the message
-          processEvent(msg);
+          processEvent(inMsg);
+        } else {
+          // the message keeps waiting for enough bandwidth
+          addToDelayedInMessages(inMsg);
         }
+        inMsg = delayedInMessages.poll();
       }
       // ... and from the outs
-      if (i < outMsgs.length) {
-        // if the index is valid we try and process the message
-        StarStreamMessage msg = outMsgs[i];
-        removeFromDelayedOutMessages(msg);
-        send(msg);
+      if (outMsg != null) {
+        // the message is delayed again if there is not enough bandwidth yet
+        send(outMsg);
+        outMsg = delayedOutMessages.poll();
       }
-      log("[DELAYED MESSAGES] end");
+      log(Event.DELAYED_END, EventLog.NO_VALUE, null, null);
     }
   }
 
@@ -361,6 +652,14 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
         handleChunkMissing((ChunkMissing) msg);
         break;
       }
+      case CHUNK_ADV_BUNDLE: {
+        handleChunkAdvertisementBundle((ChunkAdvertisementBundle) msg);
+        break;
+      }
+      case BUFFER_MAP: {
+        handleBufferMap((BufferMap) msg);
+        break;
+      }
       default: {
         throw new IllegalStateException("A message of type " + msg.getType() + " has been received, but I do not know how to handle it.");
       }
@@ -399,7 +698,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   @Override
   public void resourceDiscovered(ResourceDiscoveredInfo info) {
-    log("[PASTRY-EVENT] " + info);
+    log(Event.PASTRY_EVENT, EventLog.NO_VALUE, null, info);
     Chunk<?> chunk = (Chunk<?>) info.getResource();
     handleChunkFromPastry(chunk);
   }
@@ -419,7 +718,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   @Override
   public void resourceReceived(ResourceReceivedInfo info) {
-    log("[PASTRY-EVENT] " + info);
+    log(Event.PASTRY_EVENT, EventLog.NO_VALUE, null, info);
     Chunk<?> chunk = (Chunk<?>) info.getResource();
     handleChunkFromPastry(chunk);
   }
@@ -439,7 +738,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   @Override
   public void resourceRouted(ResourceRoutedInfo info) {
-    log("[PASTRY-EVENT] " + info);
+    log(Event.PASTRY_EVENT, EventLog.NO_VALUE, null, info);
     Chunk<?> chunk = (Chunk<?>) info.getResource();
     handleChunkFromPastry(chunk);
   }
@@ -456,41 +755,56 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
   /**
    * This method must be invoked to check whether there are expired {@link ChunkMessage}s}.
    * Each expired message gets removed from the memory and is sent again iff the
-   * message has not been sent for the maximum amount of times yet.
+   * message has not been sent for the maximum amount of times yet.<br>
+   * Messages already collected by {@link StarStreamProtocol#collectTimeouts()} at
+   * the current simulated-time are not collected again.
    */
   void checkForTimeouts() {
     long currentTime = CommonState.getTime();
-    checkForTimeoutsInPendingChunkMessages(currentTime);
-    checkForTimeoutsInPendingChunkRequests(currentTime);
+    if (timeoutsCollectedAt != currentTime) {
+      collectTimeouts();
+    }
+    timeoutsCollectedAt = -1;
+    checkForTimeoutsInPendingChunkMessages(expiredChunkMessages, currentTime);
+    checkForTimeoutsInPendingChunkRequests(expiredChunkRequests, currentTime);
+  }
+
+  /**
+   * Collects the messages whose timeout falls in the simulated-time elapsed since
+   * the last check, for the next {@link StarStreamProtocol#checkForTimeouts()} to
+   * handle them. This method neither sends messages nor touches anything but this
+   * protocol instance, thus it can be invoked concurrently on different instances.
+   */
+  void collectTimeouts() {
+    long currentTime = CommonState.getTime();
+    expiredChunkMessages = chunkMessageTimeouts.expire(currentTime);
+    expiredChunkRequests = chunkRequestTimeouts.expire(currentTime);
+    timeoutsCollectedAt = currentTime;
   }
 
   /**
    * Resends expired {@link ChunkMessage}s.
    *
+   * @param expired The messages returned by {@link StarStreamProtocol#chunkMessageTimeouts}
    * @param currentTime Current simulated-time
    */
-  private void checkForTimeoutsInPendingChunkMessages(long currentTime) {
-    List<UUID> expired = new ArrayList<UUID>();
-    // search
-    for (Map.Entry<UUID, ChunkMessage> pending : pendingChunkMessages.entrySet()) {
-      if (pending.getValue().getTimeStamp() + msgTimeout < currentTime) {
-        // this message has expired!
-        expired.add(pending.getKey());
-      }
-    }
+  private void checkForTimeoutsInPendingChunkMessages(List<ChunkMessage> expired, long currentTime) {
     // removal & resending
-    for (UUID id : expired) {
-      ChunkMessage msg = pendingChunkMessages.remove(id);
-      if (msg != null) {
-        log("[TIMEOUT] (+"+(currentTime-(msgTimeout+msg.getTimeStamp()))+") " + msg);
+    for (int i = 0; i < expired.size(); i++) {
+      ChunkMessage msg = expired.get(i);
+      // the message might have been acked or rescheduled in the meantime
+      if (isExpiredPending(pendingChunkMessages, msg, currentTime)) {
+        pendingChunkMessages.remove(msg.getMessageId());
+        log(Event.TIMEOUT, currentTime - (msgTimeout + msg.getTimeStamp()), msg, null);
         // resend iff the retry-time has not reached the configured max amount yet
         if (msg.getRetries() < maxChunkRetries) {
           // resend
           msg.prepareForRetry();
           send(msg);
         } else {
-          log("[NOT SENT] " + MAX_CHUNK_RETRIES + " " + maxChunkRetries + " reached");
+          log(Event.NOT_SENT, maxChunkRetries, msg, null);
           unsentChunkMsgsDueToTimeout++;
+          StarStreamMetrics.chunkMessageUnsent();
         }
       }
     }
@@ -499,29 +813,80 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
   /**
    * Resends expired {@link ChunkRequests}s.
    *
+   * @param expired The requests returned by {@link StarStreamProtocol#chunkRequestTimeouts}
    * @param currentTime Current simulated-time
    */
-  private void checkForTimeoutsInPendingChunkRequests(long currentTime) {
-    List<UUID> expired = new ArrayList<UUID>();
-    // search
-    for (Map.Entry<UUID, ChunkRequest> pending : pendingChunkRequests.entrySet()) {
-      if (pending.getValue().getTimeStamp() + msgTimeout < currentTime) {
-        // this message has expired!
-        expired.add(pending.getKey());
-      }
-    }
+  private void checkForTimeoutsInPendingChunkRequests(List<ChunkRequest> expired, long currentTime) {
     // removal & Pastry lookups
-    for (UUID id : expired) {
-      ChunkRequest msg = pendingChunkRequests.remove(id);
-      if (msg != null) {
-        log("[TIMEOUT] (+"+(currentTime-(msgTimeout+msg.getTimeStamp()))+") " + msg);
+    for (int i = 0; i < expired.size(); i++) {
+      ChunkRequest msg = expired.get(i);
+      // the request might have been answered in the meantime
+      if (isExpiredPending(pendingChunkRequests, msg, currentTime)) {
+        pendingChunkRequests.remove(msg.getMessageId());
+        log(Event.TIMEOUT, currentTime - (msgTimeout + msg.getTimeStamp()), msg, null);
         // NOTE: there is no need to check whether the chuunk has already been
         // received since this is done by the method we are going to invoke
-        owner.lookupResource(msg.getChunkId());
+        retryChunkRequest(msg, currentTime);
       }
     }
   }
 
+  /**
+   * Tells whether the given message, returned by a {@link TimeoutWheel}, is still
+   * waiting for an answer and its timeout has actually expired. Messages that have
+   * been answered, or that have been sent again after the wheel entry was created,
+   * are discarded.
+   *
+   * @param pending The memory of pending messages the message should belong to
+   * @param msg The message
+   * @param currentTime Current simulated-time
+   * @return Whether the message has expired or not
+   */
+  private boolean isExpiredPending(LongHashMap<? extends StarStreamMessage> pending, StarStreamMessage msg, long currentTime) {
+    return pending.get(msg.getMessageId()) == msg && msg.getTimeStamp() + msgTimeout < currentTime;
+  }
+
+  /**
+   * Sends the {@link ChunkAdvertisementBundle}s collected since the last invocation,
+   * one per neighbor, and the {@link BufferMap}s iff they are due. This method must
+   * be invoked once per simulated-time tick and has no effect unless either
+   * {@value #BATCH_ADVERTISEMENTS} or {@value #BUFFER_MAPS} is enabled.
+   */
+  void flushAdvertisements() {
+    if (!advertisementBundles.isEmpty()) {
+      for (ChunkAdvertisementBundle bundle : advertisementBundles.values()) {
+        sendOverReliableTransport(bundle);
+      }
+      advertisementBundles.clear();
+    }
+    if (bufferMaps && ++ticksSinceLastBufferMap >= bufferMapPeriod) {
+      ticksSinceLastBufferMap = 0;
+      if (bufferMapChanged) {
+        bufferMapChanged = false;
+        sendBufferMaps();
+      }
+    }
+  }
+
+  /**
+   * Returns what this node knows about the chunks its neighbors hold.
+   *
+   * @return The chunk availability record
+   */
+  ChunkAvailability getChunkAvailability() {
+    return chunkAvailability;
+  }
+
+  /**
+   * Tells whether the chunk availability record must be maintained, that is
+   * whether the chunk scheduler of the owner reads it.
+   *
+   * @return Whether the record is maintained
+   */
+  private boolean tracksAvailability() {
+    return owner.getChunkScheduler().readsAvailability();
+  }
+
   /**
    * Returns a reference to the local-store.
    *
@@ -546,11 +911,11 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
   /**
    * Tells the {@link StarStreamProtocol} instance that there has been
    * a new simulated-time tick and that both the outbound and inbound bandwiths
-   * can be reset to their original levels.
+   * can be refilled.
    */
   void resetUsedBandwidth() {
-    usedDownStream = 0;
-    usedUpStream = 0;
+    downStreamBucket.refill();
+    upStreamBucket.refill();
   }
 
   /**
@@ -560,11 +925,18 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @param chunkId The chunk ID
    */
   void searchForChunk(UUID starStreamSessionId, PastryId chunkId) {
+    long now = CommonState.getTime();
+    if (inFlightChunkRequests.isWatched(chunkId, now)) {
+      // the chunk has already been requested, and should the request fail either
+      // a fallback source or Pastry will be asked for it
+      return;
+    }
 //    Set<StarStreamNode> nodes = this.owner.getPastryProtocol().getNeighbors(1);
     Set<StarStreamNode> nodes = this.owner.getPastryProtocol().getNeighbors(this.availableOutDeg(Type.CHUNK_REQ));
     if (!nodes.isEmpty()) {
-      StarStreamNode dst = nodes.iterator().next();
+      StarStreamNode dst = owner.getChunkScheduler().selectSource(owner, starStreamSessionId, chunkId, nodes);
       ChunkRequest req = new ChunkRequest(owner, dst, starStreamSessionId, chunkId);
+      inFlightChunkRequests.add(req, now, true);
       if (send(req)) {
         // cache for on-timeout expiration retries
         rememberPendingChunkRequest(req);
@@ -614,13 +986,39 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     {
       neighbors = selectOutNeighbors(StarStreamMessage.Type.CHUNK_ADV);
     }
-    List<ChunkAdvertisement> advs = null;
-    if (isOnPastryEvent) {
-      advs = ChunkAdvertisement.newInstancesFor(owner, neighbors, chunk);
+    if (bufferMaps) {
+      // the chunk will be advertised by the next buffer map, see flushAdvertisements()
+      // NOP
+    } else if (batchAdvertisements) {
+      // advertisements are sent at the next tick, see flushAdvertisements()
+      addToAdvertisementBundles(neighbors, isOnPastryEvent ? chunk : msg.getChunk());
     } else {
-      advs = msg.createChunkAdvs(neighbors);
+      List<ChunkAdvertisement> advs = null;
+      if (isOnPastryEvent) {
+        advs = ChunkAdvertisement.newInstancesFor(owner, neighbors, chunk);
+      } else {
+        advs = msg.createChunkAdvs(neighbors);
+      }
+      broadcastOverReliableTransport(advs);
+    }
+  }
+
+  /**
+   * Adds the given chunk to the {@link ChunkAdvertisementBundle}s that will be
+   * sent to the given neighbors at the next {@link StarStreamProtocol#flushAdvertisements()}.
+   *
+   * @param neighbors The neighbors the chunk must be advertised to
+   * @param chunk The chunk
+   */
+  private void addToAdvertisementBundles(Set<StarStreamNode> neighbors, Chunk<?> chunk) {
+    for (StarStreamNode dst : neighbors) {
+      ChunkAdvertisementBundle bundle = advertisementBundles.get(dst);
+      if (bundle == null) {
+        bundle = new ChunkAdvertisementBundle(owner, dst);
+        advertisementBundles.put(dst, bundle);
+      }
+      bundle.add(chunk.getSessionId(), chunk.getResourceId());
     }
-    broadcastOverReliableTransport(advs);
   }
 
   /**
@@ -632,7 +1030,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @return The maximum number of connections available for the given message type
    */
   private int availableInDeg(Type type) {
-    return (downStream - usedDownStream) / type.getEstimatedBandwidth();
+    return downStreamBucket.available() / StarStreamMessage.getEstimatedBandwidth(type);
   }
 
   /**
@@ -644,7 +1042,26 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @return The maximum number of connections available for the given message type
    */
   private int availableOutDeg(Type type) {
-    return (upStream - usedUpStream) / type.getEstimatedBandwidth();
+    return upStreamBucket.available() / StarStreamMessage.getEstimatedBandwidth(type);
+  }
+
+  /**
+   * Sends a {@link BufferMap} of each *-Stream session to a selection of neighbors.
+   * The map starts from the lowest sequence id of the session still stored and
+   * spans {@value #BUFFER_MAP_WINDOW} sequence ids. Nothing is sent for a session
+   * none of whose chunks is stored, nor if no new chunk has been stored since the
+   * previous exchange.
+   */
+  private void sendBufferMaps() {
+    for (UUID sessionId : StarStreamSource.getSessionIds()) {
+      int first = store.getLowestSequenceId(sessionId);
+      if (first >= 0) {
+        BitSet chunks = store.getSequenceIds(sessionId, first, first + bufferMapWindow);
+        for (StarStreamNode dst : selectOutNeighbors(Type.BUFFER_MAP)) {
+          sendOverReliableTransport(new BufferMap(owner, dst, sessionId, first, bufferMapWindow, chunks));
+        }
+      }
+    }
   }
 
   /**
@@ -669,7 +1086,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
   private boolean checkMessageIntegrity(ChunkMessage chunkMsg) {
     boolean res;
     if (corruptedMessages) {
-      res = CommonState.r.nextFloat() < corruptedMessagesProbability;
+      res = owner.getRandom().nextFloat() < corruptedMessagesProbability;
     } else {
       res = true;
     }
@@ -697,15 +1114,22 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @param chunkMessage The message
    */
   private void handleChunk(ChunkMessage chunkMessage) {
-    log("[RCV] " + chunkMessage);
+    log(Event.RECEIVE, chunkMessage);
+    if (tracksAvailability()) {
+      chunkAvailability.add(chunkMessage.getSource(), chunkMessage.getChunk().getSessionId(), chunkMessage.getChunk().getSequenceId());
+    }
     if (!chunkMessage.getChunk().isExpired()) {
       if (checkMessageIntegrity(chunkMessage)) {
-        // remove from the pending requests
-        removeFromPendingChunkRequests(chunkMessage);
+        // remove from the pending requests: the chunk has been pulled iff it answers
+        // one of our requests, either a pending or an in-flight one
+        ChunkRequest req = removeFromPendingChunkRequests(chunkMessage);
+        PastryId chunkId = chunkMessage.getChunk().getResourceId();
+        boolean requested = (req != null && req.getChunkId().equals(chunkId)) ||
+                inFlightChunkRequests.isCurrent(chunkId, chunkMessage.getCorrelationId());
         // send OK and proceede
         handleChunk_SendOK(chunkMessage);
         // locally save the chunk
-        storeIfNotStored(chunkMessage.getChunk());
+        storeIfNotStored(chunkMessage.getChunk(), requested ? DeliveryPath.PULL : DeliveryPath.PUSH);
         // advertise the new chunk
         advertiseChunk(chunkMessage, false, null);
         if (chunkMessage.isFromSigma()) {
@@ -717,7 +1141,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
         handleChunk_SendKO(chunkMessage);
       }
     } else {
-      log("[*** EXPIRED ***] message " + chunkMessage + " contains a chunk that exceeded its TTL: not delivered!");
+      log(Event.EXPIRED, chunkMessage);
     }
   }
 
@@ -736,12 +1160,20 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @param chunkAdvertisement The chunk advertisement
    */
   private void handleChunkAdvertisement(ChunkAdvertisement chunkAdvertisement) {
-    log("[RCV] " + chunkAdvertisement);
+    log(Event.RECEIVE, chunkAdvertisement);
+    if (tracksAvailability()) {
+      chunkAvailability.add(chunkAdvertisement.getSource(), chunkAdvertisement.getSessionId(), ChunkUtils.getSequenceIdForChunkId(chunkAdvertisement.getSessionId(), chunkAdvertisement.getChunkId()));
+    }
+    long now = CommonState.getTime();
     if (!store.isStored(chunkAdvertisement.getSessionId(), chunkAdvertisement.getChunkId())) {
       // the chunk is not locally available, thus we need to reply to the advertising
-      // node with a chunk request message and wait for the chunk to arrive
-      ChunkRequest chunkReq = chunkAdvertisement.replyWithChunkReq();
-      send(chunkReq);
+      // node with a chunk request message and wait for the chunk to arrive, unless
+      // the chunk has already been requested: the advertiser becomes a fallback source
+      if (!inFlightChunkRequests.addFallback(chunkAdvertisement.getChunkId(), chunkAdvertisement.getSource(), now)) {
+        ChunkRequest chunkReq = chunkAdvertisement.replyWithChunkReq();
+        inFlightChunkRequests.add(chunkReq, now, false);
+        send(chunkReq);
+      }
     } else {
       // the chunk is already stored in the local *-Stream store, thus there is no
       // need and doing anything else
@@ -749,13 +1181,65 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     }
   }
 
+  /**
+   * When a node receives a {@link BufferMap} it has to issue a {@link ChunkRequest}
+   * to the sending node for every chunk the map reports as available that is neither
+   * locally stored nor already requested to some other neighbor: in the latter case
+   * the sending node becomes a fallback source of the chunk.
+   *
+   * @param bufferMap The buffer map
+   */
+  private void handleBufferMap(BufferMap bufferMap) {
+    log(Event.RECEIVE, bufferMap);
+    UUID sessionId = bufferMap.getSessionId();
+    long now = CommonState.getTime();
+    boolean tracksAvailability = tracksAvailability();
+    for (int seqId = bufferMap.nextAvailable(bufferMap.getFirstSequenceId()); seqId >= 0; seqId = bufferMap.nextAvailable(seqId + 1)) {
+      if (tracksAvailability) {
+        chunkAvailability.add(bufferMap.getSource(), sessionId, seqId);
+      }
+      PastryId chunkId = ChunkUtils.getChunkIdForSequenceId(sessionId, seqId);
+      if (chunkId != null && !store.isStored(sessionId, chunkId) && !inFlightChunkRequests.addFallback(chunkId, bufferMap.getSource(), now)) {
+        ChunkRequest chunkReq = bufferMap.replyWithChunkReq(chunkId);
+        inFlightChunkRequests.add(chunkReq, now, true);
+        if (send(chunkReq)) {
+          // cache for on-timeout expiration retries
+          rememberPendingChunkRequest(chunkReq);
+        }
+      }
+    }
+  }
+
+  /**
+   * A {@link ChunkAdvertisementBundle} is handled as if each of the advertised
+   * chunks had been received as a separate {@link ChunkAdvertisement}.
+   *
+   * @param bundle The chunk advertisements bundle
+   * @see StarStreamProtocol#handleChunkAdvertisement(com.google.code.peersim.starstream.protocol.messages.ChunkAdvertisement)
+   */
+  private void handleChunkAdvertisementBundle(ChunkAdvertisementBundle bundle) {
+    log(Event.RECEIVE, bundle);
+    long now = CommonState.getTime();
+    boolean tracksAvailability = tracksAvailability();
+    for (int i = 0; i < bundle.size(); i++) {
+      if (tracksAvailability) {
+        chunkAvailability.add(bundle.getSource(), bundle.getSessionId(i), ChunkUtils.getSequenceIdForChunkId(bundle.getSessionId(i), bundle.getChunkId(i)));
+      }
+      if (!store.isStored(bundle.getSessionId(i), bundle.getChunkId(i)) && !inFlightChunkRequests.addFallback(bundle.getChunkId(i), bundle.getSource(), now)) {
+        ChunkRequest chunkReq = bundle.replyWithChunkReq(i);
+        inFlightChunkRequests.add(chunkReq, now, false);
+        send(chunkReq);
+      }
+    }
+  }
+
   /**
    * @see StarStreamProtocol#resourceRouted(com.google.code.peersim.pastry.protocol.PastryResourceAssignLsnrIfc.ResourceRoutedInfo)
    * @see StarStreamProtocol#resourceReceived(com.google.code.peersim.pastry.protocol.PastryResourceAssignLsnrIfc.ResourceReceivedInfo)
    * @see StarStreamProtocol#resourceDiscovered(com.google.code.peersim.pastry.protocol.PastryResourceDiscoveryLsnrIfc.ResourceDiscoveredInfo)
    */
   private void handleChunkFromPastry(Chunk<?> chunk) {
-    if (storeIfNotStored(chunk)) {
+    if (storeIfNotStored(chunk, DeliveryPath.PASTRY)) {
       chunksReceivedFromPastry++;
       advertiseChunk(null, true, chunk);
     }
@@ -791,13 +1275,27 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @param chunkMissing The message
    */
   private void handleChunkMissing(ChunkMissing chunkMissing) {
-    log("[RCV] " + chunkMissing);
-    // the only thing we need to do is launching a Pastry resource lookup operation
-    // once and if the resource is found, this protocol instance will be notified by
-    // the underlying Pastry implementation and the resource will be finally stored
-    // in the local *-Stream store
+    log(Event.RECEIVE, chunkMissing);
+    // the only thing we need to do is asking a fallback source, if any, or launching
+    // a Pastry resource lookup operation: once and if the resource is found, this
+    // protocol instance will be notified by the underlying Pastry implementation
+    // and the resource will be finally stored in the local *-Stream store
     removeFromPendingChunkRequests(chunkMissing);
-    pastryProtocol.lookupResource(chunkMissing.getChunkId());
+    if (tracksAvailability()) {
+      chunkAvailability.remove(chunkMissing.getSource(), chunkMissing.getSessionId(), ChunkUtils.getSequenceIdForChunkId(chunkMissing.getSessionId(), chunkMissing.getChunkId()));
+    }
+    long now = CommonState.getTime();
+    if (inFlightChunkRequests.isSuperseded(chunkMissing.getChunkId(), chunkMissing.getCorrelationId(), now)) {
+      // a later request for the same chunk is in charge of it
+      return;
+    }
+    StarStreamNode fallback = inFlightChunkRequests.pollFallback(chunkMissing.getChunkId(), chunkMissing.getCorrelationId());
+    if (fallback != null) {
+      requestFromFallback(chunkMissing.getSessionId(), chunkMissing.getChunkId(), fallback, now);
+    } else {
+      inFlightChunkRequests.remove(chunkMissing.getChunkId());
+      pastryProtocol.lookupResource(chunkMissing.getChunkId());
+    }
   }
 
   /**
@@ -812,7 +1310,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @param chunkOk The OK message
    */
   private void handleChunkOk(ChunkOk chunkOk) {
-    log("[RCV] " + chunkOk);
+    log(Event.RECEIVE, chunkOk);
     removeFromPendingChunks(chunkOk);
   }
 
@@ -851,7 +1349,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     // by convention, should the sender be the source, we avoid sending the
     // ack over the simulated transport otherwise we do
     if (chunkMessage.isFromSigma()) {
-      StarStreamSource.chunkKo(chunkMessage.getChunk().getResourceId());
+      StarStreamSource.chunkKo(chunkMessage.getChunk().getSessionId(), chunkMessage.getChunk().getResourceId());
     } else {
       ChunkKo ko = chunkMessage.replyKo();
       send(ko);
@@ -872,7 +1370,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     // ack over the simulated transport
     // otherwise we do
     if (chunkMessage.isFromSigma()) {
-      StarStreamSource.chunkOk(chunkMessage.getChunk().getResourceId());
+      StarStreamSource.chunkOk(chunkMessage.getChunk().getSessionId(), chunkMessage.getChunk().getResourceId());
     } else {
       ChunkOk ok = chunkMessage.replyOk();
       send(ok);
@@ -880,12 +1378,77 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
   }
 
   /**
-   * Logs the given message appending a new-line to the input parameter.
-   * @param msg The log message
+   * Handles a {@link ChunkRequest} that has not been answered in time, by asking
+   * a fallback source of its chunk, if any, and Pastry otherwise. Nothing is done
+   * if a later request for the same chunk is in charge of it.
+   *
+   * @param req The request
+   * @param now Current simulated-time
    */
-  private void log(String msg) {
-    if(doLog)
-      stream.print(CommonState.getTime() + ") " + msg + "\n");
+  private void retryChunkRequest(ChunkRequest req, long now) {
+    if (inFlightChunkRequests.isSuperseded(req.getChunkId(), req.getMessageId(), now)) {
+      return;
+    }
+    StarStreamNode fallback = inFlightChunkRequests.pollFallback(req.getChunkId(), req.getMessageId());
+    if (fallback != null) {
+      requestFromFallback(req.getSessionId(), req.getChunkId(), fallback, now);
+    } else {
+      inFlightChunkRequests.remove(req.getChunkId());
+      owner.lookupResource(req.getChunkId());
+    }
+  }
+
+  /**
+   * Asks the given fallback source for the given chunk, the previous in-flight
+   * request having failed.
+   *
+   * @param sessionId The *-Stream session id
+   * @param chunkId The chunk id
+   * @param fallback The fallback source
+   * @param now Current simulated-time
+   */
+  private void requestFromFallback(UUID sessionId, PastryId chunkId, StarStreamNode fallback, long now) {
+    ChunkRequest req = new ChunkRequest(owner, fallback, sessionId, chunkId);
+    inFlightChunkRequests.add(req, now, true);
+    if (send(req)) {
+      // cache for on-timeout expiration retries
+      rememberPendingChunkRequest(req);
+    }
+  }
+
+  /**
+   * Returns the log shared by every instance.
+   *
+   * @return The log, {@code null} if the protocol must not log its activity
+   */
+  EventLog getEventLog() {
+    return eventLog;
+  }
+
+  /**
+   * Logs an event about the given message, if logging is enabled.
+   *
+   * @param event The event
+   * @param msg The message
+   */
+  private void log(Event event, StarStreamMessage msg) {
+    if (eventLog != null) {
+      eventLog.log(EventLog.idOf(owner), event, msg);
+    }
+  }
+
+  /**
+   * Logs an event, if logging is enabled.
+   *
+   * @param event The event
+   * @param value The event value, or {@link EventLog#NO_VALUE}
+   * @param msg The message the event is about, or {@code null}
+   * @param details An object whose text describes the event, or {@code null}
+   */
+  private void log(Event event, long value, StarStreamMessage msg, Object details) {
+    if (eventLog != null) {
+      eventLog.log(EventLog.idOf(owner), event, value, msg, details);
+    }
   }
 
   /**
@@ -910,6 +1473,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   private void rememberPendingChunk(ChunkMessage chunkMessage) {
     pendingChunkMessages.put(chunkMessage.getMessageId(), chunkMessage);
+    chunkMessageTimeouts.schedule(chunkMessage, timeoutDeadline(chunkMessage));
   }
 
   /**
@@ -920,24 +1484,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    */
   private void rememberPendingChunkRequest(ChunkRequest req) {
     pendingChunkRequests.put(req.getMessageId(), req);
-  }
-
-  /**
-   * Removes the given message from the delayed incoming messages.
-   * 
-   * @param msg The message
-   */
-  private void removeFromDelayedInMessages(StarStreamMessage msg) {
-    delayedInMessages.remove(msg);
-  }
-
-  /**
-   * Removes the given message from the delayed outgoing messages.
-   *
-   * @param msg The message
-   */
-  private void removeFromDelayedOutMessages(StarStreamMessage msg) {
-    delayedOutMessages.remove(msg);
+    chunkRequestTimeouts.schedule(req, timeoutDeadline(req));
   }
 
   /**
@@ -983,6 +1530,17 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     return pastryProtocol.getNeighbors(availableInConnections);
   }
 
+  /**
+   * Returns the first simulated-time at which the given message has to be
+   * considered expired if no answer has been received.
+   *
+   * @param msg The message
+   * @return The timeout deadline
+   */
+  private long timeoutDeadline(StarStreamMessage msg) {
+    return msg.getTimeStamp() + msgTimeout + 1;
+  }
+
   /**
    * Generic send method that must be used in place of anyother {@code sendXxx} method.
    *
@@ -1019,7 +1577,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
         // NOP, the message has been surely delayed
       }
     } else {
-      log("[*** EXPIRED ***] chunk "+msg.getChunk()+" expired, chunk message not sent");
+      log(Event.EXPIRED, msg);
     }
     return sent;
   }
@@ -1035,9 +1593,13 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     if (updateUsedUpStream(msg)) {
       Transport t = (Transport) owner.getProtocol(reliableTransportPid);
       t.send(msg.getSource(), msg.getDestination(), msg, owner.getStarStreamPid());
-      log("[SND] " + msg);
+      log(Event.SEND, msg);
       sent = true;
       sentMessages++;
+      StarStreamMetrics.messageSent(msg.getType());
+      if (traceRecorder != null) {
+        traceRecorder.sent(msg);
+      }
     } else {
       // up-stream has been exhausted, the message must be delayed or dropped
       addToDelayedOutMessages(msg);
@@ -1056,9 +1618,13 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
     if (updateUsedUpStream(msg)) {
       Transport t = owner.getStarStreamTransport();
       t.send(msg.getSource(), msg.getDestination(), msg, owner.getStarStreamPid());
-      log("[SND] " + msg);
+      log(Event.SEND, msg);
       sent = true;
       sentMessages++;
+      StarStreamMetrics.messageSent(msg.getType());
+      if (traceRecorder != null) {
+        traceRecorder.sent(msg);
+      }
     } else {
       // up-stream has been exhausted, the message must be delayed or dropped
       addToDelayedOutMessages(msg);
@@ -1071,11 +1637,20 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * in the store.
    * 
    * @param chunk The chunk
+   * @param path How the chunk got here
    */
-  private boolean storeIfNotStored(Chunk<?> chunk) {
+  private boolean storeIfNotStored(Chunk<?> chunk, DeliveryPath path) {
     boolean stored = store.addChunk(chunk);
     if (stored) {
       chunksReceivedFromStarStream++;
+      recordDeliveryTime(path, chunk);
+      // the first delivery cancels the in-flight request, wherever it has been
+      // addressed to, so that it does not time out into a Pastry lookup
+      long requestId = inFlightChunkRequests.remove(chunk.getResourceId());
+      if (requestId != StarStreamMessage.NO_ID) {
+        pendingChunkRequests.remove(requestId);
+      }
+      bufferMapChanged = true;
       // the chunk has been added to the local store
       notifyChunkStoredToListeners(chunk);
     } else {
@@ -1100,7 +1675,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * @param req The request for a chunk (retransmission)
    */
   private void tryAndSendChunk(ChunkRequest req) {
-    log("[RCV] " + req);
+    log(Event.RECEIVE, req);
     Chunk<?> chunk = store.getChunk(req.getSessionId(), req.getChunkId());
     if (chunk != null) {
       // the chunk is locally available, let's reply with a chunk message
@@ -1122,12 +1697,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * {@link Boolean#TRUE} otherwise
    */
   private boolean updateUsedDownStream(StarStreamMessage msg) {
-    boolean proceed = false;
-    if(usedDownStream+msg.getType().getEstimatedBandwidth()<=downStream) {
-      usedDownStream+=msg.getType().getEstimatedBandwidth();
-      proceed = true;
-    }
-    return proceed;
+    return downStreamBucket.tryConsume(msg.getEstimatedBandwidth());
 //    return true;
   }
 
@@ -1141,12 +1711,7 @@ public class StarStreamProtocol implements EDProtocol, PastryProtocolListenerIfc
    * {@link Boolean#TRUE} otherwise
    */
   private boolean updateUsedUpStream(StarStreamMessage msg) {
-    boolean proceed = false;
-    if(usedUpStream+msg.getType().getEstimatedBandwidth()<=upStream) {
-      usedUpStream+=msg.getType().getEstimatedBandwidth();
-      proceed = true;
-    }
-    return proceed;
+    return upStreamBucket.tryConsume(msg.getEstimatedBandwidth());
 //    return true;
   }
 }
\ No newline at end of file
@@ -6,122 +6,94 @@ package com.google.code.peersim.starstream.protocol;
 
 import com.google.code.peersim.pastry.protocol.PastryId;
 import com.google.code.peersim.starstream.controls.ChunkUtils.Chunk;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.UUID;
 
 /**
  * Instances of this class are used by {@link StarStreamProtocol} instances to
  * store chunks exchanged with other nodes that must be made available to any
- * higher layer, for playback i.e.
+ * higher layer, for playback i.e.<br>
+ * Chunks of every *-Stream session are kept apart, but share the same capacity.<br>
+ * The concrete implementation is choosen by means of the
+ * {@link StarStreamProtocol#STORE_IMPL} configuration property.
  *
  * @author frusso
  * @version 0.1
  * @since 0.1
  */
-public class StarStreamStore {
+public abstract class StarStreamStore {
 
   /**
-   * Internal representation of the store.
+   * Name of the default implementation, backed by maps and sorted sets.
    */
-  private Map<UUID, Map<PastryId, Chunk<?>>> store;
-  // TODO multi-session
-  private SortedSet<Chunk<?>> orderedStore;
-  private Set<Integer> storeHistory;
-  private Set<Integer> rejectedChunksDueToExpiration;
-  private Set<Integer> rejectedChunksDueToCapacityLimit;
-  private int maxSize;
+  public static final String MAP_IMPL = "map";
+  /**
+   * Name of the implementation backed by a per-session ring buffer indexed by
+   * sequence id.
+   */
+  public static final String RING_IMPL = "ring";
 
-  public Set<Integer> getRejectedChunksDueToCapacityLimit() {
-    return Collections.unmodifiableSet(rejectedChunksDueToCapacityLimit);
+  /**
+   * Factory method.
+   *
+   * @param impl The implementation name, either {@link StarStreamStore#MAP_IMPL}
+   * or {@link StarStreamStore#RING_IMPL}
+   * @param maxSize The maximum number of chunks that can be stored
+   * @return The new store, or {@code null} if {@code impl} is unknown
+   */
+  static StarStreamStore newInstance(String impl, int maxSize) {
+    StarStreamStore store = null;
+    if (MAP_IMPL.equals(impl)) {
+      store = new MapStarStreamStore(maxSize);
+    } else if (RING_IMPL.equals(impl)) {
+      store = new RingStarStreamStore(maxSize);
+    }
+    return store;
   }
 
-  public Set<Integer> getRejectedChunksDueToExpiration() {
-    return Collections.unmodifiableSet(rejectedChunksDueToExpiration);
-  }
+  /**
+   * Returns the sequence ids of those chunks, of any session, that could have
+   * not been stored since the store was full.
+   *
+   * @return The rejected sequence ids
+   */
+  public abstract Set<Integer> getRejectedChunksDueToCapacityLimit();
+
+  /**
+   * Returns the sequence ids of those chunks of the given session that could
+   * have not been stored since the store was full.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The rejected sequence ids
+   */
+  public abstract Set<Integer> getRejectedChunksDueToCapacityLimit(UUID sessionId);
 
   /**
-   * {@inheritDoc}
+   * Returns the sequence ids of those chunks, of any session, that could have
+   * not been stored since they had already expired and had never been stored before.
+   *
+   * @return The rejected sequence ids
    */
-  @Override
-  public String toString() {
-    StringBuilder sb = new StringBuilder();
-    for (Map.Entry<UUID, Map<PastryId, Chunk<?>>> entry : store.entrySet()) {
-      UUID sid = entry.getKey();
-      purge(sid);
-      sb.append("SessionId: " + sid + "\n");
-      Map<PastryId, Chunk<?>> chunks = entry.getValue();
-      sb.append("Size: " + chunks.size() + "\n");
-      int i = 0;
-      for (Map.Entry<PastryId, Chunk<?>> chunk : chunks.entrySet()) {
-        sb.append((i++) + ") " + chunk.getValue() + "\n");
-      }
-    }
-    return sb.toString();
-  }
+  public abstract Set<Integer> getRejectedChunksDueToExpiration();
 
   /**
-   * Constructor.
+   * Returns the sequence ids of those chunks of the given session that could
+   * have not been stored since they had already expired and had never been
+   * stored before.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The rejected sequence ids
    */
-  StarStreamStore(int maxSize) {
-    store = new HashMap<UUID, Map<PastryId, Chunk<?>>>();
-    orderedStore = new TreeSet<Chunk<?>>();
-    rejectedChunksDueToExpiration = new HashSet<Integer>();
-    rejectedChunksDueToCapacityLimit = new HashSet<Integer>();
-    storeHistory = new HashSet<Integer>();
-    this.maxSize = maxSize;
-  }
+  public abstract Set<Integer> getRejectedChunksDueToExpiration(UUID sessionId);
 
   /**
    * Stores the given chunk iff it not already in the store.
    * @param chunk The chunk to be added
    * @return Whether the chunk has been added or not
    */
-  boolean addChunk(Chunk<?> chunk) {
-    boolean added = false;
-    Map<PastryId, Chunk<?>> chunks = store.get(chunk.getSessionId());
-    if(chunks!=null) {
-      if(!chunks.containsKey(chunk.getResourceId())) {
-        // the chunk has to be stored iff it has not expired yet
-        if(!chunk.isExpired()) {
-          // the chunk is valid and can be added as long as the max-size is not
-          // exceeded
-          if(size()<maxSize) {
-            added = true;
-          } else {
-            // size limit!
-            rejectedChunksDueToCapacityLimit.add(chunk.getSequenceId());
-          }
-        } else {
-          // the chunk has already expired
-          if(!storeHistory.contains(chunk.getSequenceId()))
-            rejectedChunksDueToExpiration.add(chunk.getSequenceId());
-        }
-      } else {
-        // the chunk is already in
-        // NOP
-      }
-    } else {
-      // the first time we see that session id: the chunk can be immediately stored
-      chunks = new HashMap<PastryId, Chunk<?>>();
-      store.put(chunk.getSessionId(), chunks);
-      added = true;
-    }
-    if(added) {
-      added = true;
-      chunks.put(chunk.getResourceId(), chunk);
-      orderedStore.add(chunk);
-      storeHistory.add(chunk.getSequenceId());
-    }
-    return added;
-  }
+  abstract boolean addChunk(Chunk<?> chunk);
 
   /**
    * Returns the chunk stored with the specified identifiers, or {@code null}
@@ -131,23 +103,7 @@ public class StarStreamStore {
    * @param chunkId The *-Stream chunk id
    * @return The requested chunk or {@code null} if it is not available
    */
-  Chunk<?> getChunk(UUID sessionId, PastryId chunkId) {
-    Chunk<?> chunk = null;
-    Map<PastryId, Chunk<?>> chunks = store.get(sessionId);
-    if (chunks != null) {
-      chunk = chunks.get(chunkId);
-      // remove and return null if expired
-      if (chunk != null && chunk.isExpired()) {
-        // remove from map...
-        chunks.remove(chunkId);
-        // remove from set...
-        orderedStore.remove(chunk);
-        // nullify return value
-        chunk = null;
-      }
-    }
-    return chunk;
-  }
+  abstract Chunk<?> getChunk(UUID sessionId, PastryId chunkId);
 
   /**
    * Tells whether the chunk uniquely identified by the provided *-Stream session
@@ -162,65 +118,40 @@ public class StarStreamStore {
     return getChunk(sessionId, chunkId) != null;
   }
 
-  int countContiguousChunksFromStart(UUID sessionId) {
-    int count = 1;
-    purge(sessionId);
-    Chunk<?>[] chunks = orderedStore.toArray(new Chunk<?>[orderedStore.size()]);
-    for(int i=1; i<chunks.length; i++) {
-      int right = chunks[i].getSequenceId();
-      int left = chunks[i-1].getSequenceId();
-      if(right-left==1) {
-        count++;
-      } else {
-        break;
-      }
-    }
-    return count;
-  }
+  /**
+   * Tells how many chunks with contiguous sequence ids are stored, starting
+   * from the one with the lowest sequence id.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The length of the contiguous run of chunks
+   */
+  abstract int countContiguousChunksFromStart(UUID sessionId);
 
-  List<Integer> getMissingSequenceIds(UUID sessionId) {
-    List<Integer> ids = new ArrayList<Integer>();
-    purge(sessionId);
-    Chunk<?>[] chunks = orderedStore.toArray(new Chunk<?>[orderedStore.size()]);
-    for(int i=1; i<chunks.length; i++) {
-      int right = chunks[i].getSequenceId();
-      int left = chunks[i-1].getSequenceId();
-      for(int j=left+1; j<right; j++) {
-        ids.add(j);
-      }
-    }
-    return ids;
-  }
+  /**
+   * Returns the sequence ids missing between the lowest and the highest stored
+   * ones.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The missing sequence ids, in ascending order
+   */
+  abstract List<Integer> getMissingSequenceIds(UUID sessionId);
 
-  private void purge(UUID sessionId) {
-    List<PastryId> expired = new ArrayList<PastryId>();
-    Map<PastryId, Chunk<?>> chunks = store.get(sessionId);
-    if (chunks != null) {
-      for (Map.Entry<PastryId, Chunk<?>> chunk : chunks.entrySet()) {
-        if (chunk.getValue().isExpired()) {
-          expired.add(chunk.getKey());
-        }
-      }
-      for (PastryId id : expired) {
-        // remove from map...
-        Chunk<?> removed = chunks.remove(id);
-        // remove from set...
-        orderedStore.remove(removed);
-      }
-    }
-  }
+  /**
+   * Returns the lowest sequence id among the stored chunks that have not expired.
+   *
+   * @param sessionId The *-Stream session id
+   * @return The lowest sequence id, {@code -1} if there are no such chunks
+   */
+  abstract int getLowestSequenceId(UUID sessionId);
 
   /**
-   * Tells how many chunks are stored.
+   * Returns the sequence ids of the stored chunks in [{@code from}..{@code to}),
+   * as a set of bits where bit {@code i} stands for sequence id {@code from+i}.
    *
-   * @return The number of stored chunks
+   * @param sessionId The *-Stream session id
+   * @param from The first sequence id, inclusive
+   * @param to The last sequence id, exclusive
+   * @return The bits
    */
-  private int size() {
-    int size = 0;
-    for (Map.Entry<UUID, Map<PastryId, Chunk<?>>> entry : store.entrySet()) {
-      purge(entry.getKey());
-      size += entry.getValue().size();
-    }
-    return size;
-  }
-}
\ No newline at end of file
+  abstract BitSet getSequenceIds(UUID sessionId, int from, int to);
+}
@@ -0,0 +1,65 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import peersim.core.CommonState;
+import peersim.util.FileNameGenerator;
+
+/**
+ * {@link EventLog} writing one line of text per event, messages being rendered
+ * by their {@code toString()} method.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class TextEventLog extends EventLog {
+
+  /**
+   * The stream to log to.
+   */
+  private final PrintStream stream;
+
+  /**
+   * Constructor.
+   *
+   * @param filePrefix The file name prefix
+   * @throws java.io.FileNotFoundException Thrown iff the file cannot be created
+   */
+  TextEventLog(String filePrefix) throws FileNotFoundException {
+    String file = new FileNameGenerator(filePrefix, ".log").nextCounterName();
+    stream = new PrintStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), false);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void log(long nodeId, Event event, long value, StarStreamMessage msg, Object details) {
+    stream.println(format(CommonState.getTime(), nodeId, event, value,
+            msg == null ? null : msg.toString(), details == null ? null : details.toString()));
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public synchronized void flush() {
+    stream.flush();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  synchronized void close() {
+    stream.close();
+  }
+}
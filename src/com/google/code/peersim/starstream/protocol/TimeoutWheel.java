@@ -0,0 +1,158 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel keyed on simulated-time. Each scheduled item is put into
+ * the slot its deadline hashes to, so that advancing the wheel up to the current
+ * simulated-time only visits those items whose deadline is actually due.<br>
+ * The wheel does not support explicit cancellation: items that are no longer
+ * interesting (i.e. messages that have been acked) must be discarded by the caller
+ * when they are returned by {@link TimeoutWheel#expire(long)}.
+ * <br><br>
+ * <b>Note:</b> instances of this class are not thread-safe.
+ *
+ * @param <T> The type of the scheduled items
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class TimeoutWheel<T> {
+
+  /**
+   * The wheel slots, each one being a singly-linked list of entries.
+   */
+  private final Entry<T>[] slots;
+  /**
+   * Bit-mask used to map a deadline onto its slot.
+   */
+  private final int mask;
+  /**
+   * The simulated-time up to which (inclusive) the wheel has already been advanced.
+   */
+  private long cursor;
+  /**
+   * Recycled entries, to avoid allocating one entry per scheduled item.
+   */
+  private Entry<T> free;
+  /**
+   * Reused buffer for the items returned by {@link TimeoutWheel#expire(long)}.
+   */
+  private final List<T> expired;
+
+  /**
+   * Constructor.
+   *
+   * @param horizon The maximum distance, in simulated-time units, between the
+   * current time and the deadline of any scheduled item: the wheel is sized
+   * accordingly
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  TimeoutWheel(int horizon) {
+    int size = 1;
+    while (size <= horizon) {
+      size <<= 1;
+    }
+    slots = (Entry<T>[]) new Entry[size];
+    mask = size - 1;
+    cursor = -1;
+    expired = new ArrayList<T>();
+  }
+
+  /**
+   * Schedules the given item for expiration at {@code deadline}. Deadlines that
+   * are already behind the wheel are due at the very next advancement.
+   *
+   * @param item The item
+   * @param deadline The first simulated-time at which the item has to be considered expired
+   */
+  void schedule(T item, long deadline) {
+    if (deadline <= cursor) {
+      deadline = cursor + 1;
+    }
+    Entry<T> entry = free;
+    if (entry != null) {
+      free = entry.next;
+    } else {
+      entry = new Entry<T>();
+    }
+    int slot = (int) (deadline & mask);
+    entry.item = item;
+    entry.deadline = deadline;
+    entry.next = slots[slot];
+    slots[slot] = entry;
+  }
+
+  /**
+   * Advances the wheel up to {@code currentTime} and returns the items whose
+   * deadline is less than or equal to it. Only the slots between the previous
+   * advancement and {@code currentTime} are visited, one at a time: items come
+   * out slot by slot and, within a slot, most recently scheduled first. Hence
+   * items are in deadline order only as long as the wheel is advanced at least
+   * once every {@code horizon} time units, and items sharing a deadline are not
+   * in scheduling order.<br>
+   * <b>Note:</b> the returned list is reused by the next invocation.
+   *
+   * @param currentTime The current simulated-time
+   * @return The expired items
+   */
+  List<T> expire(long currentTime) {
+    expired.clear();
+    if (currentTime > cursor) {
+      long steps = Math.min(currentTime - cursor, slots.length);
+      for (long t = cursor + 1; t <= cursor + steps; t++) {
+        expireSlot((int) (t & mask), currentTime);
+      }
+      cursor = currentTime;
+    }
+    return expired;
+  }
+
+  /**
+   * Moves every due entry of the given slot to the expired items.
+   *
+   * @param slot The slot index
+   * @param currentTime The current simulated-time
+   */
+  private void expireSlot(int slot, long currentTime) {
+    Entry<T> prev = null;
+    Entry<T> entry = slots[slot];
+    while (entry != null) {
+      Entry<T> next = entry.next;
+      if (entry.deadline <= currentTime) {
+        // unlink...
+        if (prev == null) {
+          slots[slot] = next;
+        } else {
+          prev.next = next;
+        }
+        expired.add(entry.item);
+        // ...and recycle
+        entry.item = null;
+        entry.next = free;
+        free = entry;
+      } else {
+        // belongs to a later revolution of the wheel
+        prev = entry;
+      }
+      entry = next;
+    }
+  }
+
+  /**
+   * Wheel entry.
+   *
+   * @param <T> The type of the scheduled item
+   */
+  private static class Entry<T> {
+
+    private T item;
+    private long deadline;
+    private Entry<T> next;
+  }
+}
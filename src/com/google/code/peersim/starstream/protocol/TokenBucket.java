@@ -0,0 +1,84 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+/**
+ * Token-bucket model of a link bandwidth, measured in the same units as
+ * {@link com.google.code.peersim.starstream.protocol.messages.StarStreamMessage#getEstimatedBandwidth()}.
+ * At each simulated-time tick the bucket is refilled with {@code rate} tokens,
+ * up to {@code burst} tokens; sending or receiving a message takes as many tokens
+ * as its estimated bandwidth. Of the tokens left unused by a tick, only the
+ * {@code carryOver} fraction is still available at the next one.<br>
+ * With a burst equal to the rate and no carry-over, the model is a hard per-tick
+ * budget.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class TokenBucket {
+
+  /**
+   * Tokens added at each tick.
+   */
+  private final double rate;
+  /**
+   * Max number of tokens.
+   */
+  private final double burst;
+  /**
+   * Fraction of the unused tokens carried over to the next tick.
+   */
+  private final double carryOver;
+  /**
+   * Available tokens.
+   */
+  private double tokens;
+
+  /**
+   * Constructor. The bucket starts with one tick worth of tokens, that is {@code rate}.
+   *
+   * @param rate Tokens added at each tick
+   * @param burst Max number of tokens, not less than {@code rate}
+   * @param carryOver Fraction, in [0..1], of the unused tokens carried over to the next tick
+   */
+  TokenBucket(double rate, double burst, double carryOver) {
+    this.rate = rate;
+    this.burst = burst;
+    this.carryOver = carryOver;
+    this.tokens = Math.min(rate, burst);
+  }
+
+  /**
+   * Refills the bucket for a new tick.
+   */
+  void refill() {
+    tokens = Math.min(burst, tokens * carryOver + rate);
+  }
+
+  /**
+   * Takes the given number of tokens, if available.
+   *
+   * @param amount The number of tokens
+   * @return Whether the tokens were available and have been taken
+   */
+  boolean tryConsume(int amount) {
+    boolean consumed = false;
+    if (tokens >= amount) {
+      tokens -= amount;
+      consumed = true;
+    }
+    return consumed;
+  }
+
+  /**
+   * Tells how many whole tokens are available.
+   *
+   * @return The available tokens
+   */
+  int available() {
+    return (int) tokens;
+  }
+}
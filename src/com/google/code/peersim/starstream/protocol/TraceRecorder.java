@@ -0,0 +1,302 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.controls.ChunkUtils;
+import com.google.code.peersim.starstream.controls.StarStreamSource;
+import com.google.code.peersim.starstream.protocol.messages.BufferMap;
+import com.google.code.peersim.starstream.protocol.messages.ChunkAdvertisement;
+import com.google.code.peersim.starstream.protocol.messages.ChunkMessage;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import peersim.core.CommonState;
+import peersim.util.FileNameGenerator;
+
+/**
+ * Records every message sent and received by *-Stream nodes, and sent by the
+ * streaming source, as fixed-width binary records written to a memory-mapped file,
+ * so that runs can be analysed after the fact without re-simulating them (see
+ * {@link com.google.code.peersim.starstream.tools.TraceAnalyzer}).<br>
+ * The file begins with a {@link TraceRecorder#HEADER_SIZE}-byte header made of
+ * {@link TraceRecorder#MAGIC}, {@link TraceRecorder#VERSION}, {@link TraceRecorder#RECORD_SIZE}
+ * (all {@code int}s) and the {@code long} number of records, written when the
+ * JVM exits. Each record is then laid out as follows, in big-endian order:
+ * <ul>
+ * <li>{@code long} simulated time</li>
+ * <li>{@code long} message id</li>
+ * <li>{@code long} source node id, {@code -1} for the streaming source</li>
+ * <li>{@code long} destination node id</li>
+ * <li>{@code int} chunk sequence id, the first one for buffer maps, {@code -1} if the
+ * message is not about a known chunk</li>
+ * <li>{@code short} session index, that is the position of the *-Stream session
+ * of the chunk among the configured sources (see {@link StarStreamSource#getSessionIndex(java.util.UUID)}),
+ * {@code -1} if the message is not about a single session</li>
+ * <li>{@code int} hops</li>
+ * <li>{@code int} estimated bandwidth</li>
+ * <li>{@code short} retries</li>
+ * <li>{@code byte} event, either {@link TraceRecorder#SEND} or {@link TraceRecorder#RECEIVE}</li>
+ * <li>{@code byte} message type ordinal</li>
+ * </ul>
+ * The file grows by {@link TraceRecorder#SEGMENT_RECORDS} records at a time,
+ * and is truncated to the records it holds once closed.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public final class TraceRecorder {
+
+  /**
+   * First bytes of every trace.
+   */
+  public static final int MAGIC = 0x53535452;
+  /**
+   * Version of the record layout.
+   */
+  public static final int VERSION = 2;
+  /**
+   * Size of the file header, in bytes.
+   */
+  public static final int HEADER_SIZE = 24;
+  /**
+   * Size of each record, in bytes.
+   */
+  public static final int RECORD_SIZE = 50;
+  /**
+   * How many records each mapped segment of the file can hold.
+   */
+  public static final int SEGMENT_RECORDS = 1 << 18;
+  /**
+   * Value of the event field for sent messages.
+   */
+  public static final byte SEND = 0;
+  /**
+   * Value of the event field for received messages.
+   */
+  public static final byte RECEIVE = 1;
+  /**
+   * The recorders opened so far, by file name prefix.
+   */
+  private static final Map<String, TraceRecorder> recorders = new HashMap<String, TraceRecorder>();
+  /**
+   * The hook closing every recorder at JVM exit, {@code null} until some recorder
+   * is opened.
+   */
+  private static Thread closeHook;
+  /**
+   * The trace file.
+   */
+  private final RandomAccessFile file;
+  /**
+   * The mapped segment being filled.
+   */
+  private MappedByteBuffer segment;
+  /**
+   * Index of {@link TraceRecorder#segment}.
+   */
+  private long segmentIndex = -1;
+  /**
+   * How many records have been written so far.
+   */
+  private long records = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param filePrefix The file name prefix
+   * @throws java.io.IOException Thrown iff the file cannot be created
+   */
+  private TraceRecorder(String filePrefix) throws IOException {
+    file = new RandomAccessFile(new FileNameGenerator(filePrefix, ".trace").nextCounterName(), "rw");
+    file.setLength(0);
+    writeHeader();
+  }
+
+  /**
+   * Returns the recorder writing to the file with the given name prefix, opening
+   * it the first time it is asked for: every caller passing the same prefix shares
+   * the same recorder, and the same file.
+   *
+   * @param filePrefix The file name prefix
+   * @return The recorder
+   * @throws java.io.IOException Thrown iff the file cannot be created
+   */
+  public static synchronized TraceRecorder open(String filePrefix) throws IOException {
+    TraceRecorder recorder = recorders.get(filePrefix);
+    if (recorder == null) {
+      recorder = new TraceRecorder(filePrefix);
+      recorders.put(filePrefix, recorder);
+      if (closeHook == null) {
+        closeHook = new Thread("starstream-trace-close") {
+
+          @Override
+          public void run() {
+            closeRecorders();
+          }
+        };
+        Runtime.getRuntime().addShutdownHook(closeHook);
+      }
+    }
+    return recorder;
+  }
+
+  /**
+   * Writes down the headers of every recorder opened so far, releases their files
+   * and unregisters the hook closing them at JVM exit, so that nothing keeps referring
+   * to this class once the simulation is over.
+   */
+  public static synchronized void closeAll() {
+    closeRecorders();
+    if (closeHook != null) {
+      Runtime.getRuntime().removeShutdownHook(closeHook);
+      closeHook = null;
+    }
+  }
+
+  /**
+   * Writes down the headers of every recorder opened so far and releases their files.
+   */
+  private static synchronized void closeRecorders() {
+    for (TraceRecorder recorder : recorders.values()) {
+      recorder.close();
+    }
+    recorders.clear();
+  }
+
+  /**
+   * Records that the given message has been sent.
+   *
+   * @param msg The message
+   */
+  public void sent(StarStreamMessage msg) {
+    record(SEND, msg);
+  }
+
+  /**
+   * Records that the given message has been received.
+   *
+   * @param msg The message
+   */
+  public void received(StarStreamMessage msg) {
+    record(RECEIVE, msg);
+  }
+
+  /**
+   * Appends a record.
+   *
+   * @param event Either {@link TraceRecorder#SEND} or {@link TraceRecorder#RECEIVE}
+   * @param msg The message
+   */
+  private synchronized void record(byte event, StarStreamMessage msg) {
+    long index = records / SEGMENT_RECORDS;
+    if (index != segmentIndex) {
+      map(index);
+    }
+    segment.putLong(CommonState.getTime());
+    segment.putLong(msg.getMessageId());
+    segment.putLong(EventLog.idOf(msg.getSource()));
+    segment.putLong(EventLog.idOf(msg.getDestination()));
+    segment.putInt(sequenceIdOf(msg));
+    segment.putShort((short) sessionIndexOf(msg));
+    segment.putInt(msg.getHops());
+    segment.putInt(msg.getEstimatedBandwidth());
+    segment.putShort((short) Math.min(Short.MAX_VALUE, msg.getRetries()));
+    segment.put(event);
+    segment.put((byte) msg.getType().ordinal());
+    records++;
+  }
+
+  /**
+   * Maps the segment with the given index, growing the file.
+   *
+   * @param index The segment index
+   */
+  private void map(long index) {
+    try {
+      if (segment != null) {
+        segment.force();
+      }
+      long size = (long) SEGMENT_RECORDS * RECORD_SIZE;
+      segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + index * size, size);
+      segmentIndex = index;
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot map the trace file. See nested exceptions, please.", e);
+    }
+  }
+
+  /**
+   * Writes the file header.
+   *
+   * @throws java.io.IOException Thrown iff the header cannot be written
+   */
+  private void writeHeader() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putLong(records);
+    header.flip();
+    file.getChannel().write(header, 0);
+  }
+
+  /**
+   * Writes down the header, truncates the file to the records written and releases
+   * the file.
+   */
+  private synchronized void close() {
+    try {
+      if (segment != null) {
+        segment.force();
+        segment = null;
+      }
+      writeHeader();
+      file.setLength(HEADER_SIZE + records * RECORD_SIZE);
+      file.close();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot close the trace file. See nested exceptions, please.", e);
+    }
+  }
+
+  /**
+   * Returns the sequence id of the single chunk the given message is about.
+   *
+   * @param msg The message
+   * @return The sequence id, {@code -1} if there is no such chunk or it is not known
+   */
+  private static int sequenceIdOf(StarStreamMessage msg) {
+    int seqId = -1;
+    if (msg instanceof ChunkMessage) {
+      seqId = ((ChunkMessage) msg).getChunk().getSequenceId();
+    } else if (msg instanceof ChunkAdvertisement) {
+      ChunkAdvertisement adv = (ChunkAdvertisement) msg;
+      seqId = ChunkUtils.getSequenceIdForChunkId(adv.getSessionId(), adv.getChunkId());
+    } else if (msg instanceof BufferMap) {
+      seqId = ((BufferMap) msg).getFirstSequenceId();
+    }
+    return seqId;
+  }
+
+  /**
+   * Returns the index of the single *-Stream session the given message is about.
+   *
+   * @param msg The message
+   * @return The session index, {@code -1} if there is no such session or it is not known
+   */
+  private static int sessionIndexOf(StarStreamMessage msg) {
+    UUID sessionId = null;
+    if (msg instanceof ChunkMessage) {
+      sessionId = ((ChunkMessage) msg).getChunk().getSessionId();
+    } else if (msg instanceof ChunkAdvertisement) {
+      sessionId = ((ChunkAdvertisement) msg).getSessionId();
+    } else if (msg instanceof BufferMap) {
+      sessionId = ((BufferMap) msg).getSessionId();
+    }
+    return sessionId == null ? -1 : StarStreamSource.getSessionIndex(sessionId);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol;
+
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage.Type;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link DelayedMessageQueue} implementing deficit round robin over <i>flows</i>,
+ * a flow being made of the messages of the same {@link Type} addressed to the same
+ * destination. Each round visits the flows in turn and lets each one through for
+ * up to a quantum of estimated bandwidth, proportional to the weight of its message
+ * type, before moving to the next one: destinations get a fair share of the
+ * bandwidth, whatever the number of messages they are sent, and within each
+ * destination more urgent types (lower {@link Type#getPriority()} values) get a
+ * larger share without starving the others.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+class WeightedFairDelayedMessageQueue extends DelayedMessageQueue {
+
+  /**
+   * Estimated bandwidth granted to a flow of weight 1 at each visit.
+   */
+  static final int QUANTUM = 1024;
+
+  /**
+   * The messages of the same type addressed to the same destination.
+   */
+  private static class Flow {
+
+    private final ArrayDeque<StarStreamMessage> messages = new ArrayDeque<StarStreamMessage>();
+    private final int quantum;
+    private int deficit;
+    private int inRound;
+
+    Flow(int quantum) {
+      this.quantum = quantum;
+    }
+  }
+  /**
+   * The weight of each message type, by ordinal.
+   */
+  private final int[] weights;
+  /**
+   * The flows, by destination and message type ordinal, in order of creation:
+   * destinations whose flows are all empty are dropped at the beginning of every
+   * round, so that only destinations with queued messages are visited.
+   */
+  private final Map<StarStreamNode, Flow[]> flows = new LinkedHashMap<StarStreamNode, Flow[]>();
+  /**
+   * The flows still having messages in the current round, in visiting order.
+   */
+  private final ArrayDeque<Flow> active = new ArrayDeque<Flow>();
+  /**
+   * Total number of queued messages.
+   */
+  private int size;
+
+  /**
+   * Constructor.
+   */
+  WeightedFairDelayedMessageQueue() {
+    Type[] types = Type.values();
+    int maxPriority = 0;
+    for (Type type : types) {
+      maxPriority = Math.max(maxPriority, type.getPriority());
+    }
+    weights = new int[types.length];
+    for (Type type : types) {
+      weights[type.ordinal()] = maxPriority + 1 - type.getPriority();
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void add(StarStreamMessage msg) {
+    Flow[] destinationFlows = flows.get(msg.getDestination());
+    if (destinationFlows == null) {
+      destinationFlows = new Flow[weights.length];
+      flows.put(msg.getDestination(), destinationFlows);
+    }
+    int type = msg.getType().ordinal();
+    Flow flow = destinationFlows[type];
+    if (flow == null) {
+      flow = new Flow(weights[type] * QUANTUM);
+      destinationFlows[type] = flow;
+    }
+    flow.messages.addLast(msg);
+    size++;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  int size() {
+    return size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  void beginDrain() {
+    active.clear();
+    Iterator<Flow[]> it = flows.values().iterator();
+    while (it.hasNext()) {
+      boolean empty = true;
+      for (Flow flow : it.next()) {
+        if (flow != null && !flow.messages.isEmpty()) {
+          flow.inRound = flow.messages.size();
+          flow.deficit = 0;
+          active.addLast(flow);
+          empty = false;
+        }
+      }
+      if (empty) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  StarStreamMessage poll() {
+    StarStreamMessage msg = null;
+    while (msg == null && !active.isEmpty()) {
+      Flow flow = active.peekFirst();
+      int cost = flow.messages.peekFirst().getEstimatedBandwidth();
+      if (flow.deficit >= cost) {
+        flow.deficit -= cost;
+        flow.inRound--;
+        size--;
+        msg = flow.messages.pollFirst();
+        if (flow.inRound == 0) {
+          active.pollFirst();
+          flow.deficit = 0;
+        }
+      } else {
+        // the flow has used up its share for this visit: on to the next one
+        flow.deficit += flow.quantum;
+        active.addLast(active.pollFirst());
+      }
+    }
+    return msg;
+  }
+}
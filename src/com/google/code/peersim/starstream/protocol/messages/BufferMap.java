@@ -0,0 +1,132 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.protocol.StarStreamNode;
+import java.util.BitSet;
+import java.util.UUID;
+
+/**
+ * This message is used to tell a neighbor which chunks of a *-Stream session
+ * are available at the sending node. Availability is expressed for a window of
+ * {@link BufferMap#getLength()} contiguous sequence ids starting from
+ * {@link BufferMap#getFirstSequenceId()}, by means of one bit per sequence id.
+ * Interested nodes have to reply this message with the appropriate {@link ChunkRequest}s
+ * to obtain the chunks they miss.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class BufferMap extends StarStreamMessage {
+
+  /**
+   * The session the advertised chunks belong to.
+   */
+  private final UUID sessionId;
+  /**
+   * The sequence id bit {@code 0} stands for.
+   */
+  private final int firstSequenceId;
+  /**
+   * The number of sequence ids the window spans.
+   */
+  private final int length;
+  /**
+   * The available chunks, bit {@code i} stands for sequence id {@code firstSequenceId+i}.
+   */
+  private final BitSet chunks;
+
+  /**
+   * Constructor. When creating a new instance, the specified source is also used to
+   * initialize the message originator.
+   *
+   * @param src The sender
+   * @param dst The destination
+   * @param sessionId The session id
+   * @param firstSequenceId The first sequence id of the window
+   * @param length The number of sequence ids the window spans
+   * @param chunks The available chunks, bit {@code i} standing for sequence id
+   * {@code firstSequenceId+i}
+   */
+  public BufferMap(StarStreamNode src, StarStreamNode dst, UUID sessionId, int firstSequenceId, int length, BitSet chunks) {
+    super(src, dst);
+    if(src==null) throw new IllegalArgumentException("The source cannot be 'null'");
+    if(dst==null) throw new IllegalArgumentException("The destination cannot be 'null'");
+    if(sessionId==null) throw new IllegalArgumentException("The session id cannot be 'null'");
+    if(chunks==null) throw new IllegalArgumentException("The chunks cannot be 'null'");
+    this.sessionId = sessionId;
+    this.firstSequenceId = firstSequenceId;
+    this.length = length;
+    this.chunks = chunks;
+  }
+
+  /**
+   * Returns the first sequence id of the window.
+   *
+   * @return The first sequence id
+   */
+  public int getFirstSequenceId() {
+    return firstSequenceId;
+  }
+
+  /**
+   * Returns the number of sequence ids the window spans.
+   *
+   * @return The window length
+   */
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the session id of the advertised chunks.
+   *
+   * @return The session id
+   */
+  public UUID getSessionId() {
+    return sessionId;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Type getType() {
+    return StarStreamMessage.Type.BUFFER_MAP;
+  }
+
+  /**
+   * Returns the lowest sequence id, not lower than {@code seqId}, that is available
+   * at the sending node.
+   *
+   * @param seqId The sequence id to start from
+   * @return The next available sequence id, or {@code -1} if there is none
+   */
+  public int nextAvailable(int seqId) {
+    int next = chunks.nextSetBit(Math.max(0, seqId - firstSequenceId));
+    return (next >= 0 && next < length) ? firstSequenceId + next : -1;
+  }
+
+  /**
+   * Creates a {@link ChunkRequest} message used to show interest in obtaining
+   * one of the available chunks from the sending node.
+   *
+   * @param chunkId The identifier of the chunk
+   * @return The {@link ChunkRequest} message
+   */
+  public ChunkRequest replyWithChunkReq(PastryId chunkId) {
+    return new ChunkRequest(getDestination(), getSource(), sessionId, chunkId);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return super.toString()+" Sid: "+sessionId+" First: "+firstSequenceId+" Chunks: "+chunks+" Timestamp: "+getTimeStamp();
+  }
+}
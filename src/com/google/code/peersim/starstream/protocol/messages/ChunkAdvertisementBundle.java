@@ -0,0 +1,146 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+import com.google.code.peersim.pastry.protocol.PastryId;
+import com.google.code.peersim.starstream.protocol.StarStreamNode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * This message is used to advertise, all at once, the availability of many chunks
+ * at the (at least) advertising node. It carries the same information as many
+ * {@link ChunkAdvertisement}s addressed to the same node, that is a list of
+ * (session identifier, chunk identifier) pairs, but it is sent and charged
+ * only once.<br>
+ * Interested nodes have to reply this message with the appropriate {@link ChunkRequest}s
+ * to obtain the advertised chunks.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class ChunkAdvertisementBundle extends StarStreamMessage {
+
+  /**
+   * Estimated weight of each advertised chunk beyond the first one, that is a
+   * session identifier (128) plus a chunk identifier (128).
+   */
+  public static final int ENTRY_BANDWIDTH = 128 + 128;
+  /**
+   * The advertised chunks' session identifiers.
+   */
+  private final List<UUID> sessionIds = new ArrayList<UUID>();
+  /**
+   * The advertised chunks' unique identifiers.
+   */
+  private final List<PastryId> chunkIds = new ArrayList<PastryId>();
+
+  /**
+   * Constructor. When creating a new instance, the specified source is also used to
+   * initialize the message originator. The bundle is empty and must be filled by
+   * means of {@link ChunkAdvertisementBundle#add(java.util.UUID, com.google.code.peersim.pastry.protocol.PastryId)}
+   * before being sent.
+   *
+   * @param src The sender
+   * @param dst The destination
+   */
+  public ChunkAdvertisementBundle(StarStreamNode src, StarStreamNode dst) {
+    super(src, dst);
+    if(src==null) throw new IllegalArgumentException("The source cannot be 'null'");
+    if(dst==null) throw new IllegalArgumentException("The destination cannot be 'null'");
+  }
+
+  /**
+   * Adds the given chunk to the advertised ones, unless it is already there.
+   *
+   * @param sessionId The chunk session id
+   * @param chunkId The chunk identifier
+   * @return Whether the chunk has been added or not
+   */
+  public boolean add(UUID sessionId, PastryId chunkId) {
+    if(chunkId==null) throw new IllegalArgumentException("The chunk identifier cannot be 'null'");
+    if(sessionId==null) throw new IllegalArgumentException("The chunk session id cannot be 'null'");
+    boolean added = false;
+    if(!contains(sessionId, chunkId)) {
+      sessionIds.add(sessionId);
+      chunkIds.add(chunkId);
+      added = true;
+    }
+    return added;
+  }
+
+  /**
+   * Returns the identifier of the i-th advertised chunk.
+   *
+   * @param i The chunk index, in [0..{@link ChunkAdvertisementBundle#size()})
+   * @return The chunk unique identifier
+   */
+  public PastryId getChunkId(int i) {
+    return chunkIds.get(i);
+  }
+
+  /**
+   * Returns the session id of the i-th advertised chunk.
+   *
+   * @param i The chunk index, in [0..{@link ChunkAdvertisementBundle#size()})
+   * @return The session id
+   */
+  public UUID getSessionId(int i) {
+    return sessionIds.get(i);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Type getType() {
+    return StarStreamMessage.Type.CHUNK_ADV_BUNDLE;
+  }
+
+  /**
+   * Creates a {@link ChunkRequest} message used to show interest in obtaining
+   * the i-th advertised chunk from the advertising node.
+   *
+   * @param i The chunk index, in [0..{@link ChunkAdvertisementBundle#size()})
+   * @return The {@link ChunkRequest} message
+   */
+  public ChunkRequest replyWithChunkReq(int i) {
+    return new ChunkRequest(getDestination(), getSource(), getSessionId(i), getChunkId(i));
+  }
+
+  /**
+   * Returns the number of advertised chunks.
+   *
+   * @return The number of advertised chunks
+   */
+  public int size() {
+    return chunkIds.size();
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public String toString() {
+    return super.toString()+" Ids: "+chunkIds+" Timestamp: "+getTimeStamp();
+  }
+
+  /**
+   * Tells whether the given chunk is already advertised by this bundle.
+   *
+   * @param sessionId The chunk session id
+   * @param chunkId The chunk identifier
+   * @return Whether the chunk is already advertised or not
+   */
+  private boolean contains(UUID sessionId, PastryId chunkId) {
+    for(int i=0; i<chunkIds.size(); i++) {
+      if(chunkIds.get(i).equals(chunkId) && sessionIds.get(i).equals(sessionId))
+        return true;
+    }
+    return false;
+  }
+}
@@ -27,7 +27,7 @@ public class ChunkKo extends ChunkRequest {
    * @param chunkId The chunk ID
    * @param correlationId The correlation ID
    */
-  ChunkKo(StarStreamNode src, StarStreamNode dst, UUID sessionId, PastryId chunkId, UUID correlationId) {
+  ChunkKo(StarStreamNode src, StarStreamNode dst, UUID sessionId, PastryId chunkId, long correlationId) {
     super(src, dst, sessionId, chunkId);
     setCorrelationId(correlationId);
   }
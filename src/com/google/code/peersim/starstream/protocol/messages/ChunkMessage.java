@@ -10,7 +10,6 @@ import com.google.code.peersim.starstream.controls.ChunkUtils.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
-import java.util.UUID;
 import peersim.core.CommonState;
 
 /**
@@ -50,7 +49,7 @@ public class ChunkMessage extends StarStreamMessage {
    * @param retry
    * @param correlationId
    */
-  ChunkMessage(StarStreamNode src, StarStreamNode dst, Chunk chunk, int retry, UUID correlationId) {
+  ChunkMessage(StarStreamNode src, StarStreamNode dst, Chunk chunk, int retry, long correlationId) {
     super(src, dst);
     if(chunk==null) throw new IllegalArgumentException("The chunk cannot be 'null'");
     this.chunk = chunk;
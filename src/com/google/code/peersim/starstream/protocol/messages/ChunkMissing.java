@@ -30,7 +30,7 @@ public class ChunkMissing extends ChunkAdvertisement {
    * @param chunkId The chunk ID
    * @param correlationId The {@link ChunkRequest} message ID
    */
-  ChunkMissing(StarStreamNode src, StarStreamNode dst, UUID sessionId, PastryId chunkId, UUID correlationId) {
+  ChunkMissing(StarStreamNode src, StarStreamNode dst, UUID sessionId, PastryId chunkId, long correlationId) {
     super(src, dst, sessionId, chunkId);
     setCorrelationId(correlationId);
   }
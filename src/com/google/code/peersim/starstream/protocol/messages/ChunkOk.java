@@ -25,7 +25,7 @@ public class ChunkOk extends ChunkKo {
    * @param chunkId The chunk ID
    * @param correlationId The correlation ID
    */
-  ChunkOk(StarStreamNode src, StarStreamNode dst, UUID sessionId, PastryId chunkId, UUID correlationId) {
+  ChunkOk(StarStreamNode src, StarStreamNode dst, UUID sessionId, PastryId chunkId, long correlationId) {
     super(src, dst, sessionId, chunkId, correlationId);
   }
 
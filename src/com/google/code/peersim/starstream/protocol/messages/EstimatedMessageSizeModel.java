@@ -0,0 +1,42 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+/**
+ * Weighs messages by means of the fixed figures returned by
+ * {@link StarStreamMessage.Type#getEstimatedBandwidth()}, increased only for the
+ * messages carrying a variable number of entries: every advertised chunk beyond
+ * the first one of a {@link ChunkAdvertisementBundle}, and the window of a
+ * {@link BufferMap}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class EstimatedMessageSizeModel implements MessageSizeModelIfc {
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int sizeOf(StarStreamMessage msg) {
+    int size = sizeOf(msg.getType());
+    if (msg instanceof ChunkAdvertisementBundle) {
+      size += Math.max(0, ((ChunkAdvertisementBundle) msg).size() - 1) * ChunkAdvertisementBundle.ENTRY_BANDWIDTH;
+    } else if (msg instanceof BufferMap) {
+      // the first sequence id (32) plus one bit per sequence id
+      size += 32 + ((BufferMap) msg).getLength();
+    }
+    return size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int sizeOf(StarStreamMessage.Type type) {
+    return type.getEstimatedBandwidth();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+import com.google.code.peersim.starstream.controls.StarStreamSource;
+
+/**
+ * Weighs messages by adding up the fields they actually carry:
+ * <ul>
+ * <li>a {@link MeasuredMessageSizeModel#HEADER_SIZE}-bit header shared by every
+ * message: type, message and correlation identifiers, originator, source and
+ * destination addresses, hops and creation time</li>
+ * <li>session and chunk identifiers for advertisements, requests and replies</li>
+ * <li>session and chunk identifiers, sequence id, creation time, time-to-live and
+ * the payload bytes for chunks (see {@link com.google.code.peersim.starstream.controls.ChunkUtils.Chunk#getPayloadSize()})</li>
+ * <li>the number of entries plus session and chunk identifiers per entry for
+ * advertisement bundles</li>
+ * <li>session identifier, window bounds and the window bitmap, rounded up to
+ * whole bytes, for buffer maps</li>
+ * </ul>
+ * Typical {@link StarStreamMessage.Type#CHUNK} messages are assumed to carry the
+ * nominal chunk payload configured for the sources (see {@link StarStreamSource#getNominalChunkPayloadSize()}),
+ * so that the typical sizes only depend on the configuration.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class MeasuredMessageSizeModel implements MessageSizeModelIfc {
+
+  /**
+   * Bits of the header every message carries: type (8), message and correlation
+   * identifiers (64 each), originator, source and destination addresses (128 each),
+   * hops (32) and creation time (64).
+   */
+  public static final int HEADER_SIZE = 8 + 64 + 64 + 3 * 128 + 32 + 64;
+  /**
+   * Bits of a session identifier.
+   */
+  public static final int SESSION_ID_SIZE = 128;
+  /**
+   * Bits of a chunk identifier.
+   */
+  public static final int CHUNK_ID_SIZE = 128;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int sizeOf(StarStreamMessage msg) {
+    int size;
+    if (msg instanceof ChunkMessage) {
+      size = sizeOfChunk(((ChunkMessage) msg).getChunk().getPayloadSize());
+    } else if (msg instanceof ChunkAdvertisementBundle) {
+      size = HEADER_SIZE + 32 + ((ChunkAdvertisementBundle) msg).size() * (SESSION_ID_SIZE + CHUNK_ID_SIZE);
+    } else if (msg instanceof BufferMap) {
+      size = HEADER_SIZE + SESSION_ID_SIZE + 32 + 32 + (((BufferMap) msg).getLength() + 7) / 8 * 8;
+    } else {
+      size = sizeOf(msg.getType());
+    }
+    return size;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public int sizeOf(StarStreamMessage.Type type) {
+    int size;
+    switch (type) {
+      case CHUNK:
+        size = sizeOfChunk(StarStreamSource.getNominalChunkPayloadSize());
+        break;
+      case CHUNK_ADV_BUNDLE:
+        // a single entry
+        size = HEADER_SIZE + 32 + SESSION_ID_SIZE + CHUNK_ID_SIZE;
+        break;
+      case BUFFER_MAP:
+        // an empty window
+        size = HEADER_SIZE + SESSION_ID_SIZE + 32 + 32;
+        break;
+      default:
+        size = HEADER_SIZE + SESSION_ID_SIZE + CHUNK_ID_SIZE;
+    }
+    return size;
+  }
+
+  /**
+   * Returns the number of bits a chunk message carrying the given payload weighs.
+   *
+   * @param payloadSize The payload bytes
+   * @return The number of bits
+   */
+  private static int sizeOfChunk(int payloadSize) {
+    // sequence id (32), creation time (64) and time-to-live (32) plus the payload
+    return HEADER_SIZE + SESSION_ID_SIZE + CHUNK_ID_SIZE + 32 + 64 + 32 + payloadSize * 8;
+  }
+}
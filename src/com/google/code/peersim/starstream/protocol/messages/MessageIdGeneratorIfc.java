@@ -0,0 +1,37 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+import com.google.code.peersim.starstream.protocol.StarStreamNode;
+
+/**
+ * Strategy for assigning unique identifiers to {@link StarStreamMessage}s.
+ * Identifiers are plain {@code long} values that must never be equal to
+ * {@link StarStreamMessage#NO_ID}, and must be generated without resorting to
+ * any source of entropy, so that simulations are reproducible.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public interface MessageIdGeneratorIfc {
+
+  /**
+   * Name of the {@link SequentialMessageIdGenerator} scheme.
+   */
+  public static final String SEQUENTIAL = "sequential";
+  /**
+   * Name of the {@link PerNodeMessageIdGenerator} scheme.
+   */
+  public static final String PER_NODE = "perNode";
+
+  /**
+   * Returns a new unique message identifier.
+   *
+   * @param src The node that is creating the message, {@code null} for the source
+   * @return The identifier
+   */
+  public long nextId(StarStreamNode src);
+}
@@ -0,0 +1,42 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+/**
+ * Strategy for telling how many bits {@link StarStreamMessage}s weigh on the
+ * wire, that is how much bandwidth they consume when sent and received.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public interface MessageSizeModelIfc {
+
+  /**
+   * Name of the {@link EstimatedMessageSizeModel} model.
+   */
+  public static final String ESTIMATED = "estimated";
+  /**
+   * Name of the {@link MeasuredMessageSizeModel} model.
+   */
+  public static final String MEASURED = "measured";
+
+  /**
+   * Returns the number of bits the given message weighs.
+   *
+   * @param msg The message
+   * @return The number of bits
+   */
+  public int sizeOf(StarStreamMessage msg);
+
+  /**
+   * Returns the number of bits a typical message of the given type weighs, for
+   * those decisions that are taken before any actual message exists.
+   *
+   * @param type The message type
+   * @return The number of bits
+   */
+  public int sizeOf(StarStreamMessage.Type type);
+}
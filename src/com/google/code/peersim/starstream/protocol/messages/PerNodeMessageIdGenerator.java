@@ -0,0 +1,40 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+import com.google.code.peersim.starstream.protocol.StarStreamNode;
+
+/**
+ * Assigns message identifiers by means of one counter per node: the upper 32
+ * bits of an identifier tell the node that created the message (the source
+ * being {@code 0}), the lower 32 bits are that node's counter. Identifiers thus
+ * do not depend on the order nodes create their messages in.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class PerNodeMessageIdGenerator implements MessageIdGeneratorIfc {
+
+  /**
+   * Per-node counters, indexed by {@code node.getID()+1}.
+   */
+  private long[] counters = new long[1024];
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long nextId(StarStreamNode src) {
+    int index = (src == null) ? 0 : (int) src.getID() + 1;
+    if (index >= counters.length) {
+      long[] grown = new long[Math.max(index + 1, counters.length * 2)];
+      System.arraycopy(counters, 0, grown, 0, counters.length);
+      counters = grown;
+    }
+    long local = ++counters[index];
+    return ((long) index << 32) | (local & 0xFFFFFFFFL);
+  }
+}
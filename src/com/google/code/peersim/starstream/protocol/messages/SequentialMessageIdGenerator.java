@@ -0,0 +1,31 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.protocol.messages;
+
+import com.google.code.peersim.starstream.protocol.StarStreamNode;
+
+/**
+ * Assigns message identifiers by means of a single counter shared by every node:
+ * messages are numbered in creation order, starting from {@code 1}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class SequentialMessageIdGenerator implements MessageIdGeneratorIfc {
+
+  /**
+   * The last assigned identifier.
+   */
+  private long counter = StarStreamMessage.NO_ID;
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public long nextId(StarStreamNode src) {
+    return ++counter;
+  }
+}
@@ -5,7 +5,6 @@
 package com.google.code.peersim.starstream.protocol.messages;
 
 import com.google.code.peersim.starstream.protocol.*;
-import java.util.UUID;
 import peersim.core.CommonState;
 
 /**
@@ -28,6 +27,51 @@ import peersim.core.CommonState;
  */
 public abstract class StarStreamMessage implements Comparable<StarStreamMessage> {
 
+  /**
+   * Value of {@link StarStreamMessage#getCorrelationId()} for messages that are
+   * not related to any other message. No message is ever assigned this identifier.
+   */
+  public static final long NO_ID = 0;
+  /**
+   * The scheme message identifiers are assigned with.
+   */
+  private static MessageIdGeneratorIfc idGenerator = new SequentialMessageIdGenerator();
+  /**
+   * The model messages are weighed with.
+   */
+  private static MessageSizeModelIfc sizeModel = new EstimatedMessageSizeModel();
+
+  /**
+   * Installs the scheme message identifiers are assigned with from now on.
+   *
+   * @param generator The message identifier generator
+   */
+  public static void setMessageIdGenerator(MessageIdGeneratorIfc generator) {
+    if (generator == null) throw new IllegalArgumentException("The generator cannot be 'null'");
+    idGenerator = generator;
+  }
+
+  /**
+   * Installs the model messages are weighed with from now on.
+   *
+   * @param model The message size model
+   */
+  public static void setMessageSizeModel(MessageSizeModelIfc model) {
+    if (model == null) throw new IllegalArgumentException("The model cannot be 'null'");
+    sizeModel = model;
+  }
+
+  /**
+   * Returns the weight of a typical message of the given type in terms of bits,
+   * according to the installed {@link MessageSizeModelIfc}.
+   *
+   * @param type The message type
+   * @return The estimated number of bits
+   */
+  public static int getEstimatedBandwidth(Type type) {
+    return sizeModel.sizeOf(type);
+  }
+
   /**
    * Classification of *-stream message types.
    *
@@ -167,6 +211,55 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
       public int getPriority() {
         return 1;
       }
+    },
+    /**
+     * This kind of message typically travels over reliable transports and is
+     * used, in place of many {@link StarStreamMessage.Type#CHUNK_ADV} messages, to
+     * inform a node about all the chunks received since the previous simulated-time
+     * tick. The figure returned by {@link #getEstimatedBandwidth()} accounts for a
+     * bundle carrying a single chunk: see {@link EstimatedMessageSizeModel}.
+     */
+    CHUNK_ADV_BUNDLE {
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int getEstimatedBandwidth() {
+        return 1024;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int getPriority() {
+        return 3;
+      }
+    },
+    /**
+     * This kind of message typically travels over reliable transports and is
+     * periodically sent to neighbors to tell them which chunks, within a window of
+     * sequence ids, are locally available. Receiving nodes pull the chunks they miss
+     * by means of {@link StarStreamMessage.Type#CHUNK_REQ} messages. The figure
+     * returned by {@link #getEstimatedBandwidth()} does not account for the window:
+     * see {@link EstimatedMessageSizeModel}.
+     */
+    BUFFER_MAP {
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int getEstimatedBandwidth() {
+        return 1024;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      @Override
+      public int getPriority() {
+        return 3;
+      }
     };
 
     /**
@@ -194,9 +287,9 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
   }
 
   /**
-   * Identifier of the message this message is related to. 128
+   * Identifier of the message this message is related to. 64
    */
-  private UUID correlationId;
+  private long correlationId = NO_ID;
   /**
    * The node that has to receive the message. 128
    */
@@ -208,9 +301,9 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
 
   private int retries;
   /**
-   * Unique message identifier. 128
+   * Unique message identifier. 64
    */
-  private UUID messageId;
+  private long messageId;
   /**
    * The node that originally sent the message for first. 128
    */
@@ -234,7 +327,7 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
     this.source = src;
     this.originator = src;
     this.destination = dst;
-    messageId = UUID.randomUUID();
+    messageId = idGenerator.nextId(src);
     hops = 0;
     retries = 0;
     timeStamp = CommonState.getTime();
@@ -278,7 +371,7 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
       return false;
 
     StarStreamMessage that = (StarStreamMessage)obj;
-    return this.messageId.equals(that.messageId) &&
+    return this.messageId == that.messageId &&
             this.getType().equals(that.getType());
   }
 
@@ -288,8 +381,8 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
   @Override
   public int hashCode() {
     int hash = 17;
-    hash = 31 * hash + this.messageId.hashCode();
-    hash = 31 * hash + this.getType().hashCode();
+    hash = 31 * hash + (int) (this.messageId ^ (this.messageId >>> 32));
+    hash = 31 * hash + this.getType().ordinal();
     return hash;
   }
 
@@ -301,9 +394,9 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
 
   /**
    * Returns the message identifier of the message this message is related to.
-   * @return The correlated message identifier
+   * @return The correlated message identifier, {@link StarStreamMessage#NO_ID} if none
    */
-  public UUID getCorrelationId() {
+  public long getCorrelationId() {
     return correlationId;
   }
 
@@ -315,9 +408,15 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
     return destination;
   }
 
-//  public int getEstimantedBandwidth() {
-//    return getType().getEstimatedBandwidth();
-//  }
+  /**
+   * Returns the weight of this very message in terms of bits, according to the
+   * installed {@link MessageSizeModelIfc}.
+   *
+   * @return The estimated number of bits
+   */
+  public final int getEstimatedBandwidth() {
+    return sizeModel.sizeOf(this);
+  }
 
   /**
    * Returns the number of hops the message has travelled so far.
@@ -331,7 +430,7 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
    * The unique immutable identifier associated with the message.
    * @return The message identifier
    */
-  public UUID getMessageId() {
+  public long getMessageId() {
     return messageId;
   }
 
@@ -401,7 +500,7 @@ public abstract class StarStreamMessage implements Comparable<StarStreamMessage>
    * Sets the message identifier of the message this message is related to.
    * @param cid The correlated message identifier
    */
-  protected void setCorrelationId(UUID cid) {
+  protected void setCorrelationId(long cid) {
     this.correlationId = cid;
   }
 
@@ -0,0 +1,55 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.tools;
+
+import peersim.edsim.Heap;
+import peersim.edsim.PriorityQ.Event;
+
+/**
+ * PeerSim event queue that counts the events it hands out to the simulator,
+ * that is the number of events processed. It can be plugged into any simulation
+ * by means of the {@code simulation.eventqueue} configuration property.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class CountingHeap extends Heap {
+
+  /**
+   * Events removed from any instance so far.
+   */
+  private static long processedEvents;
+
+  /**
+   * Constructor.
+   *
+   * @param prefix The configuration prefix
+   */
+  public CountingHeap(String prefix) {
+    super(prefix);
+  }
+
+  /**
+   * Returns how many events have been removed from the queue so far.
+   *
+   * @return The number of processed events
+   */
+  public static long getProcessedEvents() {
+    return processedEvents;
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  @Override
+  public Event removeFirst() {
+    Event event = super.removeFirst();
+    if (event != null) {
+      processedEvents++;
+    }
+    return event;
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.tools;
+
+import com.google.code.peersim.starstream.protocol.EventLog;
+import com.google.code.peersim.starstream.protocol.EventLog.Event;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Turns binary *-Stream event logs, written when {@code logFormat} is set to
+ * {@link EventLog#BINARY}, into the text the same events would have been logged
+ * with in {@link EventLog#TEXT} format, messages aside: these are rendered out of
+ * the recorded fields only.<br>
+ * Usage: {@code EventLogDecoder <file.bin>+}; the text is printed to the standard
+ * output, the files one after the other.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class EventLogDecoder {
+
+  /**
+   * Entry point.
+   *
+   * @param args The binary log files
+   * @throws java.io.IOException Thrown iff a file cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      throw new IllegalArgumentException("Usage: EventLogDecoder <file.bin>+");
+    }
+    PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+    for (String file : args) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      try {
+        decode(in, out);
+      } finally {
+        in.close();
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Decodes every record of the given binary log.
+   *
+   * @param in The binary log
+   * @param out The stream to print the text to
+   * @throws java.io.IOException Thrown iff the log cannot be read or is not a binary event log
+   */
+  static void decode(DataInputStream in, PrintStream out) throws IOException {
+    if (in.readInt() != EventLog.BINARY_MAGIC) {
+      throw new IOException("Not a *-Stream binary event log");
+    }
+    int version = in.readInt();
+    if (version != EventLog.BINARY_VERSION) {
+      throw new IOException("Unsupported binary event log version " + version);
+    }
+    Event[] events = Event.values();
+    StarStreamMessage.Type[] types = StarStreamMessage.Type.values();
+    while (true) {
+      long time;
+      try {
+        time = in.readLong();
+      } catch (EOFException e) {
+        // no more records
+        break;
+      }
+      long nodeId = in.readLong();
+      Event event = events[in.readByte()];
+      long value = in.readLong();
+      String message = null;
+      byte type = in.readByte();
+      if (type >= 0) {
+        long messageId = in.readLong();
+        long correlationId = in.readLong();
+        long sourceId = in.readLong();
+        long destinationId = in.readLong();
+        int seqId = in.readInt();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Type: ").append(types[type]).append(" Id: ").append(messageId);
+        if (correlationId != StarStreamMessage.NO_ID) {
+          sb.append(" Corr: ").append(correlationId);
+        }
+        sb.append(" Src: ").append(sourceId).append(" Dst: ").append(destinationId);
+        if (seqId >= 0) {
+          sb.append(" Seq: ").append(seqId);
+        }
+        message = sb.toString();
+      }
+      String details = in.readBoolean() ? in.readUTF() : null;
+      out.println(EventLog.format(time, nodeId, event, value, message, details));
+    }
+  }
+}
@@ -0,0 +1,467 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import peersim.config.Configuration;
+import peersim.config.ParsedProperties;
+import peersim.core.CommonState;
+import peersim.edsim.EDSimulator;
+
+/**
+ * End-to-end scaling benchmark: runs a family of PeerSim configurations, by
+ * default {@code config/starstream-N000.properties}, each one headless in its
+ * own JVM, and reports how the cost of the simulation grows with {@code network.size}.
+ * For each configuration the following figures are recorded:
+ * <ul>
+ * <li>wall-clock time of the simulation (initialization included)</li>
+ * <li>processed events, and events processed per second</li>
+ * <li>peak heap usage, as the sum of the peaks of every heap memory pool</li>
+ * <li>GC time and count</li>
+ * <li>allocated bytes and allocation rate, where the JVM can measure them</li>
+ * </ul>
+ * Results are written to {@code <out>.csv} and {@code <out>.json}; in both,
+ * the {@code *Exponent} figures are the local scaling exponents with respect
+ * to the previous, smaller, network, that is {@code log(y2/y1)/log(n2/n1)}: a value
+ * of {@code 1} means linear growth, {@code 2} quadratic growth.<br>
+ * The output of every simulation, logs included, is kept in {@code <out>-runs/<config>}.
+ * <br><br>
+ * Usage: {@code ScalingBenchmark [-out <prefix>] [-jvmargs <args>] [config]*}, where
+ * {@code <args>} are the space-separated arguments of the JVMs running the simulations.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class ScalingBenchmark {
+
+  /**
+   * Directory the default configurations are looked for in.
+   */
+  public static final String CONFIG_DIR = "config";
+  /**
+   * Default prefix of the report files.
+   */
+  public static final String DEFAULT_OUT = "scaling";
+  /**
+   * Names of the default configurations, the group being the network size in thousands.
+   */
+  private static final Pattern CONFIG_NAME = Pattern.compile("starstream-(\\d+)000\\.properties");
+  /**
+   * Option that makes the JVM run a single configuration and store its figures.
+   */
+  private static final String SINGLE_RUN = "-single";
+  /**
+   * Report columns, in order.
+   */
+  private static final String[] COLUMNS = new String[]{
+    "config", "nodes", "wallClockMs", "events", "eventsPerSecond", "peakHeapBytes",
+    "gcTimeMs", "gcCount", "allocatedBytes", "allocationRateBytesPerSecond",
+    "wallClockExponent", "peakHeapExponent"
+  };
+
+  /**
+   * Entry point.
+   *
+   * @param args The command line arguments
+   * @throws Exception Thrown iff a run cannot be completed
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length == 3 && SINGLE_RUN.equals(args[0])) {
+      runSingle(args[1], new File(args[2]));
+      return;
+    }
+    String out = DEFAULT_OUT;
+    List<String> jvmArgs = new ArrayList<String>();
+    List<File> configs = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-out".equals(args[i]) && i + 1 < args.length) {
+        out = args[++i];
+      } else if ("-jvmargs".equals(args[i]) && i + 1 < args.length) {
+        for (String arg : args[++i].trim().split("\\s+")) {
+          if (arg.length() > 0) {
+            jvmArgs.add(arg);
+          }
+        }
+      } else if (args[i].startsWith("-")) {
+        throw new IllegalArgumentException("Unknown option " + args[i] + ". Usage: ScalingBenchmark [-out <prefix>] [-jvmargs <args>] [config]*");
+      } else {
+        configs.add(new File(args[i]));
+      }
+    }
+    if (configs.isEmpty()) {
+      configs = defaultConfigs();
+    }
+
+    File runsDir = new File(out + "-runs");
+    List<Properties> results = new ArrayList<Properties>();
+    for (File config : configs) {
+      System.err.print("Running " + config + "... ");
+      Properties result = fork(config, new File(runsDir, baseName(config)), jvmArgs);
+      System.err.println(result.getProperty("wallClockMs") + " ms");
+      results.add(result);
+    }
+    Collections.sort(results, new Comparator<Properties>() {
+
+      @Override
+      public int compare(Properties p1, Properties p2) {
+        long diff = getLong(p1, "nodes") - getLong(p2, "nodes");
+        return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+      }
+    });
+    addExponents(results, "wallClockMs", "wallClockExponent");
+    addExponents(results, "peakHeapBytes", "peakHeapExponent");
+    writeCsv(results, new File(out + ".csv"));
+    writeJson(results, new File(out + ".json"));
+    System.err.println("Report written to " + out + ".csv and " + out + ".json");
+  }
+
+  /**
+   * Returns the {@code starstream-N000.properties} files found in {@link ScalingBenchmark#CONFIG_DIR},
+   * ordered by network size.
+   *
+   * @return The configuration files
+   */
+  private static List<File> defaultConfigs() {
+    File[] files = new File(CONFIG_DIR).listFiles(new FilenameFilter() {
+
+      @Override
+      public boolean accept(File dir, String name) {
+        return CONFIG_NAME.matcher(name).matches();
+      }
+    });
+    if (files == null || files.length == 0) {
+      throw new IllegalStateException("No configuration found in " + new File(CONFIG_DIR).getAbsolutePath());
+    }
+    Arrays.sort(files, new Comparator<File>() {
+
+      @Override
+      public int compare(File f1, File f2) {
+        return sizeOf(f1) - sizeOf(f2);
+      }
+
+      private int sizeOf(File f) {
+        Matcher m = CONFIG_NAME.matcher(f.getName());
+        m.matches();
+        return Integer.parseInt(m.group(1));
+      }
+    });
+    return Arrays.asList(files);
+  }
+
+  /**
+   * Runs the given configuration in a new JVM whose working directory is {@code runDir},
+   * and returns the figures it recorded.
+   *
+   * @param config The configuration file
+   * @param runDir The working directory
+   * @param jvmArgs Additional JVM arguments
+   * @return The figures
+   * @throws IOException Thrown iff the JVM cannot be started, or fails
+   * @throws InterruptedException Thrown iff interrupted while waiting for the JVM
+   */
+  private static Properties fork(File config, File runDir, List<String> jvmArgs) throws IOException, InterruptedException {
+    if (!runDir.isDirectory() && !runDir.mkdirs()) {
+      throw new IOException("Cannot create directory " + runDir);
+    }
+    File resultFile = new File(runDir, "result.properties");
+    resultFile.delete();
+    List<String> cmd = new ArrayList<String>();
+    cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    cmd.addAll(jvmArgs);
+    cmd.add("-cp");
+    cmd.add(absoluteClassPath());
+    cmd.add(ScalingBenchmark.class.getName());
+    cmd.add(SINGLE_RUN);
+    cmd.add(config.getAbsolutePath());
+    cmd.add(resultFile.getAbsolutePath());
+    ProcessBuilder pb = new ProcessBuilder(cmd);
+    pb.directory(runDir);
+    pb.redirectErrorStream(true);
+    Process p = pb.start();
+    OutputStream log = new FileOutputStream(new File(runDir, "simulation.out"));
+    try {
+      copy(p.getInputStream(), log);
+    } finally {
+      log.close();
+    }
+    int exit = p.waitFor();
+    if (exit != 0 || !resultFile.isFile()) {
+      throw new IOException("Simulation of " + config + " failed (exit code " + exit + "), see " + new File(runDir, "simulation.out"));
+    }
+    Properties result = new Properties();
+    InputStream in = new FileInputStream(resultFile);
+    try {
+      result.load(in);
+    } finally {
+      in.close();
+    }
+    result.setProperty("config", config.getPath());
+    return result;
+  }
+
+  /**
+   * Runs the given configuration in the current JVM and stores the recorded
+   * figures to the given file.
+   *
+   * @param config The configuration file
+   * @param resultFile The file to store the figures to
+   * @throws IOException Thrown iff either file cannot be accessed
+   */
+  private static void runSingle(String config, File resultFile) throws IOException {
+    Configuration.setConfig(new ParsedProperties(new String[]{
+      config,
+      "simulation.eventqueue " + CountingHeap.class.getName()
+    }));
+    CommonState.initializeRandom(Configuration.getLong(CommonState.PAR_SEED, System.currentTimeMillis()));
+    int nodes = Configuration.getInt("network.size");
+
+    List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+        heapPools.add(pool);
+      }
+    }
+    long gcTimeStart = totalGcTime();
+    long gcCountStart = totalGcCount();
+    long allocatedStart = allocatedBytes();
+    long start = System.nanoTime();
+
+    EDSimulator.nextExperiment();
+
+    long elapsedNanos = System.nanoTime() - start;
+    long gcTime = totalGcTime() - gcTimeStart;
+    long gcCount = totalGcCount() - gcCountStart;
+    long allocated = (allocatedStart < 0) ? -1 : allocatedBytes() - allocatedStart;
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : heapPools) {
+      peakHeap += pool.getPeakUsage().getUsed();
+    }
+    long events = CountingHeap.getProcessedEvents();
+    double seconds = elapsedNanos / 1e9;
+
+    Properties result = new Properties();
+    result.setProperty("nodes", String.valueOf(nodes));
+    result.setProperty("wallClockMs", String.valueOf(elapsedNanos / 1000000));
+    result.setProperty("events", String.valueOf(events));
+    result.setProperty("eventsPerSecond", String.valueOf(Math.round(events / seconds)));
+    result.setProperty("peakHeapBytes", String.valueOf(peakHeap));
+    result.setProperty("gcTimeMs", String.valueOf(gcTime));
+    result.setProperty("gcCount", String.valueOf(gcCount));
+    result.setProperty("allocatedBytes", String.valueOf(allocated));
+    result.setProperty("allocationRateBytesPerSecond", String.valueOf(allocated < 0 ? -1 : Math.round(allocated / seconds)));
+    OutputStream out = new FileOutputStream(resultFile);
+    try {
+      result.store(out, config);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Returns the overall time spent in GC so far.
+   *
+   * @return The GC time in ms
+   */
+  private static long totalGcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return time;
+  }
+
+  /**
+   * Returns the overall number of GCs so far.
+   *
+   * @return The GC count
+   */
+  private static long totalGcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread, the one running
+   * the simulation, or {@code -1} if the JVM cannot tell.
+   *
+   * @return The allocated bytes
+   */
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long bytes = -1;
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        bytes = sunThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Adds to each result, but the first one, the local scaling exponent of
+   * the given figure with respect to the previous result.
+   *
+   * @param results The results, ordered by network size
+   * @param figure The figure
+   * @param exponent The name of the exponent
+   */
+  private static void addExponents(List<Properties> results, String figure, String exponent) {
+    for (int i = 0; i < results.size(); i++) {
+      String value = "";
+      if (i > 0) {
+        double n1 = getLong(results.get(i - 1), "nodes");
+        double n2 = getLong(results.get(i), "nodes");
+        double y1 = getLong(results.get(i - 1), figure);
+        double y2 = getLong(results.get(i), figure);
+        if (n1 > 0 && n2 > n1 && y1 > 0 && y2 > 0) {
+          value = String.format(Locale.US, "%.3f", Math.log(y2 / y1) / Math.log(n2 / n1));
+        }
+      }
+      results.get(i).setProperty(exponent, value);
+    }
+  }
+
+  /**
+   * Writes the results as CSV, one row per configuration.
+   *
+   * @param results The results
+   * @param file The file to write to
+   * @throws IOException Thrown iff the file cannot be written
+   */
+  private static void writeCsv(List<Properties> results, File file) throws IOException {
+    PrintStream out = new PrintStream(new FileOutputStream(file));
+    try {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < COLUMNS.length; i++) {
+        sb.append(i > 0 ? "," : "").append(COLUMNS[i]);
+      }
+      out.println(sb);
+      for (Properties result : results) {
+        sb.setLength(0);
+        for (int i = 0; i < COLUMNS.length; i++) {
+          sb.append(i > 0 ? "," : "").append(result.getProperty(COLUMNS[i], ""));
+        }
+        out.println(sb);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes the results as a JSON object holding one array per column, that is
+   * one scaling curve per figure, ordered by network size.
+   *
+   * @param results The results
+   * @param file The file to write to
+   * @throws IOException Thrown iff the file cannot be written
+   */
+  private static void writeJson(List<Properties> results, File file) throws IOException {
+    PrintStream out = new PrintStream(new FileOutputStream(file));
+    try {
+      out.println("{");
+      for (int i = 0; i < COLUMNS.length; i++) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("  \"").append(COLUMNS[i]).append("\": [");
+        for (int j = 0; j < results.size(); j++) {
+          String value = results.get(j).getProperty(COLUMNS[i], "");
+          sb.append(j > 0 ? ", " : "");
+          if ("config".equals(COLUMNS[i])) {
+            sb.append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+          } else {
+            sb.append(value.length() == 0 ? "null" : value);
+          }
+        }
+        sb.append(']').append(i < COLUMNS.length - 1 ? "," : "");
+        out.println(sb);
+      }
+      out.println("}");
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Returns the class path of the current JVM with every entry made absolute,
+   * since forked JVMs run in a different working directory.
+   *
+   * @return The class path
+   */
+  private static String absoluteClassPath() {
+    StringBuilder sb = new StringBuilder();
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (sb.length() > 0) {
+        sb.append(File.pathSeparator);
+      }
+      sb.append(new File(entry).getAbsolutePath());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the name of the given file without its extension.
+   *
+   * @param file The file
+   * @return The base name
+   */
+  private static String baseName(File file) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    return (dot > 0) ? name.substring(0, dot) : name;
+  }
+
+  /**
+   * Parses a figure of the given result.
+   *
+   * @param result The result
+   * @param figure The figure
+   * @return The value
+   */
+  private static long getLong(Properties result, String figure) {
+    return Long.parseLong(result.getProperty(figure));
+  }
+
+  /**
+   * Copies the given stream into the other one, until the former is exhausted.
+   *
+   * @param in The input stream
+   * @param out The output stream
+   * @throws IOException Thrown iff either stream fails
+   */
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = in.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import peersim.config.ParsedProperties;
+
+/**
+ * Runs many independent PeerSim configurations, such as the {@code config/starstream-*.properties}
+ * family, concurrently within a single JVM, thus paying for the JVM start-up only once.<br>
+ * PeerSim keeps its configuration, network and clock in static fields, and
+ * so do the Pastry controls and the *-Stream {@link com.google.code.peersim.starstream.controls.SimulationContext}:
+ * each run is therefore given its own class loader, that loads the simulator and
+ * the protocols anew out of the class path, and is isolated from any other run.
+ * Note that PeerSim exits the JVM upon configuration errors, hence a broken
+ * configuration stops the whole sweep.<br>
+ * Every property whose name ends with {@code .log} or {@code .traceFile} is
+ * prefixed with the run directory, {@code <out>/<config>}, so that runs do not
+ * write to the same files; the standard output and error streams are shared.
+ * The wall-clock time of every run is written to {@code <out>/sweep.csv}.
+ * <br><br>
+ * Usage: {@code SimulationSweep [-threads <n>] [-out <dir>] [config]*}, where
+ * {@code <n>} defaults to the number of available processors, {@code <dir>} to
+ * {@link SimulationSweep#DEFAULT_OUT} and the configurations to every
+ * {@code starstream*.properties} file in {@link SimulationSweep#CONFIG_DIR}.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class SimulationSweep {
+
+  /**
+   * Directory the default configurations are looked for in.
+   */
+  public static final String CONFIG_DIR = "config";
+  /**
+   * Default output directory.
+   */
+  public static final String DEFAULT_OUT = "sweep";
+  /**
+   * Suffixes of the names of the properties holding file name prefixes.
+   */
+  private static final String[] FILE_PROPERTIES = new String[]{".log", ".traceFile"};
+  /**
+   * The PeerSim entry point every run invokes.
+   */
+  private static final String SIMULATOR = "peersim.Simulator";
+  /**
+   * *-Stream classes whose buffered output must be written down, and whose threads
+   * and shutdown hooks must be released, once a run is over, together with the
+   * static method doing that: anything left behind would keep the class loader
+   * of the run, and its whole network, reachable until the JVM exits.
+   */
+  private static final String[][] FLUSHERS = new String[][]{
+    {"com.google.code.peersim.starstream.protocol.EventLog", "closeAll"},
+    {"com.google.code.peersim.starstream.protocol.TraceRecorder", "closeAll"},
+    {"com.google.code.peersim.starstream.controls.SimulationContext", "release"}
+  };
+
+  /**
+   * Entry point.
+   *
+   * @param args The command line arguments
+   * @throws Exception Thrown iff a run cannot be completed
+   */
+  public static void main(String[] args) throws Exception {
+    int threads = Runtime.getRuntime().availableProcessors();
+    File out = new File(DEFAULT_OUT);
+    List<File> configs = new ArrayList<File>();
+    for (int i = 0; i < args.length; i++) {
+      if ("-threads".equals(args[i]) && i + 1 < args.length) {
+        threads = Integer.parseInt(args[++i]);
+      } else if ("-out".equals(args[i]) && i + 1 < args.length) {
+        out = new File(args[++i]);
+      } else if (args[i].startsWith("-")) {
+        throw new IllegalArgumentException("Unknown option " + args[i] + ". Usage: SimulationSweep [-threads <n>] [-out <dir>] [config]*");
+      } else {
+        configs.add(new File(args[i]));
+      }
+    }
+    if (configs.isEmpty()) {
+      configs = defaultConfigs();
+    }
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one thread is needed");
+    }
+
+    final URL[] classPath = classPath();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, configs.size()));
+    List<Future<Long>> results = new ArrayList<Future<Long>>();
+    try {
+      for (final File config : configs) {
+        final File runDir = new File(out, baseName(config));
+        results.add(executor.submit(new Callable<Long>() {
+
+          @Override
+          public Long call() throws Exception {
+            return run(config, runDir, classPath);
+          }
+        }));
+      }
+      PrintStream csv = new PrintStream(new FileOutputStream(new File(out, "sweep.csv")));
+      try {
+        csv.println("config,wallClockMs");
+        for (int i = 0; i < configs.size(); i++) {
+          long elapsed = results.get(i).get();
+          System.err.println("Run of " + configs.get(i) + " completed in " + elapsed + " ms");
+          csv.println(configs.get(i).getPath() + "," + elapsed);
+        }
+      } finally {
+        csv.close();
+      }
+    } catch (ExecutionException e) {
+      throw new IOException("A run failed. See nested exceptions, please.", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    System.err.println("Report written to " + new File(out, "sweep.csv"));
+  }
+
+  /**
+   * Runs the given configuration in a class loader of its own.
+   *
+   * @param config The configuration file
+   * @param runDir The directory the run writes its files to
+   * @param classPath The class path the run loads its classes from
+   * @return The wall-clock time of the run, in ms
+   * @throws Exception Thrown iff the run cannot be completed
+   */
+  private static long run(File config, File runDir, URL[] classPath) throws Exception {
+    if (!runDir.isDirectory() && !runDir.mkdirs()) {
+      throw new IOException("Cannot create directory " + runDir);
+    }
+    List<String> simulatorArgs = new ArrayList<String>();
+    simulatorArgs.add(config.getPath());
+    simulatorArgs.addAll(fileOverrides(config, runDir));
+
+    // the bootstrap class loader as parent: nothing is shared with other runs but the JDK
+    ClassLoader loader = new URLClassLoader(classPath, null);
+    Thread thread = Thread.currentThread();
+    ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(loader);
+    long start = System.nanoTime();
+    try {
+      Method main = loader.loadClass(SIMULATOR).getMethod("main", String[].class);
+      main.invoke(null, (Object) simulatorArgs.toArray(new String[simulatorArgs.size()]));
+      for (String[] flusher : FLUSHERS) {
+        loader.loadClass(flusher[0]).getMethod(flusher[1]).invoke(null);
+      }
+    } catch (InvocationTargetException e) {
+      throw new IOException("Simulation of " + config + " failed. See nested exceptions, please.", e.getCause());
+    } finally {
+      thread.setContextClassLoader(previous);
+    }
+    return (System.nanoTime() - start) / 1000000;
+  }
+
+  /**
+   * Returns the PeerSim overrides that prefix every file name configured by the
+   * given configuration with the run directory.
+   *
+   * @param config The configuration file
+   * @param runDir The run directory
+   * @return The overrides, as {@code name value} pairs
+   * @throws IOException Thrown iff the configuration cannot be read
+   */
+  private static List<String> fileOverrides(File config, File runDir) throws IOException {
+    ParsedProperties props = new ParsedProperties(config.getPath());
+    List<String> overrides = new ArrayList<String>();
+    for (String name : props.stringPropertyNames()) {
+      for (String suffix : FILE_PROPERTIES) {
+        if (name.endsWith(suffix)) {
+          overrides.add(name + " " + new File(runDir, props.getProperty(name)).getAbsolutePath());
+        }
+      }
+    }
+    return overrides;
+  }
+
+  /**
+   * Returns the {@code starstream*.properties} files found in {@link SimulationSweep#CONFIG_DIR}.
+   *
+   * @return The configuration files
+   */
+  private static List<File> defaultConfigs() {
+    File[] files = new File(CONFIG_DIR).listFiles(new FilenameFilter() {
+
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith("starstream") && name.endsWith(".properties");
+      }
+    });
+    if (files == null || files.length == 0) {
+      throw new IllegalStateException("No configuration found in " + new File(CONFIG_DIR).getAbsolutePath());
+    }
+    Arrays.sort(files);
+    return Arrays.asList(files);
+  }
+
+  /**
+   * Returns the class path of the current JVM as URLs.
+   *
+   * @return The class path
+   * @throws MalformedURLException Thrown iff an entry cannot be turned into an URL
+   */
+  private static URL[] classPath() throws MalformedURLException {
+    String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+    URL[] urls = new URL[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      urls[i] = new File(entries[i]).toURI().toURL();
+    }
+    return urls;
+  }
+
+  /**
+   * Returns the name of the given file without its extension.
+   *
+   * @param file The file
+   * @return The base name
+   */
+  private static String baseName(File file) {
+    String name = file.getName();
+    int dot = name.lastIndexOf('.');
+    return (dot > 0) ? name.substring(0, dot) : name;
+  }
+}
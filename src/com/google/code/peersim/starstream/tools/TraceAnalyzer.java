@@ -0,0 +1,150 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.tools;
+
+import com.google.code.peersim.starstream.controls.LatencyHistogram;
+import com.google.code.peersim.starstream.protocol.TraceRecorder;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Replays a trace written by {@link TraceRecorder} and prints, to the standard
+ * output, a summary of the traced run:
+ * <ul>
+ * <li>the number of records and the traced time window</li>
+ * <li>messages sent and received, and bandwidth sent, by message type</li>
+ * <li>the hops taken by the received messages</li>
+ * <li>the chunk dissemination times, that is for each chunk, by session index
+ * and sequence id, the time between its first transmission by the source and the
+ * last time it has been received</li>
+ * </ul>
+ * Usage: {@code TraceAnalyzer [-print] <file.trace>}, where {@code -print}
+ * also prints every record as a line of text.
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class TraceAnalyzer {
+
+  /**
+   * Entry point.
+   *
+   * @param args The command line arguments
+   * @throws java.io.IOException Thrown iff the trace cannot be read
+   */
+  public static void main(String[] args) throws IOException {
+    boolean print = false;
+    File trace = null;
+    for (String arg : args) {
+      if ("-print".equals(arg)) {
+        print = true;
+      } else if (arg.startsWith("-") || trace != null) {
+        throw new IllegalArgumentException("Usage: TraceAnalyzer [-print] <file.trace>");
+      } else {
+        trace = new File(arg);
+      }
+    }
+    if (trace == null) {
+      throw new IllegalArgumentException("Usage: TraceAnalyzer [-print] <file.trace>");
+    }
+    PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+    analyze(new TraceReader(trace), print, out);
+    out.flush();
+  }
+
+  /**
+   * Streams over every record and prints the summary.
+   *
+   * @param reader The trace
+   * @param print Whether every record must be printed too
+   * @param out The stream to print to
+   * @throws java.io.IOException Thrown iff the trace cannot be read
+   */
+  static void analyze(TraceReader reader, boolean print, PrintStream out) throws IOException {
+    StarStreamMessage.Type[] types = StarStreamMessage.Type.values();
+    long[] sent = new long[types.length];
+    long[] received = new long[types.length];
+    long[] sentBandwidth = new long[types.length];
+    LatencyHistogram hops = new LatencyHistogram();
+    // per session index, then per chunk sequence id: first source transmission and last reception
+    long[][] firstSent = new long[0][];
+    long[][] lastReceived = new long[0][];
+    long firstTime = Long.MAX_VALUE;
+    long lastTime = Long.MIN_VALUE;
+    try {
+      while (reader.next()) {
+        long time = reader.getTime();
+        firstTime = Math.min(firstTime, time);
+        lastTime = Math.max(lastTime, time);
+        int type = reader.getType().ordinal();
+        int seqId = reader.getSequenceId();
+        int session = reader.getSessionIndex();
+        boolean chunk = reader.getType() == StarStreamMessage.Type.CHUNK && seqId >= 0 && session >= 0;
+        if (chunk && session >= firstSent.length) {
+          int from = firstSent.length;
+          firstSent = Arrays.copyOf(firstSent, session + 1);
+          lastReceived = Arrays.copyOf(lastReceived, session + 1);
+          for (int i = from; i <= session; i++) {
+            firstSent[i] = new long[0];
+            lastReceived[i] = new long[0];
+          }
+        }
+        if (chunk && seqId >= firstSent[session].length) {
+          int length = Math.max(seqId + 1, firstSent[session].length * 2);
+          int from = firstSent[session].length;
+          firstSent[session] = Arrays.copyOf(firstSent[session], length);
+          lastReceived[session] = Arrays.copyOf(lastReceived[session], length);
+          Arrays.fill(firstSent[session], from, length, -1);
+          Arrays.fill(lastReceived[session], from, length, -1);
+        }
+        if (reader.isSend()) {
+          sent[type]++;
+          sentBandwidth[type] += reader.getBandwidth();
+          if (chunk && reader.getSourceId() == -1 && firstSent[session][seqId] == -1) {
+            firstSent[session][seqId] = time;
+          }
+        } else {
+          received[type]++;
+          hops.record(Math.max(0, reader.getHops()));
+          if (chunk) {
+            lastReceived[session][seqId] = Math.max(lastReceived[session][seqId], time);
+          }
+        }
+        if (print) {
+          out.println(time + ") " + (reader.isSend() ? "[SND]" : "[RCV]") + " Type: " + reader.getType() +
+                  " Id: " + reader.getMessageId() + " Src: " + reader.getSourceId() + " Dst: " + reader.getDestinationId() +
+                  " Session: " + session + " Seq: " + seqId + " Hops: " + reader.getHops() + " Retries: " + reader.getRetries());
+        }
+      }
+    } finally {
+      reader.close();
+    }
+
+    out.println("Records: " + reader.getRecords());
+    out.println("Time window: " + (reader.getRecords() == 0 ? 0 : lastTime - firstTime) + " [" + firstTime + ".." + lastTime + "]");
+    for (StarStreamMessage.Type type : types) {
+      int i = type.ordinal();
+      out.println(type + " sent/received/bandwidth-sent: " + sent[i] + "/" + received[i] + "/" + sentBandwidth[i]);
+    }
+    out.println("Hops of received messages [mean/p50/p99/max]: " + hops.getMean() + "/" + hops.getValueAtPercentile(50) + "/" +
+            hops.getValueAtPercentile(99) + "/" + hops.getMax());
+    LatencyHistogram dissemination = new LatencyHistogram();
+    for (int session = 0; session < firstSent.length; session++) {
+      for (int seqId = 0; seqId < firstSent[session].length; seqId++) {
+        if (firstSent[session][seqId] >= 0 && lastReceived[session][seqId] >= firstSent[session][seqId]) {
+          dissemination.record(lastReceived[session][seqId] - firstSent[session][seqId]);
+        }
+      }
+    }
+    out.println("Chunk dissemination time [chunks/mean/p50/p90/p99/max]: " + dissemination.getCount() + "/" + dissemination.getMean() + "/" +
+            dissemination.getValueAtPercentile(50) + "/" + dissemination.getValueAtPercentile(90) + "/" +
+            dissemination.getValueAtPercentile(99) + "/" + dissemination.getMax());
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * To change this template, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package com.google.code.peersim.starstream.tools;
+
+import com.google.code.peersim.starstream.protocol.TraceRecorder;
+import com.google.code.peersim.starstream.protocol.messages.StarStreamMessage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streams over the records of a trace written by {@link TraceRecorder}, mapping
+ * the file one segment at a time so that traces of any size can be read in constant
+ * memory. Usage:
+ * <pre>
+ * TraceReader reader = new TraceReader(file);
+ * while (reader.next()) {
+ *   ... reader.getTime() ... reader.getType() ...
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * @author frusso
+ * @version 0.1
+ * @since 0.1
+ */
+public class TraceReader {
+
+  private final RandomAccessFile file;
+  private final long records;
+  private final StarStreamMessage.Type[] types = StarStreamMessage.Type.values();
+  private MappedByteBuffer segment;
+  private long read = 0;
+  private long time;
+  private long messageId;
+  private long sourceId;
+  private long destinationId;
+  private int sequenceId;
+  private short sessionIndex;
+  private int hops;
+  private int bandwidth;
+  private short retries;
+  private byte event;
+  private StarStreamMessage.Type type;
+
+  /**
+   * Constructor.
+   *
+   * @param trace The trace file
+   * @throws java.io.IOException Thrown iff the file cannot be read or is not a trace
+   */
+  public TraceReader(File trace) throws IOException {
+    file = new RandomAccessFile(trace, "r");
+    ByteBuffer header = ByteBuffer.allocate(TraceRecorder.HEADER_SIZE);
+    file.getChannel().read(header, 0);
+    header.flip();
+    if (header.remaining() < TraceRecorder.HEADER_SIZE || header.getInt() != TraceRecorder.MAGIC) {
+      file.close();
+      throw new IOException(trace + " is not a *-Stream trace");
+    }
+    int version = header.getInt();
+    int recordSize = header.getInt();
+    if (version != TraceRecorder.VERSION || recordSize != TraceRecorder.RECORD_SIZE) {
+      file.close();
+      throw new IOException("Unsupported trace version " + version);
+    }
+    records = header.getLong();
+  }
+
+  /**
+   * Returns how many records the trace holds.
+   *
+   * @return The number of records
+   */
+  public long getRecords() {
+    return records;
+  }
+
+  /**
+   * Moves to the next record.
+   *
+   * @return Whether there was a next record or the trace is over
+   * @throws java.io.IOException Thrown iff the file cannot be mapped
+   */
+  public boolean next() throws IOException {
+    if (read == records) {
+      return false;
+    }
+    if (read % TraceRecorder.SEGMENT_RECORDS == 0) {
+      long segmentSize = (long) TraceRecorder.SEGMENT_RECORDS * TraceRecorder.RECORD_SIZE;
+      long position = TraceRecorder.HEADER_SIZE + read * TraceRecorder.RECORD_SIZE;
+      long size = Math.min(segmentSize, (records - read) * TraceRecorder.RECORD_SIZE);
+      segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+    time = segment.getLong();
+    messageId = segment.getLong();
+    sourceId = segment.getLong();
+    destinationId = segment.getLong();
+    sequenceId = segment.getInt();
+    sessionIndex = segment.getShort();
+    hops = segment.getInt();
+    bandwidth = segment.getInt();
+    retries = segment.getShort();
+    event = segment.get();
+    type = types[segment.get()];
+    read++;
+    return true;
+  }
+
+  /**
+   * Releases the file.
+   *
+   * @throws java.io.IOException Thrown iff the file cannot be closed
+   */
+  public void close() throws IOException {
+    segment = null;
+    file.close();
+  }
+
+  public long getTime() {
+    return time;
+  }
+
+  public long getMessageId() {
+    return messageId;
+  }
+
+  public long getSourceId() {
+    return sourceId;
+  }
+
+  public long getDestinationId() {
+    return destinationId;
+  }
+
+  public int getSequenceId() {
+    return sequenceId;
+  }
+
+  public int getSessionIndex() {
+    return sessionIndex;
+  }
+
+  public int getHops() {
+    return hops;
+  }
+
+  public int getBandwidth() {
+    return bandwidth;
+  }
+
+  public int getRetries() {
+    return retries;
+  }
+
+  /**
+   * Tells whether the current record is about a sent message.
+   *
+   * @return {@link Boolean#TRUE} for sent messages, {@link Boolean#FALSE} for received ones
+   */
+  public boolean isSend() {
+    return event == TraceRecorder.SEND;
+  }
+
+  public StarStreamMessage.Type getType() {
+    return type;
+  }
+}